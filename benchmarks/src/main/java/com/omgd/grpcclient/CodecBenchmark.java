@@ -0,0 +1,106 @@
+package com.omgd.grpcclient;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.omgd.grpcclient.benchmark.EchoServer;
+import com.omgd.grpcclient.benchmark.Payloads;
+
+/**
+ * <p>
+ * the phases of a call one by one, on the call plan the client compiled from the bundled protos:
+ * JsonFormat parse, serialize, unmarshal and JsonFormat print, and the transcoder doing parse+serialize and
+ * unmarshal+print in one step
+ * </p>
+ * <p>
+ * lives in the client package to reach the call plan
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+    @Param({"example", "EventService"})
+    private String proto;
+    @Param({"16", "1024", "65536"})
+    private int payloadSize;
+
+    private EchoServer server;
+    private String name;
+    private CallPlan plan;
+    private String requestJson;
+    private DynamicMessage requestMessage;
+    private byte[] replyBytes;
+    private DynamicMessage replyMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = EchoServer.start();
+        ClientConfig config = Payloads.clientConfig(proto, server.getAddress(), 1);
+        Client.registerClient(config);
+        name = config.getName();
+        plan = Client.getPlan(name, Payloads.api(proto));
+        requestJson = Payloads.json(proto, payloadSize);
+        requestMessage = jsonParse();
+        // the echo server answers with the request bytes
+        replyBytes = requestMessage.toByteArray();
+        replyMessage = unmarshal();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Client.unRegisterClient(name);
+        server.shutdown();
+    }
+
+    @Benchmark
+    public DynamicMessage jsonParse() throws InvalidProtocolBufferException {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(plan.getRequestDescriptor());
+        plan.getParser().merge(requestJson, builder);
+        return builder.build();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return requestMessage.toByteArray();
+    }
+
+    @Benchmark
+    public DynamicMessage unmarshal() throws InvalidProtocolBufferException {
+        return DynamicMessage.parseFrom(plan.getReplyDescriptor(), replyBytes);
+    }
+
+    @Benchmark
+    public String jsonPrint() throws InvalidProtocolBufferException {
+        return plan.getPrinter().print(replyMessage);
+    }
+
+    @Benchmark
+    public byte[] transcodeRequest() {
+        return plan.getRequestTranscoder().toWire(requestJson);
+    }
+
+    @Benchmark
+    public String transcodeReply() {
+        return plan.getReplyTranscoder().toJson(replyBytes);
+    }
+}
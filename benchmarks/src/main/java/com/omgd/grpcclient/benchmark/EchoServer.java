@@ -0,0 +1,91 @@
+package com.omgd.grpcclient.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+
+import com.google.common.io.ByteStreams;
+
+import io.grpc.HandlerRegistry;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Server;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * loopback grpc server that answers every method with the request bytes, stands in for the real servers:
+ * request and reply types of the bundled protos share field numbers and types
+ */
+public final class EchoServer {
+    private static final Marshaller<byte[]> BYTE_ARRAY_MARSHALLER = new Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return ByteStreams.toByteArray(stream);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private final Server server;
+
+    private EchoServer(Server server) {
+        this.server = server;
+    }
+
+    // start on a free loopback port
+    public static EchoServer start() throws IOException {
+        HandlerRegistry registry = new HandlerRegistry() {
+            @Override
+            public ServerMethodDefinition<?, ?> lookupMethod(String methodName, String authority) {
+                MethodDescriptor<byte[], byte[]> method = MethodDescriptor.<byte[], byte[]>newBuilder()
+                        .setType(MethodType.BIDI_STREAMING)
+                        .setFullMethodName(methodName)
+                        .setRequestMarshaller(BYTE_ARRAY_MARSHALLER)
+                        .setResponseMarshaller(BYTE_ARRAY_MARSHALLER)
+                        .build();
+                ServerCallHandler<byte[], byte[]> handler = ServerCalls.asyncBidiStreamingCall(reply -> new StreamObserver<byte[]>() {
+                    @Override
+                    public void onNext(byte[] request) {
+                        reply.onNext(request);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        reply.onCompleted();
+                    }
+                });
+                return ServerMethodDefinition.create(method, handler);
+            }
+        };
+        Server server = NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                .fallbackHandlerRegistry(registry)
+                .build()
+                .start();
+        return new EchoServer(server);
+    }
+
+    public String getAddress() {
+        return "127.0.0.1:" + server.getPort();
+    }
+
+    public void shutdown() {
+        server.shutdownNow();
+    }
+}
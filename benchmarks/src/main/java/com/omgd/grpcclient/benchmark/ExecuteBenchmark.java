@@ -0,0 +1,98 @@
+package com.omgd.grpcclient.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.omgd.grpcclient.Client;
+import com.omgd.grpcclient.ClientConfig;
+import com.omgd.grpcclient.Code;
+import com.omgd.grpcclient.Response;
+
+/**
+ * <p>
+ * end to end Client.execute() against the loopback echo server: throughput and latency distribution
+ * </p>
+ * <p>
+ * run: java -jar target/benchmarks.jar ExecuteBenchmark -p payloadSize=1024 -p connections=4
+ * </p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark {
+    @Param({"example", "EventService"})
+    private String proto;
+    @Param({"16", "1024", "65536"})
+    private int payloadSize;
+    @Param({"1", "4"})
+    private int connections;
+
+    private EchoServer server;
+    private String name;
+    private Client client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = EchoServer.start();
+        ClientConfig config = Payloads.clientConfig(proto, server.getAddress(), connections);
+        Client.registerClient(config);
+        name = config.getName();
+        client = Client.create()
+                .name(name)
+                .api(Payloads.api(proto))
+                .paramsJson(Payloads.json(proto, payloadSize))
+                .timeout(5000)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Client.unRegisterClient(name);
+        server.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Response execute1Thread() {
+        return execute();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Response execute4Threads() {
+        return execute();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Response execute16Threads() {
+        return execute();
+    }
+
+    private Response execute() {
+        Response response = client.execute();
+        // a failing call would measure the error path, stop the run instead
+        if (response.getCode() != Code.OK) {
+            throw new IllegalStateException(response.toString());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,66 @@
+package com.omgd.grpcclient.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+import com.omgd.grpcclient.ClientConfig;
+
+/**
+ * bundled protos of the client jar and JSON requests of a given size for them
+ */
+public final class Payloads {
+    private static final AtomicInteger CLIENT_COUNTER = new AtomicInteger();
+
+    private Payloads() {
+    }
+
+    // proto: example or EventService, as in src/main/resources
+    public static String protoFileContent(String proto) throws IOException {
+        try (InputStream stream = Payloads.class.getResourceAsStream("/" + proto + ".proto")) {
+            if (stream == null) {
+                throw new IllegalArgumentException(String.format("proto[ %s ] not on the classpath", proto));
+            }
+            return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static String api(String proto) {
+        switch (proto) {
+            case "example":
+                return "ExampleServer/info";
+            case "EventService":
+                return "EventService/process";
+            default:
+                throw new IllegalArgumentException(String.format("proto[ %s ] is unknown", proto));
+        }
+    }
+
+    // request of about size bytes on the wire
+    public static String json(String proto, int size) {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+        String text = new String(chars);
+        switch (proto) {
+            case "example":
+                return "{\"name\":\"" + text + "\",\"title\":\"benchmark\"}";
+            case "EventService":
+                return "{\"payload\":\"" + text + "\"}";
+            default:
+                throw new IllegalArgumentException(String.format("proto[ %s ] is unknown", proto));
+        }
+    }
+
+    // config of a new client with a unique name, so trials never collide
+    public static ClientConfig clientConfig(String proto, String address, int connections) throws IOException {
+        return ClientConfig.create()
+                .name("benchmark-" + proto + "-" + CLIENT_COUNTER.incrementAndGet())
+                .protoFileContent(protoFileContent(proto))
+                .address(address)
+                .connections(connections)
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+package com.omgd.grpcclient;
+
+import io.grpc.MethodDescriptor.MethodType;
+
+/**
+ * rpc declared in the proto file: request/reply type names and streaming kind
+ */
+final class ApiDefinition {
+    private final String requestTypeName;
+    private final String replyTypeName;
+    private final MethodType methodType;
+
+    ApiDefinition(String requestTypeName, String replyTypeName, boolean clientStreaming, boolean serverStreaming) {
+        this.requestTypeName = requestTypeName;
+        this.replyTypeName = replyTypeName;
+        if (clientStreaming && serverStreaming) {
+            this.methodType = MethodType.BIDI_STREAMING;
+        } else if (clientStreaming) {
+            this.methodType = MethodType.CLIENT_STREAMING;
+        } else if (serverStreaming) {
+            this.methodType = MethodType.SERVER_STREAMING;
+        } else {
+            this.methodType = MethodType.UNARY;
+        }
+    }
+
+    String getRequestTypeName() {
+        return requestTypeName;
+    }
+
+    String getReplyTypeName() {
+        return replyTypeName;
+    }
+
+    MethodType getMethodType() {
+        return methodType;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append(methodType).append("(").append(requestTypeName).append(")->").append(replyTypeName).toString();
+    }
+}
@@ -0,0 +1,10 @@
+package com.omgd.grpcclient;
+
+/**
+ * <p>
+ * grpc response body format: JSON string, DynamicMessage or raw protobuf bytes
+ * </p>
+ */
+public enum BodyFormat {
+    JSON, MESSAGE, BYTES;
+}
@@ -0,0 +1,95 @@
+package com.omgd.grpcclient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>
+ * reply cache of read-mostly unary apis, set with {@link ClientConfig.Builder#cache(CacheConfig)}
+ * </p>
+ * <p>
+ * every listed api gets its own {@link ResponseCache} keyed by the serialized request. a hit skips the limiter and
+ * the network, and the rendered JSON or message is kept with the reply so it is built once per entry
+ * </p>
+ */
+public class CacheConfig {
+    // apis whose OK replies are cached, they must be idempotent
+    private Set<String> apis;
+    // milliseconds an entry lives after it was written
+    private int ttl;
+    private int maxEntries;
+    // bound of request and reply bytes of an api, used instead of maxEntries when set
+    private long maxBytes;
+
+    private CacheConfig() {
+
+    }
+
+    public void validate() {
+        if (apis == null || apis.isEmpty() ||
+                ttl <= 0 ||
+                maxEntries <= 0 ||
+                maxBytes < 0) {
+            throw new IllegalArgumentException("CacheConfig is Illegal");
+        }
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public Set<String> getApis() {
+        return apis;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // inner class for builder feature
+    public static class Builder {
+        private Set<String> apis = new HashSet<>();
+        private int ttl = 1000;
+        private int maxEntries = 10000;
+        private long maxBytes;
+
+        public Builder apis(String... apis) {
+            this.apis.addAll(Arrays.asList(apis));
+            return this;
+        }
+
+        public Builder ttl(int ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public CacheConfig build() {
+            CacheConfig config = new CacheConfig();
+            config.apis = Collections.unmodifiableSet(new HashSet<>(apis));
+            config.ttl = ttl;
+            config.maxEntries = maxEntries;
+            config.maxBytes = maxBytes;
+            return config;
+        }
+    }
+}
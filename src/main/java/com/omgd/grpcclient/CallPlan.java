@@ -0,0 +1,227 @@
+package com.omgd.grpcclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.util.JsonFormat;
+
+import io.grpc.CallOptions;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.protobuf.ProtoUtils;
+
+/**
+ * precompiled call plan of one api (Service/rpc), immutable and shared by all calls; retired once updateClient
+ * replaced it, clients holding it then rebind
+ */
+final class CallPlan {
+    private static final JsonFormat.Parser PARSER = JsonFormat.parser().ignoringUnknownFields();
+    private static final JsonFormat.Printer PRINTER = JsonFormat.printer().includingDefaultValueFields();
+    private static final Marshaller<byte[]> BYTE_ARRAY_MARSHALLER = new ByteArrayMarshaller();
+
+    // server inbound endpoint
+    private final String api;
+    private final Descriptor requestDescriptor;
+    private final Descriptor replyDescriptor;
+    private final MethodDescriptor<DynamicMessage, DynamicMessage> methodDescriptor;
+    // pass-through variant for callers that already hold protobuf bytes
+    private final MethodDescriptor<byte[], byte[]> rawMethodDescriptor;
+    // JSON <-> wire without DynamicMessage, null when the type needs JsonFormat
+    private final JsonTranscoder requestTranscoder;
+    private final JsonTranscoder replyTranscoder;
+    private final ChannelPool channelPool;
+    // shared by the apis of the client or own to this api, null without limit
+    private final ConcurrencyLimiter limiter;
+    // hedging and retries, null when the api is not listed in the RetryConfig of the client
+    private final RetryPolicy retryPolicy;
+    // OK replies by request, null when the api is not listed in the CacheConfig of the client
+    private final ResponseCache cache;
+    // identical calls in flight, null when the api does not coalesce them
+    private final SingleFlight singleFlight;
+    // request compression, null when the api does not compress
+    private final CompressionConfig compression;
+    // wire sizes for the instrumentation of compressed apis, null otherwise
+    private final WireSizeTracer wireSizeTracer;
+    // reply field paths read through Response.getField, compiled on first use
+    private final ConcurrentHashMap<String, FieldPath> replyPaths = new ConcurrentHashMap<>();
+    private volatile boolean retired;
+
+    private CallPlan(String api, MethodType methodType, Descriptor requestDescriptor, Descriptor replyDescriptor, ChannelPool channelPool,
+                     ConcurrencyLimiter limiter, RetryPolicy retryPolicy, ResponseCache cache, SingleFlight singleFlight, CompressionConfig compression) {
+        this.api = api;
+        this.requestDescriptor = requestDescriptor;
+        this.replyDescriptor = replyDescriptor;
+        this.channelPool = channelPool;
+        this.limiter = limiter;
+        this.retryPolicy = retryPolicy;
+        this.cache = cache;
+        this.singleFlight = singleFlight;
+        this.compression = compression;
+        this.wireSizeTracer = compression == null || channelPool.getInstrumentation() == null
+                ? null : new WireSizeTracer(channelPool.getInstrumentation(), channelPool.getName(), api);
+        // protobuf marshallers write the message straight into grpc outbound buffers (Drainable, KnownLength)
+        // and parse the inbound stream straight into a DynamicMessage of the registered type
+        this.methodDescriptor = MethodDescriptor.<DynamicMessage, DynamicMessage>newBuilder()
+                .setRequestMarshaller(ProtoUtils.marshaller(DynamicMessage.getDefaultInstance(requestDescriptor)))
+                .setResponseMarshaller(ProtoUtils.marshaller(DynamicMessage.getDefaultInstance(replyDescriptor)))
+                .setType(methodType)
+                .setFullMethodName(api)
+                .build();
+        this.rawMethodDescriptor = methodDescriptor.toBuilder(BYTE_ARRAY_MARSHALLER, BYTE_ARRAY_MARSHALLER).build();
+        this.requestTranscoder = JsonTranscoder.compile(requestDescriptor);
+        this.replyTranscoder = JsonTranscoder.compile(replyDescriptor);
+    }
+
+    // resolve descriptors of api by type names, fail fast when the schema does not define them
+    static CallPlan compile(DynamicSchema schema, String api, ApiDefinition definition, ChannelPool channelPool,
+                            ConcurrencyLimiter limiter, RetryPolicy retryPolicy, ResponseCache cache, SingleFlight singleFlight,
+                            CompressionConfig compression) {
+        Descriptor requestDescriptor = schema.getMessageDescriptor(definition.getRequestTypeName());
+        Descriptor replyDescriptor = schema.getMessageDescriptor(definition.getReplyTypeName());
+        if (requestDescriptor == null || replyDescriptor == null) {
+            throw new IllegalArgumentException(String.format("api[ %s ] refers to unknown message type %s or %s",
+                    api, definition.getRequestTypeName(), definition.getReplyTypeName()));
+        }
+        return new CallPlan(api, definition.getMethodType(), requestDescriptor, replyDescriptor, channelPool, limiter, retryPolicy, cache, singleFlight,
+                compression);
+    }
+
+    String getApi() {
+        return api;
+    }
+
+    MethodType getMethodType() {
+        return methodDescriptor.getType();
+    }
+
+    Descriptor getRequestDescriptor() {
+        return requestDescriptor;
+    }
+
+    Descriptor getReplyDescriptor() {
+        return replyDescriptor;
+    }
+
+    MethodDescriptor<DynamicMessage, DynamicMessage> getMethodDescriptor() {
+        return methodDescriptor;
+    }
+
+    MethodDescriptor<byte[], byte[]> getRawMethodDescriptor() {
+        return rawMethodDescriptor;
+    }
+
+    JsonTranscoder getRequestTranscoder() {
+        return requestTranscoder;
+    }
+
+    JsonTranscoder getReplyTranscoder() {
+        return replyTranscoder;
+    }
+
+    // IllegalArgumentException when the reply type has no such path
+    FieldPath getReplyPath(String path) {
+        FieldPath fieldPath = replyPaths.get(path);
+        if (fieldPath == null) {
+            fieldPath = replyPaths.computeIfAbsent(path, key -> FieldPath.compile(replyDescriptor, key));
+        }
+        return fieldPath;
+    }
+
+    JsonFormat.Parser getParser() {
+        return PARSER;
+    }
+
+    JsonFormat.Printer getPrinter() {
+        return PRINTER;
+    }
+
+    ChannelPool getChannelPool() {
+        return channelPool;
+    }
+
+    // null when the client has no limiter
+    ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    // null when calls of the api are neither hedged nor retried
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    // null when replies of the api are not cached
+    ResponseCache getCache() {
+        return cache;
+    }
+
+    // null when identical calls of the api are not coalesced
+    SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    // compressed when the api compresses requests of this size; calls of compressed apis are traced for instrumentation
+    CallOptions callOptions(CallOptions callOptions, Object wire) {
+        if (compression == null) {
+            return callOptions;
+        }
+        if (CallTimer.size(wire) >= compression.getMinSize()) {
+            callOptions = callOptions.withCompression(compression.getCompressor());
+        }
+        return wireSizeTracer == null ? callOptions : callOptions.withStreamTracerFactory(wireSizeTracer);
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    // null when the client is not instrumented
+    Instrumentation getInstrumentation() {
+        return channelPool.getInstrumentation();
+    }
+
+    // inner class
+    private static class ByteArrayMarshaller implements Marshaller<byte[]> {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayDrainable(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return ByteStreams.toByteArray(stream);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // lets grpc write the array into its outbound buffer in one go
+    private static class ByteArrayDrainable extends ByteArrayInputStream implements Drainable, KnownLength {
+        ByteArrayDrainable(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            int length = count - pos;
+            target.write(buf, pos, length);
+            pos = count;
+            return length;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.omgd.grpcclient;
+
+import com.google.protobuf.DynamicMessage;
+
+/**
+ * phases of one unary call, only created when the client has an {@link Instrumentation}
+ */
+final class CallTimer {
+    private final CallPlan plan;
+    private final long start;
+    private long sent;
+    private long received;
+    private int requestBytes = -1;
+    private int replyBytes = -1;
+
+    private CallTimer(CallPlan plan) {
+        this.plan = plan;
+        this.start = System.nanoTime();
+    }
+
+    // null when instrumentation is off, callers skip every step then
+    static CallTimer start(CallPlan plan) {
+        return plan.getInstrumentation() == null ? null : new CallTimer(plan);
+    }
+
+    // request serialized, call about to start
+    void sent(Object wire) {
+        sent = System.nanoTime();
+        requestBytes = size(wire);
+    }
+
+    void received(Object reply) {
+        received = System.nanoTime();
+        replyBytes = size(reply);
+    }
+
+    Response finish(Response response) {
+        long end = System.nanoTime();
+        long serializeNanos = (sent == 0 ? end : sent) - start;
+        long networkNanos = 0;
+        long deserializeNanos = 0;
+        if (sent != 0) {
+            networkNanos = (received == 0 ? end : received) - sent;
+            deserializeNanos = received == 0 ? 0 : end - received;
+        }
+        plan.getInstrumentation().onCall(plan.getChannelPool().getName(), plan.getApi(), response.getCode(),
+                serializeNanos, networkNanos, deserializeNanos, requestBytes, replyBytes);
+        return response;
+    }
+
+    // serialized size of a request or reply, byte[] or DynamicMessage
+    static int size(Object wire) {
+        if (wire instanceof byte[]) {
+            return ((byte[]) wire).length;
+        }
+        // DynamicMessage memoizes its size, the marshaller reuses it
+        return ((DynamicMessage) wire).getSerializedSize();
+    }
+}
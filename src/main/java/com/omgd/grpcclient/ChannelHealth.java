@@ -0,0 +1,204 @@
+package com.omgd.grpcclient;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+
+/**
+ * <p>
+ * health of the channels of a pool: call outcomes and latencies per channel, outlier ejection and the circuit breaker
+ * of the client
+ * </p>
+ * <p>
+ * calls record into per channel counters; ejections happen on the call that completes a run of failures or in the
+ * periodic check of rates and latencies, both synchronized. an ejected channel is idled and reconnected in the
+ * background, and taken back when its ejection time is over
+ * </p>
+ */
+final class ChannelHealth {
+    // counters of a channel are 64 bytes apart so channels do not share a cache line
+    private static final int STRIDE = 8;
+    private static final int CALLS = 0;
+    private static final int FAILURES = 1;
+    private static final int LATENCY = 2;
+    private static final int CONSECUTIVE = 3;
+    private static final int SAMPLES = 4;
+
+    private final ChannelPool pool;
+    private final HealthConfig config;
+    // calls, failures, latency sum in nanos, failures in a row, latency samples, per channel since the last check
+    private final AtomicLongArray counters;
+    private final AtomicIntegerArray ejected;
+    // recent ejections per channel, they lengthen the next ejection and decay while the channel is healthy
+    private final int[] ejections;
+    private volatile int ejectedCount;
+    // null when the config has no breaker
+    private final CircuitBreaker breaker;
+    private final ScheduledFuture<?> checkTask;
+
+    ChannelHealth(ChannelPool pool, int capacity, HealthConfig config) {
+        this.pool = pool;
+        this.config = config;
+        this.counters = new AtomicLongArray(capacity * STRIDE);
+        this.ejected = new AtomicIntegerArray(capacity);
+        this.ejections = new int[capacity];
+        this.breaker = config.getBreakerFailures() == 0 ? null
+                : new CircuitBreaker(pool.getName(), config, pool.getInstrumentation());
+        this.checkTask = ClientScheduler.scheduleWithFixedDelay(String.format("client[ %s ] health check",
+                pool.getName()), this::check, config.getInterval(), config.getInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    // false when the circuit breaker is open
+    boolean allowCall() {
+        return breaker == null || breaker.allow();
+    }
+
+    boolean isEjected(int index) {
+        return ejectedCount > 0 && ejected.get(index) != 0;
+    }
+
+    /**
+     * outcome of a call on the channel; latency is for successful unary calls, -1 otherwise. cancelled calls, lost
+     * hedges among them, say nothing about the channel
+     */
+    void onResult(int index, Status.Code code, long latencyNanos) {
+        if (code == Status.Code.CANCELLED) {
+            return;
+        }
+        boolean failed = config.getFailureCodes().contains(code);
+        int base = index * STRIDE;
+        counters.incrementAndGet(base + CALLS);
+        if (failed) {
+            counters.incrementAndGet(base + FAILURES);
+            if (counters.incrementAndGet(base + CONSECUTIVE) >= config.getConsecutiveFailures()) {
+                eject(index);
+            }
+        } else {
+            if (counters.get(base + CONSECUTIVE) != 0) {
+                counters.set(base + CONSECUTIVE, 0);
+            }
+            if (latencyNanos >= 0) {
+                counters.addAndGet(base + LATENCY, latencyNanos);
+                counters.incrementAndGet(base + SAMPLES);
+            }
+        }
+        if (breaker != null) {
+            breaker.onResult(failed);
+        }
+    }
+
+    // failure rates and latency outliers of the last interval
+    private synchronized void check() {
+        int size = pool.size();
+        double[] latencies = new double[size];
+        int measured = 0;
+        for (int i = 0; i < size; i++) {
+            int base = i * STRIDE;
+            long calls = counters.getAndSet(base + CALLS, 0);
+            long failures = counters.getAndSet(base + FAILURES, 0);
+            long latency = counters.getAndSet(base + LATENCY, 0);
+            long samples = counters.getAndSet(base + SAMPLES, 0);
+            latencies[i] = Double.NaN;
+            if (ejected.get(i) != 0 || calls < config.getMinCalls()) {
+                continue;
+            }
+            if (config.getFailureRate() > 0 && failures >= calls * config.getFailureRate()) {
+                eject(i);
+                continue;
+            }
+            if (failures == 0 && ejections[i] > 0) {
+                ejections[i]--;
+            }
+            if (samples >= config.getMinCalls()) {
+                latencies[i] = (double) latency / samples;
+                measured++;
+            }
+        }
+        // a median needs a few channels to say which one is off
+        if (config.getLatencyFactor() == 0 || measured < 3) {
+            return;
+        }
+        double[] sorted = new double[measured];
+        int next = 0;
+        for (double latency : latencies) {
+            if (!Double.isNaN(latency)) {
+                sorted[next++] = latency;
+            }
+        }
+        Arrays.sort(sorted);
+        double limit = sorted[measured / 2] * config.getLatencyFactor();
+        for (int i = 0; i < size; i++) {
+            if (latencies[i] > limit) {
+                eject(i);
+            }
+        }
+    }
+
+    private synchronized void eject(int index) {
+        // a channel kept in for the ejection limit needs another run of failures to try again
+        counters.set(index * STRIDE + CONSECUTIVE, 0);
+        int size = pool.size();
+        if (ejected.get(index) != 0 || index >= size) {
+            return;
+        }
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            count += ejected.get(i);
+        }
+        if (count + 1 >= size || (count + 1) * 100 > size * config.getMaxEjectionPercent()) {
+            return;
+        }
+        ejected.set(index, 1);
+        ejectedCount++;
+        long duration = Math.min((long) config.getBaseEjectionTime() * ++ejections[index], config.getMaxEjectionTime());
+        ManagedChannel channel = pool.get(index);
+        ClientScheduler.schedule(() -> {
+            // drop the connection and dial a new one, calls already on it finish; not on a pool shut down meanwhile
+            if (channel.isShutdown()) {
+                return;
+            }
+            channel.enterIdle();
+            channel.getState(true);
+        }, 0, TimeUnit.MILLISECONDS);
+        ClientScheduler.schedule(() -> restore(index), duration, TimeUnit.MILLISECONDS);
+        onEjection(index, true);
+    }
+
+    private synchronized void restore(int index) {
+        if (ejected.get(index) == 0) {
+            return;
+        }
+        ejected.set(index, 0);
+        ejectedCount--;
+        // rates count again from now, not from the calls before the ejection
+        int base = index * STRIDE;
+        counters.set(base + CALLS, 0);
+        counters.set(base + FAILURES, 0);
+        counters.set(base + LATENCY, 0);
+        counters.set(base + SAMPLES, 0);
+        onEjection(index, false);
+    }
+
+    // a channel of an elastic pool took the slot: no history
+    synchronized void reset(int index) {
+        restore(index);
+        ejections[index] = 0;
+        counters.set(index * STRIDE + CONSECUTIVE, 0);
+    }
+
+    private void onEjection(int index, boolean ejected) {
+        Instrumentation instrumentation = pool.getInstrumentation();
+        if (instrumentation != null) {
+            instrumentation.onEjection(pool.getName(), index, ejected);
+        }
+    }
+
+    void close() {
+        checkTask.cancel(false);
+    }
+}
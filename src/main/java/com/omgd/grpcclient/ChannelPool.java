@@ -0,0 +1,285 @@
+package com.omgd.grpcclient;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+
+/**
+ * grpc client connection pool, fixed or elastic: an elastic pool holds maxConnections slots, calls pick among the first
+ * size ones. a retired channel drains on its own, it is shut down once it has no calls in flight and its slot can take
+ * a new channel meanwhile
+ */
+final class ChannelPool {
+    // in-flight counters are 64 bytes apart so channels do not share a cache line
+    private static final int STRIDE = 16;
+    // a retired channel takes calls that picked it before the shrink for this long, then its calls in flight are
+    // checked as often until none is left
+    static final long DRAIN_DELAY = 1000;
+
+    // name of the client
+    private final String name;
+    // server address
+    private final String address;
+    // pooled connections
+    private final ManagedChannel[] channels;
+    // channels taking calls
+    private volatile int size;
+    private final ChannelStrategy strategy;
+    // shared cursor of ROUND_ROBIN
+    private final AtomicInteger cursor = new AtomicInteger(0);
+    // calls in flight per channel, acquired when the channel is picked and released when the call ends
+    private final AtomicIntegerArray inFlight;
+    private final Instrumentation instrumentation;
+    // elastic pools only, null when the pool is fixed
+    private final ElasticConfig elastic;
+    private final Supplier<ManagedChannel> channelFactory;
+    // outlier ejection and circuit breaker, null without HealthConfig
+    private final ChannelHealth health;
+    // retired channels not shut down yet
+    private final Set<ManagedChannel> draining = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean resizing = new AtomicBoolean();
+    private final ScheduledFuture<?> shrinkTask;
+    // highest in flight of a picked channel since the last shrink check, a lost update only drops a sample
+    private volatile int peak;
+    private volatile long lastGrowth;
+    private volatile boolean closed;
+
+    ChannelPool(String name, String address, ManagedChannel[] channels, ChannelStrategy strategy, Instrumentation instrumentation,
+                HealthConfig health) {
+        this(name, address, channels, channels.length, strategy, instrumentation, health, null, null);
+    }
+
+    // elastic pool starting with the given channels, channelFactory builds the ones it adds
+    ChannelPool(String name, String address, ManagedChannel[] channels, ChannelStrategy strategy, Instrumentation instrumentation,
+                HealthConfig health, ElasticConfig elastic, Supplier<ManagedChannel> channelFactory) {
+        this(name, address, channels, elastic.getMaxConnections(), strategy, instrumentation, health, elastic, channelFactory);
+    }
+
+    private ChannelPool(String name, String address, ManagedChannel[] channels, int capacity, ChannelStrategy strategy,
+                        Instrumentation instrumentation, HealthConfig health, ElasticConfig elastic,
+                        Supplier<ManagedChannel> channelFactory) {
+        this.name = name;
+        this.address = address;
+        this.channels = new ManagedChannel[capacity];
+        System.arraycopy(channels, 0, this.channels, 0, channels.length);
+        this.size = channels.length;
+        this.strategy = strategy;
+        this.inFlight = new AtomicIntegerArray(capacity * STRIDE);
+        this.instrumentation = instrumentation;
+        this.elastic = elastic;
+        this.channelFactory = channelFactory;
+        this.health = health == null ? null : new ChannelHealth(this, capacity, health);
+        this.shrinkTask = elastic == null ? null
+                : ClientScheduler.scheduleWithFixedDelay(String.format("client[ %s ] pool shrink", name), this::shrink,
+                elastic.getCooldown(), elastic.getCooldown(), TimeUnit.MILLISECONDS);
+    }
+
+    // pick a channel for a call and count it in flight, the caller must release the index
+    int acquire() {
+        return acquire(-1);
+    }
+
+    // like acquire, but never the excluded index when the pool has another channel; ejected channels are skipped
+    int acquire(int exclude) {
+        int size = this.size;
+        int index = size == 1 ? 0 : strategy.pick(this, size);
+        if (size > 1 && (index == exclude || (health != null && health.isEjected(index)))) {
+            index = next(index, exclude, size);
+        }
+        int count = inFlight.incrementAndGet(index * STRIDE);
+        if (instrumentation != null) {
+            instrumentation.onInFlight(name, index, count);
+        }
+        if (elastic != null) {
+            onLoad(count);
+        }
+        return index;
+    }
+
+    // first channel after the picked one that is neither excluded nor ejected
+    private int next(int index, int exclude, int size) {
+        for (int i = 1; i < size; i++) {
+            int candidate = (index + i) % size;
+            if (candidate != exclude && (health == null || !health.isEjected(candidate))) {
+                return candidate;
+            }
+        }
+        return index == exclude ? (index + 1) % size : index;
+    }
+
+    void release(int index) {
+        int count = inFlight.decrementAndGet(index * STRIDE);
+        if (instrumentation != null) {
+            instrumentation.onInFlight(name, index, count);
+        }
+    }
+
+    // release with the outcome of the call for the health of the channel, latency of unary calls or -1; code is null
+    // when the call failed before it reached the channel
+    void release(int index, Status.Code code, long latencyNanos) {
+        release(index);
+        if (health != null && code != null) {
+            health.onResult(index, code, latencyNanos);
+        }
+    }
+
+    // false when the circuit breaker of the client is open
+    boolean allowCall() {
+        return health == null || health.allowCall();
+    }
+
+    // the picked channel is the less busy one, when even it is saturated the pool grows off the calling thread
+    private void onLoad(int count) {
+        if (count > peak) {
+            peak = count;
+        }
+        if (count > elastic.getMaxStreamsPerChannel() && size < channels.length && resizing.compareAndSet(false, true)) {
+            ClientScheduler.schedule(this::grow, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void grow() {
+        try {
+            int size = this.size;
+            if (closed || size == channels.length) {
+                return;
+            }
+            ManagedChannel channel = channelFactory.get();
+            // connect now, calls picking it wait for the connection instead of starting it
+            channel.getState(true);
+            // a retired channel still in the slot goes on draining, its calls are counted with the new channel's
+            // until they end
+            channels[size] = channel;
+            if (health != null) {
+                health.reset(size);
+            }
+            this.size = size + 1;
+            lastGrowth = System.nanoTime();
+            if (closed) {
+                // shut down while the channel was built, the loop over the slots may have missed it
+                channel.shutdownNow();
+                return;
+            }
+            onResize(size + 1);
+        } finally {
+            resizing.set(false);
+        }
+    }
+
+    // retire the newest channel when no channel was busy for a whole cooldown
+    private void shrink() {
+        int peak = this.peak;
+        this.peak = 0;
+        int size = this.size;
+        if (closed || size <= elastic.getMinConnections() || peak * 2 > elastic.getMaxStreamsPerChannel() ||
+                System.nanoTime() - lastGrowth < TimeUnit.MILLISECONDS.toNanos(elastic.getCooldown()) ||
+                !resizing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ManagedChannel retired = channels[size - 1];
+            this.size = size - 1;
+            draining.add(retired);
+            ClientScheduler.schedule(() -> drain(retired, size - 1), DRAIN_DELAY, TimeUnit.MILLISECONDS);
+            onResize(size - 1);
+        } finally {
+            resizing.set(false);
+        }
+    }
+
+    // shut down once the slot has no calls in flight, or at once when the slot took a new channel: shutdown lets the
+    // calls already on the channel run to the end
+    private void drain(ManagedChannel retired, int index) {
+        if (channels[index] == retired && getInFlight(index) > 0 && !closed) {
+            ClientScheduler.schedule(() -> drain(retired, index), DRAIN_DELAY, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (draining.remove(retired)) {
+            retired.shutdown();
+        }
+    }
+
+    private void onResize(int size) {
+        if (instrumentation != null) {
+            instrumentation.onPoolResize(name, size);
+        }
+    }
+
+    ManagedChannel get(int index) {
+        return channels[index];
+    }
+
+    // channels taking calls
+    int size() {
+        return size;
+    }
+
+    // channels the pool can hold
+    int capacity() {
+        return channels.length;
+    }
+
+    int getInFlight(int index) {
+        return inFlight.get(index * STRIDE);
+    }
+
+    int nextCursor() {
+        return cursor.getAndIncrement();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    boolean isElastic() {
+        return elastic != null;
+    }
+
+    // calls already started run to the end, new calls fail
+    void shutdown() {
+        close();
+        for (ManagedChannel channel : channels) {
+            if (channel != null) {
+                channel.shutdown();
+            }
+        }
+        draining.forEach(ManagedChannel::shutdown);
+    }
+
+    void shutdownNow() {
+        close();
+        for (ManagedChannel channel : channels) {
+            if (channel != null) {
+                channel.shutdownNow();
+            }
+        }
+        draining.forEach(ManagedChannel::shutdownNow);
+    }
+
+    // stops the background tasks before the channels are shut down
+    private void close() {
+        closed = true;
+        if (shrinkTask != null) {
+            shrinkTask.cancel(false);
+        }
+        if (health != null) {
+            health.close();
+        }
+    }
+}
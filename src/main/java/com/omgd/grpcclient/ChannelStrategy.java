@@ -0,0 +1,62 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * how a call picks its channel from the pool, every strategy works on the per-channel in-flight counts
+ */
+public enum ChannelStrategy {
+    // shared cursor, every caller takes the next channel
+    ROUND_ROBIN {
+        @Override
+        int pick(ChannelPool pool, int size) {
+            return (pool.nextCursor() & Integer.MAX_VALUE) % size;
+        }
+    },
+    // cursor per thread, callers do not contend on a shared counter
+    THREAD_LOCAL_ROUND_ROBIN {
+        @Override
+        int pick(ChannelPool pool, int size) {
+            int[] cursor = THREAD_CURSOR.get();
+            return (cursor[0]++ & Integer.MAX_VALUE) % size;
+        }
+    },
+    // channel with the fewest calls in flight, ties go to the first one after a random offset
+    LEAST_OUTSTANDING {
+        @Override
+        int pick(ChannelPool pool, int size) {
+            int offset = ThreadLocalRandom.current().nextInt(size);
+            int best = offset;
+            int bestInFlight = pool.getInFlight(offset);
+            for (int i = 1; i < size && bestInFlight > 0; i++) {
+                int index = (offset + i) % size;
+                int inFlight = pool.getInFlight(index);
+                if (inFlight < bestInFlight) {
+                    best = index;
+                    bestInFlight = inFlight;
+                }
+            }
+            return best;
+        }
+    },
+    // the less busy of two random channels: close to least outstanding at the cost of two reads
+    POWER_OF_TWO_CHOICES {
+        @Override
+        int pick(ChannelPool pool, int size) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            return pool.getInFlight(second) < pool.getInFlight(first) ? second : first;
+        }
+    };
+
+    // starts at a random channel so threads do not move in lockstep
+    private static final ThreadLocal<int[]> THREAD_CURSOR = ThreadLocal.withInitial(() -> new int[]{ThreadLocalRandom.current().nextInt()});
+
+    // index of the channel for the next call among the first size ones, size is at least 2 and read once by the caller:
+    // a concurrent shrink must not change it under the pick
+    abstract int pick(ChannelPool pool, int size);
+}
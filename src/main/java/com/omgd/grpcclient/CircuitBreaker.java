@@ -0,0 +1,103 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * circuit breaker of a client: closed, open after failures in a row, half open once the open time passed; state
+ * changes are rare and synchronized, the call path reads volatile state only
+ */
+final class CircuitBreaker {
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final String name;
+    private final int failures;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final Instrumentation instrumentation;
+    private volatile int state = CLOSED;
+    // failed calls in a row while closed
+    private final AtomicInteger consecutive = new AtomicInteger();
+    // calls let through and succeeded while half open
+    private final AtomicInteger probes = new AtomicInteger();
+    private final AtomicInteger successes = new AtomicInteger();
+    // when the breaker opened or went half open, System.nanoTime
+    private volatile long since;
+
+    CircuitBreaker(String name, HealthConfig config, Instrumentation instrumentation) {
+        this.name = name;
+        this.failures = config.getBreakerFailures();
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getBreakerOpenTime());
+        this.halfOpenCalls = config.getHalfOpenCalls();
+        this.instrumentation = instrumentation;
+    }
+
+    // false when the call must fail fast
+    boolean allow() {
+        int state = this.state;
+        if (state == CLOSED) {
+            return true;
+        }
+        if (System.nanoTime() - since >= openNanos) {
+            // open time over, or probes that never reported back: let a new round of probes through
+            halfOpen(state);
+        }
+        return this.state == HALF_OPEN && probes.getAndIncrement() < halfOpenCalls;
+    }
+
+    void onResult(boolean failed) {
+        int state = this.state;
+        if (failed) {
+            if (state == HALF_OPEN || (state == CLOSED && consecutive.incrementAndGet() >= failures)) {
+                open(state);
+            }
+            return;
+        }
+        if (state == CLOSED) {
+            // no write while nothing failed, successes do not contend on the counter
+            if (consecutive.get() != 0) {
+                consecutive.set(0);
+            }
+        } else if (state == HALF_OPEN && successes.incrementAndGet() >= halfOpenCalls) {
+            close();
+        }
+    }
+
+    private synchronized void open(int from) {
+        if (state != from) {
+            return;
+        }
+        since = System.nanoTime();
+        state = OPEN;
+        if (from == CLOSED) {
+            onChange(true);
+        }
+    }
+
+    private synchronized void halfOpen(int from) {
+        if (state != from || System.nanoTime() - since < openNanos) {
+            return;
+        }
+        probes.set(0);
+        successes.set(0);
+        since = System.nanoTime();
+        state = HALF_OPEN;
+    }
+
+    private synchronized void close() {
+        if (state != HALF_OPEN) {
+            return;
+        }
+        consecutive.set(0);
+        state = CLOSED;
+        onChange(false);
+    }
+
+    private void onChange(boolean open) {
+        if (instrumentation != null) {
+            instrumentation.onCircuitBreaker(name, open);
+        }
+    }
+}
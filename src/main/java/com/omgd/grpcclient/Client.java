@@ -1,67 +1,41 @@
 package com.omgd.grpcclient;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.github.os72.protobuf.dynamic.DynamicSchema;
-import com.github.os72.protobuf.dynamic.EnumDefinition;
-import com.github.os72.protobuf.dynamic.MessageDefinition;
 import com.google.common.base.Strings;
-import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.InvalidProtocolBufferException;
-import com.squareup.protoparser.EnumElement;
-import com.squareup.protoparser.FieldElement;
-import com.squareup.protoparser.MessageElement;
-import com.squareup.protoparser.ProtoFile;
-import com.squareup.protoparser.ProtoParser;
-import com.squareup.protoparser.RpcElement;
-import com.squareup.protoparser.ServiceElement;
-import com.squareup.protoparser.TypeElement;
 
 import io.grpc.CallOptions;
 import io.grpc.ManagedChannel;
-import io.grpc.MethodDescriptor;
-import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.MethodDescriptor.MethodType;
-import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.Status;
 import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
 
 /**
  * grpc client
  */
 public class Client {
     private static final Logger log = Logger.getLogger(Client.class.getName());
-    /**
-     * schema map
-     */
-    private static volatile ConcurrentHashMap<String, DynamicSchema> SCHEMA_MAP = new ConcurrentHashMap<>(500);
-    /**
-     * server map
-     */
-    private static volatile ConcurrentHashMap<String, Map<String, String[]>> SERVER_MAP = new ConcurrentHashMap<>(500);
-    /**
-     * connection pool map
-     */
-    private static volatile ConcurrentHashMap<String, ManagedChannel[]> CHANNEL_MAP = new ConcurrentHashMap<>(500);
-    /**
-     * connection pool cursor map
-     */
-    private static volatile ConcurrentHashMap<String, AtomicInteger> CHANNEL_CURSOR_MAP = new ConcurrentHashMap<>(500);
 
     // name of the client
     private String name;
@@ -69,31 +43,43 @@ public class Client {
     private String api;
     // JSON type message
     private String paramsJson;
+    // protobuf message, used instead of paramsJson when set
+    private DynamicMessage paramsMessage;
+    // protobuf bytes, passed through as they are when set
+    private byte[] paramsBytes;
+    // form of the response body, only JSON pays for rendering
+    private BodyFormat bodyFormat;
     // how many client will wait response from server
     private int timeout;
+    // calls in flight at most for executeBatch
+    private int maxOutstanding;
+    // items requested ahead on streaming apis, 0 means the caller requests them
+    private int streamWindow;
+    // registry the client was built against
+    private ClientRegistry registry;
+    // call plan bound at build time
+    private CallPlan plan;
 
     private Client() {
     }
 
+    // registerClient on the default registry
     public static void registerClient(ClientConfig clientConfig) {
-        clientConfig.validate();
-        if (SCHEMA_MAP.containsKey(clientConfig.getName())) {
-            throw new IllegalArgumentException(String.format("client[ %s ] already registered, please unRegisterClient first", clientConfig.getName()));
-        }
-        initSchema(clientConfig);
-        initChannel(clientConfig);
+        ClientRegistry.getDefault().registerClient(clientConfig);
+    }
+
+    // registerClientAsync on the default registry
+    public static CompletableFuture<Boolean> registerClientAsync(ClientConfig clientConfig) {
+        return ClientRegistry.getDefault().registerClientAsync(clientConfig);
+    }
+
+    // updateClient on the default registry
+    public static void updateClient(ClientConfig clientConfig) {
+        ClientRegistry.getDefault().updateClient(clientConfig);
     }
 
     public static void unRegisterClient(String name) {
-        SCHEMA_MAP.remove(name);
-        SERVER_MAP.remove(name);
-        CHANNEL_CURSOR_MAP.remove(name);
-        ManagedChannel[] channels = CHANNEL_MAP.remove(name);
-        if (channels != null) {
-            for (ManagedChannel channel : channels) {
-                channel.shutdownNow();
-            }
-        }
+        ClientRegistry.getDefault().unRegisterClient(name);
     }
 
     // client validation
@@ -101,265 +87,544 @@ public class Client {
         // client fields validation
         if (Strings.isNullOrEmpty(name) ||
                 Strings.isNullOrEmpty(api) ||
-                Strings.isNullOrEmpty(paramsJson) ||
-                timeout < 0) {
+                timeout < 0 ||
+                streamWindow < 0 ||
+                maxOutstanding <= 0 ||
+                bodyFormat == null ||
+                registry == null) {
             throw new IllegalArgumentException("Client is Illegal");
         }
         // client registration by name validation
-        if (!SCHEMA_MAP.containsKey(name)) {
+        ClientHandle handle = registry.getHandle(name);
+        if (handle == null) {
             throw new IllegalArgumentException(String.format("client[ %s ] not registered yet", name));
         }
         // server registration by client name OR server address by client name validation
-        if (!SERVER_MAP.containsKey(name) || !SERVER_MAP.get(name).containsKey(api)) {
+        CallPlan plan = handle.getPlan(api);
+        if (plan == null) {
             throw new IllegalArgumentException(String.format("server[ %s ] not registered yet", api));
         }
+        // message type validation
+        String requestTypeName = plan.getRequestDescriptor().getFullName();
+        if (paramsMessage != null && !paramsMessage.getDescriptorForType().getFullName().equals(requestTypeName)) {
+            throw new IllegalArgumentException(String.format("paramsMessage of api[ %s ] must be %s", api, requestTypeName));
+        }
+        this.plan = plan;
     }
 
-    public static Builder create() {
-        return new Builder();
+    // limiter of a unary api in the default registry, null when the client has none
+    public static ConcurrencyLimiter getLimiter(String name, String api) {
+        return ClientRegistry.getDefault().getLimiter(name, api);
     }
 
-    // work with enums, messages and services
-    // set data to SERVER_MAP, SCHEMA_MAP
-    private static void initSchema(ClientConfig clientConfig) {
-        String name = clientConfig.getName();
-        String protoFileContent = clientConfig.getProtoFileContent();
-        ProtoFile protoFile = null;
-        try {
-            protoFile = ProtoParser.parse("", protoFileContent);
-            log.info("initSchema | protoFile: " + protoFile);
-
-        } catch (Exception e) {
-            throw new RuntimeException(String.format("initSchema | parse protoFileContent error: %s", e.getMessage()), e);
-        }
-        // get messages or enums from proto-file
-        List<TypeElement> typeList = protoFile.typeElements();
-        log.info("initSchema | typeList: " + typeList);
-        // get services from proto-file
-        List<ServiceElement> serviceList = protoFile.services();
-        log.info("initSchema | serviceList: " + serviceList);
-        if (typeList.size() == 0 || serviceList.size() == 0) {
-            throw new RuntimeException("initSchema | typeElementList is empty or serviceElementList is empty");
-        }
-
-        // work with proto-file messages or enums: if typeElement is message or enum? write it to schema
-        DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder();
-        typeList.forEach(typeElement -> {
-            // enum
-            if (typeElement instanceof EnumElement) {
-                EnumElement element = (EnumElement) typeElement;
-                EnumDefinition.Builder definitionBuilder = EnumDefinition.newBuilder(element.name());
-                element.constants().forEach(field -> definitionBuilder.addValue(field.name(), field.tag()));
-                EnumDefinition definition = definitionBuilder.build();
-                schemaBuilder.addEnumDefinition(definition);
-                // message
-            } else if (typeElement instanceof MessageElement) {
-                MessageElement element = (MessageElement) typeElement;
-                // get message fields
-                List<FieldElement> fields = element.fields();
-                // create definitionBuilder
-                MessageDefinition.Builder definitionBuilder = MessageDefinition.newBuilder(element.name());
-                // add field parts to definitionBuilder
-                fields.forEach(field -> definitionBuilder.addField(field.label().name().toLowerCase(),
-                        field.type().toString(),
-                        field.name(),
-                        field.tag()));
-                // create message definition
-                MessageDefinition definition = definitionBuilder.build();
-                // write message definition to schemaBuilder
-                schemaBuilder.addMessageDefinition(definition);
-            }
-        });
+    // reply cache of a unary api in the default registry, null when the api is not cached
+    public static ResponseCache getCache(String name, String api) {
+        return ClientRegistry.getDefault().getCache(name, api);
+    }
 
-        // work with proto-file services:
-        Map<String, String[]> serviceMap = new HashMap<>(serviceList.size());
-
-        // add service to SERVER_MAP
-        SERVER_MAP.put(name, serviceMap);
-        log.info("initSchema | SERVER_MAP: " + SERVER_MAP);
-
-        // add service to SCHEMA_MAP
-        // working with services
-        serviceList.forEach(serviceElement -> {
-            // get RpcElement (service entity)
-            List<RpcElement> rpcList = serviceElement.rpcs();
-            rpcList.forEach(rpcElement -> {
-                String api = String.format("%s/%s", serviceElement.name(), rpcElement.name());
-                log.info("initSchema | api: " + api);
-                String[] types = new String[]{rpcElement.requestType().toString(), rpcElement.responseType().toString()};
-                log.info("initSchema | types[]: " + Arrays.toString(types));
-                serviceMap.put(api, types);
-            });
-        });
+    // registered call plan of the api in the default registry, null when unknown
+    static CallPlan getPlan(String name, String api) {
+        return ClientRegistry.getDefault().getPlan(name, api);
+    }
 
-        DynamicSchema schema = null;
-        try {
-            schema = schemaBuilder.build();
-        } catch (DescriptorValidationException e) {
-            throw new RuntimeException(String.format("initSchema | schema build error %s", e.getMessage()), e);
-        }
-        SCHEMA_MAP.put(name, schema);
-        log.info("initSchema | SCHEMA_MAP: " + SCHEMA_MAP);
-    }
-
-    // set data to CHANNEL_MAP, CHANNEL_CURSOR_MAP
-    private static void initChannel(ClientConfig clientConfig) {
-        // create gRPC ManagedChannel
-        String name = clientConfig.getName();
-        String address = clientConfig.getAddress();
-        int connections = clientConfig.getConnections();
-        ManagedChannel[] channels = new ManagedChannel[connections];
-        for (int i = 0; i < connections; i++) {
-            channels[i] = NettyChannelBuilder.forTarget(address)
-                    .defaultLoadBalancingPolicy("round_robin")
-                    .keepAliveTimeout(3, TimeUnit.SECONDS)
-                    .keepAliveWithoutCalls(true)
-                    .usePlaintext()
-                    .build();
-        }
-
-        // establish connection
-        try {
-            DynamicSchema schema = SCHEMA_MAP.get(name);
-            log.info("initChannel | schema: " + schema);
-            String api = null;
-            String requestTypeName = null;
-            String replyTypeName = null;
-
-            // get entrySet from SERVER_MAP
-            log.info("SERVER_MAP.get(name).entrySet(): " + SERVER_MAP.get(name).entrySet());
-            for (Entry<String, String[]> entry : SERVER_MAP.get(name).entrySet()) {
-                api = entry.getKey();
-                requestTypeName = entry.getValue()[0];
-                replyTypeName = entry.getValue()[1];
-                break;
+    // bound call plan, rebound to the current one once updateClient retired it; kept when the api is gone
+    private CallPlan plan() {
+        CallPlan plan = this.plan;
+        if (plan.isRetired()) {
+            CallPlan current = registry.getPlan(name, api);
+            if (current != null) {
+                this.plan = plan = current;
             }
+        }
+        return plan;
+    }
 
-            // do innerExecute for any ManagedChannel object
-            for (ManagedChannel channel : channels) {
-                try {
-                    log.info("initChannel | send data to innerExecute: schema: " + schema +
-                            ", channel: " + channel +
-                            ", api: " + api +
-                            ", requestTypeName: " + requestTypeName +
-                            ", replyTypeName: " + replyTypeName);
-                    innerExecute(schema, channel, api, "{}", 10000, requestTypeName, replyTypeName);
-                } catch (Exception e) {
-                     e.printStackTrace();
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+    // request of the call: paramsBytes, paramsMessage or paramsJson, whichever is set first
+    private Object request() {
+        if (paramsBytes != null) {
+            return paramsBytes;
         }
+        if (paramsMessage != null) {
+            return paramsMessage;
+        }
+        return paramsJson;
+    }
 
-        CHANNEL_MAP.put(name, channels);
+    // request is checked when a call needs it: batch and client streaming calls take their own requests
+    private static void checkParams(Object request) {
+        if (request == null || "".equals(request)) {
+            throw new IllegalArgumentException("Client is Illegal");
+        }
+    }
 
-        AtomicInteger channelCursor = new AtomicInteger(0);
-        CHANNEL_CURSOR_MAP.put(name, channelCursor);
+    public static Builder create() {
+        return new Builder();
     }
 
-    private static String innerExecute(DynamicSchema schema,
-                                       ManagedChannel channel,
-                                       String api,
-                                       String paramJson,
-                                       int timeout,
-                                       String requestTypeName,
-                                       String replyTypeName) throws InvalidProtocolBufferException,
+    private static Response innerExecute(CallPlan plan,
+                                         ManagedChannel channel,
+                                         Object request,
+                                         int timeout,
+                                         BodyFormat bodyFormat,
+                                         CallTimer timer) throws InvalidProtocolBufferException,
             InterruptedException,
             ExecutionException,
             TimeoutException {
 
         // 1）serialize request
-        DynamicMessage.Builder requestBuilder = schema.newMessageBuilder(requestTypeName);
-        com.google.protobuf.util.JsonFormat.parser().ignoringUnknownFields().merge(paramJson, requestBuilder);
-        DynamicMessage msg = requestBuilder.build();
-        byte[] request = msg.toByteArray();
-        log.info("innerExecute | serialize request: " + request);
+        Object wire = encode(plan, request);
+        if (timer != null) {
+            timer.sent(wire);
+        }
 
         // 2）grpc call
-        MethodDescriptor<byte[], byte[]> methodDescriptor = MethodDescriptor.<byte[], byte[]>newBuilder()
-                .setRequestMarshaller(new ByteArrayMarshaller())
-                .setResponseMarshaller(new ByteArrayMarshaller())
-                .setType(MethodType.UNARY)
-                .setFullMethodName(api)
-                .build();
-        ListenableFuture<byte[]> future = ClientCalls.futureUnaryCall(channel.newCall(methodDescriptor,
-                        CallOptions.DEFAULT.withDeadlineAfter(timeout, TimeUnit.MILLISECONDS)),
-                        request);
-        byte[] reply = future.get(timeout, TimeUnit.MILLISECONDS);
-        log.info("innerExecute | grpc call");
+        Object reply = futureCall(plan, channel, wire, timeout).get(timeout, TimeUnit.MILLISECONDS);
+        if (timer != null) {
+            timer.received(reply);
+        }
+        log.fine("innerExecute | grpc call");
 
         // 3）unserialize response
-        DynamicMessage.Builder replyMsgBuilder = schema.newMessageBuilder(replyTypeName);
-        DynamicMessage replyMsg = replyMsgBuilder.mergeFrom(reply).build();
-        String response = com.google.protobuf.util.JsonFormat.printer().includingDefaultValueFields().print(replyMsg);
-        log.info("innerExecute | unserialize response: " + response);
-        return response;
+        return reply(plan, reply, bodyFormat);
+    }
+
+    // the message is written to the wire by the marshaller, no byte[] in between
+    private static DynamicMessage serializeRequest(CallPlan plan, String paramJson) throws InvalidProtocolBufferException {
+        DynamicMessage.Builder requestBuilder = DynamicMessage.newBuilder(plan.getRequestDescriptor());
+        plan.getParser().merge(paramJson, requestBuilder);
+        return requestBuilder.build();
+    }
+
+    // JSON is transcoded to bytes when the plan can, otherwise parsed to a message; bytes and messages stay as they are
+    private static Object encode(CallPlan plan, Object request) throws InvalidProtocolBufferException {
+        if (!(request instanceof String)) {
+            return request;
+        }
+        if (plan.getRequestTranscoder() != null) {
+            byte[] bytes = plan.getRequestTranscoder().toWire((String) request);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        return serializeRequest(plan, (String) request);
+    }
+
+    // bytes go through the pass-through method untouched, messages through the protobuf marshaller
+    private static ListenableFuture<?> futureCall(CallPlan plan, ManagedChannel channel, Object wire, int timeout) {
+        return futureCall(plan, channel, wire, CallOptions.DEFAULT.withDeadlineAfter(timeout, TimeUnit.MILLISECONDS));
+    }
+
+    static ListenableFuture<?> futureCall(CallPlan plan, ManagedChannel channel, Object wire, CallOptions callOptions) {
+        callOptions = plan.callOptions(callOptions, wire);
+        if (wire instanceof byte[]) {
+            return ClientCalls.futureUnaryCall(channel.newCall(plan.getRawMethodDescriptor(), callOptions), (byte[]) wire);
+        }
+        return ClientCalls.futureUnaryCall(channel.newCall(plan.getMethodDescriptor(), callOptions), (DynamicMessage) wire);
+    }
+
+    // reply is byte[] or DynamicMessage depending on the method used, the response decodes it when the body is read
+    static Response reply(CallPlan plan, Object reply, BodyFormat bodyFormat) {
+        return new Response(plan, reply, bodyFormat);
+    }
+
+    private static String renderReply(CallPlan plan, DynamicMessage reply) throws InvalidProtocolBufferException {
+        return plan.getPrinter().print(reply);
+    }
+
+    // map a failed call to response: deadline exceeded is TIMEOUT, everything else is ERROR; channel is null when the
+    // attempts already handled it
+    private static Response failure(ManagedChannel channel, Throwable t) {
+        if (Status.fromThrowable(t).getCode() == Status.Code.DEADLINE_EXCEEDED) {
+            if (channel != null) {
+                // trigger reconnection when timeout occurs
+                channel.enterIdle();
+            }
+            return new Response(Code.TIMEOUT, null, null);
+        }
+        // same message as ExecutionException of the blocking call
+        return new Response(Code.ERROR, t.toString(), null);
+    }
+
+    private static Response finish(CallTimer timer, Response response) {
+        return timer == null ? response : timer.finish(response);
     }
 
     // get response from server
     public Response execute() {
-        ManagedChannel channel = this.roundAccessChannel();
-        DynamicSchema schema = SCHEMA_MAP.get(this.name);
-        String[] typeNames = SERVER_MAP.get(this.name).get(this.api);
+        CallPlan plan = plan();
+        checkUnary(plan);
+        Object request = request();
+        checkParams(request);
+        if (plan.getRetryPolicy() != null || plan.getCache() != null || plan.getSingleFlight() != null) {
+            // hedged, retried, cached and coalesced calls run on the async path, this thread waits for the reply
+            return executeAsync(plan, request, this.timeout, this.bodyFormat, MoreExecutors.directExecutor(), this.timeout).join();
+        }
+        ChannelPool channelPool = plan.getChannelPool();
+        if (!channelPool.allowCall()) {
+            return finish(CallTimer.start(plan), circuitOpen(plan));
+        }
+        // over the limit the call waits in its queue up to timeout, or is rejected
+        ConcurrencyLimiter limiter = plan.getLimiter();
+        int timeout = this.timeout;
+        long queued = limiter == null ? 0 : System.nanoTime();
+        if (limiter != null && !limiter.acquire(timeout)) {
+            return finish(CallTimer.start(plan), rejected(plan));
+        }
+        long start = limiter == null ? 0 : System.nanoTime();
+        if (limiter != null && timeout > 0) {
+            timeout = timeLeft(timeout, queued, start);
+        }
+        Response response = null;
+        try {
+            CallTimer timer = CallTimer.start(plan);
+            response = finish(timer, execute(plan, channelPool, request, timeout, timer));
+            return response;
+        } finally {
+            if (limiter != null) {
+                limiter.release(start, response == null ? Code.ERROR : response.getCode());
+            }
+        }
+    }
+
+    // the wait for a limiter slot comes out of the timeout, the call keeps at least a millisecond to end with its
+    // deadline
+    private static int timeLeft(int timeout, long queuedNanos, long startNanos) {
+        return (int) Math.max(1, timeout - TimeUnit.NANOSECONDS.toMillis(startNanos - queuedNanos));
+    }
+
+    private static Response rejected(CallPlan plan) {
+        return new Response(Code.REJECTED, String.format("client[ %s ] api[ %s ] is over its concurrency limit %d",
+                plan.getChannelPool().getName(), plan.getApi(), plan.getLimiter().getLimit()), null);
+    }
+
+    private static Response circuitOpen(CallPlan plan) {
+        return new Response(Code.CIRCUIT_OPEN, String.format("client[ %s ] circuit breaker is open",
+                plan.getChannelPool().getName()), null);
+    }
+
+    // the channel is given back with the outcome of the call
+    private Response execute(CallPlan plan, ChannelPool channelPool, Object request, int timeout, CallTimer timer) {
+        int index = channelPool.acquire();
+        ManagedChannel channel = channelPool.get(index);
+        long start = System.nanoTime();
+        Status.Code status = null;
         Code code = null;
         String msg = null;
-        String response = null;
         try {
-            log.info("execute | send data to innerExecute: schema: " + schema +
-                    ", channel: " + channel +
-                    ", api: " + this.api +
-                    ", paramsJson(message): " + this.paramsJson +
-                    ", timeout: " + this.timeout +
-                    ", requestTypeName: " + typeNames[0] +
-                    ", replyTypeName: " + typeNames[1]);
-            response = innerExecute(schema, channel, this.api, this.paramsJson, this.timeout, typeNames[0], typeNames[1]);
-            code = Code.OK;
-        } catch (InvalidProtocolBufferException | InterruptedException | ExecutionException e) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("execute | send data to innerExecute: channel: " + channel +
+                        ", api: " + this.api +
+                        ", paramsJson(message): " + this.paramsJson +
+                        ", timeout: " + timeout);
+            }
+            Response response = innerExecute(plan, channel, request, timeout, this.bodyFormat, timer);
+            status = Status.Code.OK;
+            return response;
+        } catch (ExecutionException e) {
+            status = Status.fromThrowable(e.getCause()).getCode();
+            return failure(channel, e.getCause());
+        } catch (InvalidProtocolBufferException | InterruptedException e) {
             code = Code.ERROR;
             msg = e.getMessage();
         } catch (TimeoutException e) {
             // trigger reconnection when timeout occurs
             channel.enterIdle();
+            status = Status.Code.DEADLINE_EXCEEDED;
             code = Code.TIMEOUT;
+        } finally {
+            channelPool.release(index, status, status == Status.Code.OK ? System.nanoTime() - start : -1);
         }
-        return new Response(code, msg, response);
+        return new Response(code, msg, null);
     }
 
-    // channel offset moving: move channel counter to next channel
-    private ManagedChannel roundAccessChannel() {
-        ManagedChannel[] channels = CHANNEL_MAP.get(this.name);
-        AtomicInteger channelCursor = CHANNEL_CURSOR_MAP.get(this.name);
-        if (channels == null) {
-            throw new IllegalArgumentException(String.format("client[ %s ] not registered yet", name));
+    // get response from server without blocking, reply is decoded on the grpc callback thread
+    public CompletableFuture<Response> executeAsync() {
+        return executeAsync(MoreExecutors.directExecutor());
+    }
+
+    // get response from server without blocking, reply is decoded and rendered on the given executor
+    public CompletableFuture<Response> executeAsync(Executor executor) {
+        CallPlan plan = plan();
+        checkUnary(plan);
+        Object request = request();
+        checkParams(request);
+        return executeAsync(plan, request, this.timeout, this.bodyFormat, executor, 0);
+    }
+
+    // calls over the limit wait up to waitMillis in its queue, 0 rejects them right away
+    private static CompletableFuture<Response> executeAsync(CallPlan plan, Object request, int timeout, BodyFormat bodyFormat,
+                                                            Executor executor, long waitMillis) {
+        CallTimer timer = CallTimer.start(plan);
+        ResponseCache cache = plan.getCache();
+        SingleFlight singleFlight = plan.getSingleFlight();
+        Object wire;
+        ByteString key = null;
+        try {
+            Object encoded = encode(plan, request);
+            if (cache != null || singleFlight != null) {
+                // the key and the call share one serialization, a message goes out as the bytes it is keyed by
+                byte[] bytes = encoded instanceof DynamicMessage ? ((DynamicMessage) encoded).toByteArray() : (byte[]) encoded;
+                key = ResponseCache.key(bytes, request instanceof byte[]);
+                wire = bytes;
+            } else {
+                wire = encoded;
+            }
+            if (cache != null) {
+                // a hit skips the limiter and the network
+                Response cached = cache.get(key, plan, bodyFormat);
+                if (cached != null) {
+                    return CompletableFuture.completedFuture(finish(timer, cached));
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            return CompletableFuture.completedFuture(finish(timer, new Response(Code.ERROR, e.getMessage(), null)));
         }
-        if (channels.length == 1) {
-            return channels[0];
+        if (singleFlight == null) {
+            return send(plan, wire, key, timeout, bodyFormat, executor, waitMillis, timer);
         }
-        int num = channelCursor.getAndIncrement();
-        if (num > Integer.MAX_VALUE >> 1) {
-            channelCursor.set(0);
+        ByteString cacheKey = cache == null ? null : key;
+        boolean[] leading = new boolean[1];
+        CompletableFuture<Response> response = singleFlight.execute(key, bodyFormat, () -> {
+            leading[0] = true;
+            return send(plan, wire, cacheKey, timeout, bodyFormat, executor, waitMillis, timer);
+        });
+        if (leading[0]) {
+            return response;
         }
-        int cursor = num % channels.length;
-        ManagedChannel channel = channels[cursor];
-        return channel;
+        // a follower makes no rpc, its timer spans the wait for the leading call
+        if (timer != null) {
+            timer.sent(wire);
+        }
+        // the leading call may have a longer deadline, a follower keeps its own and takes whichever ends first
+        CompletableFuture<Response> first = new CompletableFuture<>();
+        ScheduledFuture<?> deadline = ClientScheduler.schedule(() -> first.complete(new Response(Code.TIMEOUT, null, null)),
+                timeout, TimeUnit.MILLISECONDS);
+        response.whenComplete((shared, t) -> {
+            deadline.cancel(false);
+            if (t != null) {
+                first.completeExceptionally(t);
+            } else {
+                first.complete(shared);
+            }
+        });
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        first.whenComplete((shared, t) -> runOn(executor, () -> {
+            if (t != null) {
+                result.completeExceptionally(t);
+            } else {
+                result.complete(finish(timer, shared));
+            }
+        }));
+        return result;
     }
 
-    // inner class
-    private static class ByteArrayMarshaller implements Marshaller<byte[]> {
-        @Override
-        public InputStream stream(byte[] value) {
-            return new ByteArrayInputStream(value);
+    // OK replies go to the cache when cacheKey is set
+    private static CompletableFuture<Response> send(CallPlan plan, Object wire, ByteString cacheKey, int timeout, BodyFormat bodyFormat,
+                                                    Executor executor, long waitMillis, CallTimer timer) {
+        if (!plan.getChannelPool().allowCall()) {
+            return CompletableFuture.completedFuture(finish(timer, circuitOpen(plan)));
+        }
+        ConcurrencyLimiter limiter = plan.getLimiter();
+        long queued = limiter == null ? 0 : System.nanoTime();
+        if (limiter != null && !limiter.acquire(waitMillis)) {
+            return CompletableFuture.completedFuture(finish(timer, rejected(plan)));
+        }
+        long start = limiter == null ? 0 : System.nanoTime();
+        if (limiter != null && waitMillis > 0) {
+            timeout = timeLeft(timeout, queued, start);
+        }
+        if (timer != null) {
+            timer.sent(wire);
+        }
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        // hedged and retried attempts count once in the limiter and the timer
+        CompletableFuture<Object> call = plan.getRetryPolicy() == null ? call(plan, wire, timeout) : RetryingCall.start(plan, wire, timeout);
+        call.whenComplete((reply, t) -> runOn(executor, () -> {
+            Response response;
+            if (t != null) {
+                response = failure(null, t);
+                if (limiter != null) {
+                    limiter.release(start, response.getCode());
+                }
+            } else {
+                if (limiter != null) {
+                    limiter.release(start, Code.OK);
+                }
+                if (timer != null) {
+                    timer.received(reply);
+                }
+                if (cacheKey != null) {
+                    plan.getCache().put(cacheKey, reply);
+                }
+                response = reply(plan, reply, bodyFormat);
+            }
+            result.complete(finish(timer, response));
+        }));
+        return result;
+    }
+
+    // the task runs on this thread when the executor rejects it, the future still completes and the limiter slot is
+    // given back
+    private static void runOn(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
         }
+    }
+
+    // one attempt on a pooled channel, the channel is given back when the call ends
+    private static CompletableFuture<Object> call(CallPlan plan, Object wire, int timeout) {
+        ChannelPool channelPool = plan.getChannelPool();
+        int index = channelPool.acquire();
+        ManagedChannel channel = channelPool.get(index);
+        long start = System.nanoTime();
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        Futures.addCallback(futureCall(plan, channel, wire, timeout), new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object reply) {
+                channelPool.release(index, Status.Code.OK, System.nanoTime() - start);
+                result.complete(reply);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status.Code code = Status.fromThrowable(t).getCode();
+                channelPool.release(index, code, -1);
+                if (code == Status.Code.DEADLINE_EXCEEDED) {
+                    // trigger reconnection when timeout occurs
+                    channel.enterIdle();
+                }
+                result.completeExceptionally(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
 
-        @Override
-        public byte[] parse(InputStream stream) {
+    // get responses of many requests, at most maxOutstanding calls in flight and no more than the limiter allows,
+    // responses in input order
+    public List<Response> executeBatch(List<String> paramsJsonList) {
+        List<Response> responses = new ArrayList<>(paramsJsonList.size());
+        executeBatch(paramsJsonList.iterator()).forEachRemaining(responses::add);
+        return responses;
+    }
+
+    // lazy variant of executeBatch: requests are pulled as calls complete, responses in input order; every request
+    // takes the current plan, a long batch moves to the new one when updateClient retires it
+    public Iterator<Response> executeBatch(Iterator<String> paramsJsonIterator) {
+        checkUnary(plan());
+        int timeout = this.timeout;
+        int maxOutstanding = this.maxOutstanding;
+        BodyFormat bodyFormat = this.bodyFormat;
+        return new Iterator<Response>() {
+            private final ArrayDeque<CompletableFuture<Response>> outstanding = new ArrayDeque<>(maxOutstanding);
+
+            // a slot taken by other callers is waited for like in a blocking call
+            private void fill() {
+                for (CallPlan plan = plan(); outstanding.size() < window(plan) && paramsJsonIterator.hasNext(); plan = plan()) {
+                    outstanding.add(executeAsync(plan, paramsJsonIterator.next(), timeout, bodyFormat, MoreExecutors.directExecutor(), timeout));
+                }
+            }
+
+            // calls in flight at most, kept under the limit of the limiter so the batch does not get its own calls rejected
+            private int window(CallPlan plan) {
+                ConcurrencyLimiter limiter = plan.getLimiter();
+                return limiter == null ? maxOutstanding : Math.min(maxOutstanding, Math.max(1, limiter.getLimit()));
+            }
+
+            @Override
+            public boolean hasNext() {
+                fill();
+                return !outstanding.isEmpty();
+            }
+
+            @Override
+            public Response next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                // every call has a deadline, so the head always completes
+                return outstanding.poll().join();
+            }
+        };
+    }
+
+    // open a streaming call, items are JSON
+    public StreamCall<String> executeStream(StreamObserver<String> responseObserver) {
+        CallPlan plan = plan();
+        if (plan.getMethodType().clientSendsOneMessage()) {
+            checkParams(this.paramsJson);
+        }
+        return openStream(plan, new StreamCall.Codec<String>() {
+            @Override
+            public DynamicMessage encode(String item) throws InvalidProtocolBufferException {
+                return serializeRequest(plan, item);
+            }
+
+            @Override
+            public String decode(DynamicMessage message) throws InvalidProtocolBufferException {
+                return renderReply(plan, message);
+            }
+        }, responseObserver, this.paramsJson);
+    }
+
+    // open a streaming call, items are DynamicMessage of the registered request/reply types
+    public StreamCall<DynamicMessage> executeStreamMessage(StreamObserver<DynamicMessage> responseObserver) {
+        CallPlan plan = plan();
+        DynamicMessage request = this.paramsMessage;
+        if (request == null && plan.getMethodType().clientSendsOneMessage()) {
+            checkParams(this.paramsJson);
             try {
-                return ByteStreams.toByteArray(stream);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                DynamicMessage.Builder requestBuilder = DynamicMessage.newBuilder(plan.getRequestDescriptor());
+                plan.getParser().merge(this.paramsJson, requestBuilder);
+                request = requestBuilder.build();
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalArgumentException(String.format("paramsJson is Illegal: %s", e.getMessage()), e);
             }
         }
+        return openStream(plan, new StreamCall.Codec<DynamicMessage>() {
+            @Override
+            public DynamicMessage encode(DynamicMessage item) {
+                return item;
+            }
+
+            @Override
+            public DynamicMessage decode(DynamicMessage message) {
+                return message;
+            }
+        }, responseObserver, request);
+    }
+
+    // single request apis get it sent and half-closed right away, timeout 0 means no deadline
+    private <T> StreamCall<T> openStream(CallPlan plan, StreamCall.Codec<T> codec, StreamObserver<T> responseObserver, T request) {
+        if (plan.getMethodType() == MethodType.UNARY) {
+            throw new IllegalArgumentException(String.format("api[ %s ] is not a streaming rpc, use execute()", plan.getApi()));
+        }
+        ChannelPool channelPool = plan.getChannelPool();
+        int index = channelPool.acquire();
+        CallOptions callOptions = this.timeout > 0
+                ? CallOptions.DEFAULT.withDeadlineAfter(this.timeout, TimeUnit.MILLISECONDS)
+                : CallOptions.DEFAULT;
+        boolean clientStreaming = !plan.getMethodType().clientSendsOneMessage();
+        StreamCall<T> call = new StreamCall<>(channelPool.get(index).newCall(plan.getMethodDescriptor(), callOptions),
+                codec, responseObserver, channelPool, index, this.streamWindow, clientStreaming);
+        if (!clientStreaming) {
+            try {
+                call.sendMessage(request);
+            } catch (RuntimeException e) {
+                // closes the call, which gives its channel back
+                call.cancel("request is Illegal");
+                throw e;
+            }
+            call.complete();
+        }
+        return call;
+    }
+
+    private static void checkUnary(CallPlan plan) {
+        if (plan.getMethodType() != MethodType.UNARY) {
+            throw new IllegalArgumentException(String.format("api[ %s ] is a %s rpc, use executeStream()", plan.getApi(), plan.getMethodType()));
+        }
     }
 
     // inner class for builder feature
@@ -368,6 +633,12 @@ public class Client {
         private String api;
         private String paramsJson;
         private int timeout;
+        private int streamWindow = 1;
+        private int maxOutstanding = 100;
+        private DynamicMessage paramsMessage;
+        private byte[] paramsBytes;
+        private BodyFormat bodyFormat = BodyFormat.JSON;
+        private ClientRegistry registry = ClientRegistry.getDefault();
 
         public Builder name(String name) {
             this.name = name;
@@ -384,17 +655,53 @@ public class Client {
             return this;
         }
 
+        public Builder paramsMessage(DynamicMessage paramsMessage) {
+            this.paramsMessage = paramsMessage;
+            return this;
+        }
+
+        public Builder paramsBytes(byte[] paramsBytes) {
+            this.paramsBytes = paramsBytes;
+            return this;
+        }
+
+        public Builder bodyFormat(BodyFormat bodyFormat) {
+            this.bodyFormat = bodyFormat;
+            return this;
+        }
+
         public Builder timeout(int timeout) {
             this.timeout = timeout;
             return this;
         }
 
+        public Builder streamWindow(int streamWindow) {
+            this.streamWindow = streamWindow;
+            return this;
+        }
+
+        public Builder maxOutstanding(int maxOutstanding) {
+            this.maxOutstanding = maxOutstanding;
+            return this;
+        }
+
+        public Builder registry(ClientRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
         public Client build() {
             Client client = new Client();
             client.name = name;
             client.api = api;
             client.paramsJson = paramsJson;
             client.timeout = timeout;
+            client.streamWindow = streamWindow;
+            client.maxOutstanding = maxOutstanding;
+            client.paramsMessage = paramsMessage;
+            client.paramsBytes = paramsBytes;
+            client.bodyFormat = bodyFormat;
+            client.registry = registry;
             client.validate();
             return client;
         }
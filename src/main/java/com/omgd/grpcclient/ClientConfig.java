@@ -1,5 +1,10 @@
 package com.omgd.grpcclient;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import com.google.common.base.Strings;
 
 /**
@@ -14,6 +19,32 @@ public class ClientConfig {
     private String address;
     // number of connections (1, 5, 1000, etc.)
     private int connections;
+    // how calls pick a connection
+    private ChannelStrategy channelStrategy;
+    // metrics callbacks, null means none
+    private Instrumentation instrumentation;
+    // how the channels are warmed up at registration
+    private WarmUp warmUp;
+    // deadline of the whole warm up in milliseconds
+    private int warmUpTimeout;
+    // directory of compiled schema snapshots, null means none
+    private String schemaSnapshotDir;
+    // concurrency limit of unary calls, null means none
+    private LimiterConfig limiter;
+    // hedging and retries of idempotent unary apis, null means none
+    private RetryConfig retry;
+    // reply cache of read-mostly unary apis, null means none
+    private CacheConfig cache;
+    // unary apis whose identical concurrent calls share one rpc
+    private Set<String> coalescedApis;
+    // netty transport of the channels, null means the defaults of TransportConfig
+    private TransportConfig transport;
+    // request compression of unary apis, null means none
+    private CompressionConfig compression;
+    // elastic channel pool, null keeps connections channels
+    private ElasticConfig elastic;
+    // channel ejection and circuit breaker, null turns both off
+    private HealthConfig health;
 
     private ClientConfig() {
 
@@ -23,9 +54,33 @@ public class ClientConfig {
         if (Strings.isNullOrEmpty(name) ||
                 Strings.isNullOrEmpty(protoFileContent) ||
                 Strings.isNullOrEmpty(address) ||
-                connections < 0) {
+                connections < 0 ||
+                channelStrategy == null ||
+                warmUp == null ||
+                warmUpTimeout <= 0) {
             throw new IllegalArgumentException("GrpcClientConfig is Illegal");
         }
+        if (limiter != null) {
+            limiter.validate();
+        }
+        if (retry != null) {
+            retry.validate();
+        }
+        if (cache != null) {
+            cache.validate();
+        }
+        if (transport != null) {
+            transport.validate();
+        }
+        if (compression != null) {
+            compression.validate();
+        }
+        if (elastic != null) {
+            elastic.validate();
+        }
+        if (health != null) {
+            health.validate();
+        }
     }
 
     public static Builder create() {
@@ -48,12 +103,77 @@ public class ClientConfig {
         return connections;
     }
 
+    public ChannelStrategy getChannelStrategy() {
+        return channelStrategy;
+    }
+
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    public WarmUp getWarmUp() {
+        return warmUp;
+    }
+
+    public int getWarmUpTimeout() {
+        return warmUpTimeout;
+    }
+
+    public String getSchemaSnapshotDir() {
+        return schemaSnapshotDir;
+    }
+
+    public LimiterConfig getLimiter() {
+        return limiter;
+    }
+
+    public RetryConfig getRetry() {
+        return retry;
+    }
+
+    public CacheConfig getCache() {
+        return cache;
+    }
+
+    public Set<String> getCoalescedApis() {
+        return coalescedApis;
+    }
+
+    public TransportConfig getTransport() {
+        return transport;
+    }
+
+    public CompressionConfig getCompression() {
+        return compression;
+    }
+
+    public ElasticConfig getElastic() {
+        return elastic;
+    }
+
+    public HealthConfig getHealth() {
+        return health;
+    }
+
     // inner class for builder feature
     public static class Builder {
         private String name;
         private String protoFileContent;
         private String address;
         private int connections;
+        private ChannelStrategy channelStrategy = ChannelStrategy.POWER_OF_TWO_CHOICES;
+        private Instrumentation instrumentation;
+        private WarmUp warmUp = WarmUp.RPC;
+        private int warmUpTimeout = 10000;
+        private String schemaSnapshotDir;
+        private LimiterConfig limiter;
+        private RetryConfig retry;
+        private CacheConfig cache;
+        private Set<String> coalescedApis = new HashSet<>();
+        private TransportConfig transport;
+        private CompressionConfig compression;
+        private ElasticConfig elastic;
+        private HealthConfig health;
 
         public Builder name(String name) {
             this.name = name;
@@ -75,12 +195,91 @@ public class ClientConfig {
             return this;
         }
 
+        public Builder channelStrategy(ChannelStrategy channelStrategy) {
+            this.channelStrategy = channelStrategy;
+            return this;
+        }
+
+        public Builder instrumentation(Instrumentation instrumentation) {
+            this.instrumentation = instrumentation;
+            return this;
+        }
+
+        public Builder warmUp(WarmUp warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        public Builder warmUpTimeout(int warmUpTimeout) {
+            this.warmUpTimeout = warmUpTimeout;
+            return this;
+        }
+
+        public Builder schemaSnapshotDir(String schemaSnapshotDir) {
+            this.schemaSnapshotDir = schemaSnapshotDir;
+            return this;
+        }
+
+        public Builder limiter(LimiterConfig limiter) {
+            this.limiter = limiter;
+            return this;
+        }
+
+        public Builder retry(RetryConfig retry) {
+            this.retry = retry;
+            return this;
+        }
+
+        public Builder cache(CacheConfig cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        // identical calls of these apis in flight at the same time share one rpc, they must be idempotent
+        public Builder coalesce(String... apis) {
+            this.coalescedApis.addAll(Arrays.asList(apis));
+            return this;
+        }
+
+        public Builder transport(TransportConfig transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder compression(CompressionConfig compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder elastic(ElasticConfig elastic) {
+            this.elastic = elastic;
+            return this;
+        }
+
+        public Builder health(HealthConfig health) {
+            this.health = health;
+            return this;
+        }
+
         public ClientConfig build() {
             ClientConfig config = new ClientConfig();
             config.name = name;
             config.protoFileContent = protoFileContent;
             config.address = address;
             config.connections = connections;
+            config.channelStrategy = channelStrategy;
+            config.instrumentation = instrumentation;
+            config.warmUp = warmUp;
+            config.warmUpTimeout = warmUpTimeout;
+            config.schemaSnapshotDir = schemaSnapshotDir;
+            config.limiter = limiter;
+            config.retry = retry;
+            config.cache = cache;
+            config.coalescedApis = Collections.unmodifiableSet(new HashSet<>(coalescedApis));
+            config.transport = transport;
+            config.compression = compression;
+            config.elastic = elastic;
+            config.health = health;
             return config;
         }
     }
@@ -0,0 +1,43 @@
+package com.omgd.grpcclient;
+
+import java.util.Map;
+
+/**
+ * everything registered under one client name, immutable and published as a whole: a lookup never sees the schema
+ * of one registration with the channels of another
+ */
+final class ClientHandle {
+    private final ClientConfig config;
+    private final SchemaCache.Entry schema;
+    private final ChannelPool channelPool;
+    // api -> call plan
+    private final Map<String, CallPlan> plans;
+
+    ClientHandle(ClientConfig config, SchemaCache.Entry schema, ChannelPool channelPool, Map<String, CallPlan> plans) {
+        this.config = config;
+        this.schema = schema;
+        this.channelPool = channelPool;
+        this.plans = plans;
+    }
+
+    ClientConfig getConfig() {
+        return config;
+    }
+
+    SchemaCache.Entry getSchema() {
+        return schema;
+    }
+
+    ChannelPool getChannelPool() {
+        return channelPool;
+    }
+
+    Map<String, CallPlan> getPlans() {
+        return plans;
+    }
+
+    // null when the api is unknown
+    CallPlan getPlan(String api) {
+        return plans.get(api);
+    }
+}
@@ -0,0 +1,482 @@
+package com.omgd.grpcclient;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.os72.protobuf.dynamic.EnumDefinition;
+import com.github.os72.protobuf.dynamic.MessageDefinition;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.squareup.protoparser.EnumElement;
+import com.squareup.protoparser.FieldElement;
+import com.squareup.protoparser.MessageElement;
+import com.squareup.protoparser.ProtoFile;
+import com.squareup.protoparser.ProtoParser;
+import com.squareup.protoparser.RpcElement;
+import com.squareup.protoparser.ServiceElement;
+import com.squareup.protoparser.TypeElement;
+
+import io.grpc.Codec;
+import io.grpc.DecompressorRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+
+/**
+ * <p>
+ * registered clients by name, each one an immutable {@link ClientHandle} that is published and replaced as a whole
+ * </p>
+ * <p>
+ * the static API of {@link Client} works on {@link #getDefault()}; separate registries (per tenant, per test) are
+ * isolated from it, bind a client to one with {@link Client.Builder#registry(ClientRegistry)}
+ * </p>
+ */
+public class ClientRegistry {
+    private static final Logger log = Logger.getLogger(ClientRegistry.class.getName());
+    private static final ClientRegistry DEFAULT = new ClientRegistry();
+    /**
+     * service and rpc declarations in proto text, used to find the streaming flags ProtoParser does not keep
+     */
+    private static final Pattern RPC_PATTERN = Pattern.compile("\\bservice\\s+(\\w+)|\\brpc\\s+(\\w+)\\s*\\(\\s*(stream\\s+)?[\\w.]+\\s*\\)\\s*returns\\s*\\(\\s*(stream\\s+)?[\\w.]+\\s*\\)");
+    private static final Pattern STREAM_PATTERN = Pattern.compile("\\(\\s*stream\\s+");
+    // old channels take calls that picked them before the swap for this long, then drain
+    static final long DRAIN_DELAY = 1000;
+    private static final TransportConfig DEFAULT_TRANSPORT = TransportConfig.create().build();
+
+    /**
+     * client name -> handle
+     */
+    private final ConcurrentHashMap<String, ClientHandle> clients = new ConcurrentHashMap<>(500);
+    /**
+     * updateClient runs one at a time
+     */
+    private final Object updateLock = new Object();
+
+    public static ClientRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    // blocks until the channels are warmed up or the warm up timeout passed, whichever comes first
+    public void registerClient(ClientConfig clientConfig) {
+        await(registerClientAsync(clientConfig));
+    }
+
+    /**
+     * <p>
+     * register without waiting for the warm up, the client is usable as soon as this returns
+     * </p>
+     * <p>
+     * the future completes with true once every channel is up, with false when one failed or the warm up timeout
+     * passed first; calls made before that connect on demand
+     * </p>
+     */
+    public CompletableFuture<Boolean> registerClientAsync(ClientConfig clientConfig) {
+        clientConfig.validate();
+        String name = clientConfig.getName();
+        if (clients.containsKey(name)) {
+            throw alreadyRegistered(name);
+        }
+        long start = System.nanoTime();
+        SchemaCache.Entry schema = initSchema(clientConfig);
+        long schemaEnd = System.nanoTime();
+        ChannelPool channelPool = initChannel(clientConfig);
+        ClientHandle handle;
+        try {
+            handle = new ClientHandle(clientConfig, schema, channelPool, compilePlans(clientConfig, schema, channelPool));
+        } catch (RuntimeException e) {
+            channelPool.shutdownNow();
+            throw e;
+        }
+        // usable from here, calls made during the warm up connect on demand
+        if (clients.putIfAbsent(name, handle) != null) {
+            channelPool.shutdownNow();
+            throw alreadyRegistered(name);
+        }
+        return warmUp(clientConfig, clientConfig.getWarmUp(), handle, start, schemaEnd);
+    }
+
+    /**
+     * <p>
+     * swap the proto, address or pool settings of a registered client without dropping calls
+     * </p>
+     * <p>
+     * schema and call plans are replaced at once, calls already started finish on the old ones. the channel pool is
+     * kept as it is, with its calls in flight, channel health and elastic size, when nothing it is built from changed:
+     * address, connections, channel strategy, instrumentation, accepted reply encodings, transport, health and elastic
+     * settings. otherwise the new channels are warmed up before the swap and the old ones drained: no new calls, closed
+     * once their calls ended
+     * </p>
+     */
+    public void updateClient(ClientConfig clientConfig) {
+        clientConfig.validate();
+        String name = clientConfig.getName();
+        synchronized (updateLock) {
+            ClientHandle old = clients.get(name);
+            if (old == null) {
+                throw notRegistered(name);
+            }
+            ChannelPool oldPool = old.getChannelPool();
+            long start = System.nanoTime();
+            SchemaCache.Entry schema = initSchema(clientConfig);
+            long schemaEnd = System.nanoTime();
+            boolean keepPool = samePool(old.getConfig(), clientConfig);
+            ChannelPool channelPool = keepPool ? oldPool : initChannel(clientConfig);
+            ClientHandle handle;
+            try {
+                handle = new ClientHandle(clientConfig, schema, channelPool, compilePlans(clientConfig, schema, channelPool));
+            } catch (RuntimeException e) {
+                if (!keepPool) {
+                    channelPool.shutdownNow();
+                }
+                throw e;
+            }
+            await(warmUp(clientConfig, keepPool ? WarmUp.NONE : clientConfig.getWarmUp(), handle, start, schemaEnd));
+
+            // new calls switch with the handle, clients holding an old plan rebind on their next call
+            if (!clients.replace(name, old, handle)) {
+                // unregistered during the warm up
+                if (!keepPool) {
+                    channelPool.shutdownNow();
+                }
+                throw notRegistered(name);
+            }
+            old.getPlans().values().forEach(CallPlan::retire);
+            if (!keepPool) {
+                // calls that picked the old plan just before the swap still get to start
+                ClientScheduler.schedule(oldPool::shutdown, DRAIN_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // true when the pool of the old config serves the new one as it is
+    private static boolean samePool(ClientConfig old, ClientConfig config) {
+        return old.getAddress().equals(config.getAddress()) &&
+                old.getConnections() == config.getConnections() &&
+                old.getChannelStrategy() == config.getChannelStrategy() &&
+                old.getInstrumentation() == config.getInstrumentation() &&
+                acceptedEncodings(old).equals(acceptedEncodings(config)) &&
+                transport(old).equals(transport(config)) &&
+                Objects.equals(old.getHealth(), config.getHealth()) &&
+                Objects.equals(old.getElastic(), config.getElastic());
+    }
+
+    public void unRegisterClient(String name) {
+        ClientHandle handle = clients.remove(name);
+        if (handle != null) {
+            handle.getChannelPool().shutdownNow();
+        }
+    }
+
+    // unregister every client of the registry
+    public void shutdown() {
+        clients.keySet().forEach(this::unRegisterClient);
+    }
+
+    // null when the client is not registered
+    ClientHandle getHandle(String name) {
+        return clients.get(name);
+    }
+
+    // registered call plan of the api, null when unknown
+    CallPlan getPlan(String name, String api) {
+        ClientHandle handle = clients.get(name);
+        return handle == null ? null : handle.getPlan(api);
+    }
+
+    // limiter of a unary api, null when the client has none or is not registered
+    public ConcurrencyLimiter getLimiter(String name, String api) {
+        CallPlan plan = getPlan(name, api);
+        return plan == null ? null : plan.getLimiter();
+    }
+
+    // reply cache of a unary api, null when the api is not cached or the client is not registered
+    public ResponseCache getCache(String name, String api) {
+        CallPlan plan = getPlan(name, api);
+        return plan == null ? null : plan.getCache();
+    }
+
+    private static IllegalArgumentException alreadyRegistered(String name) {
+        return new IllegalArgumentException(String.format("client[ %s ] already registered, please unRegisterClient first", name));
+    }
+
+    private static IllegalArgumentException notRegistered(String name) {
+        return new IllegalArgumentException(String.format("client[ %s ] not registered yet", name));
+    }
+
+    private static void await(CompletableFuture<Boolean> ready) {
+        try {
+            ready.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the warm up never fails the future
+        }
+    }
+
+    // work with enums, messages and services
+    private static SchemaCache.Entry initSchema(ClientConfig clientConfig) {
+        // clients with the same proto content share one compiled schema
+        SchemaCache.Entry entry = SchemaCache.get(clientConfig.getProtoFileContent(), clientConfig.getSchemaSnapshotDir(),
+                ClientRegistry::compileSchema);
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("initSchema | client: " + clientConfig.getName() + ", apis: " + entry.getServices());
+        }
+        return entry;
+    }
+
+    // parse the proto text and build its schema, only on a SchemaCache miss
+    private static SchemaCache.Entry compileSchema(String protoFileContent) {
+        // ProtoParser does not understand the stream keyword, record it and strip it
+        Map<String, boolean[]> streamingMap = parseStreaming(protoFileContent);
+        ProtoFile protoFile = null;
+        try {
+            protoFile = ProtoParser.parse("", STREAM_PATTERN.matcher(protoFileContent).replaceAll("("));
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("initSchema | parse protoFileContent error: %s", e.getMessage()), e);
+        }
+        // get messages or enums from proto-file
+        List<TypeElement> typeList = protoFile.typeElements();
+        // get services from proto-file
+        List<ServiceElement> serviceList = protoFile.services();
+        // the whole proto, on every compile: debug only
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("initSchema | protoFile: " + protoFile);
+            log.fine("initSchema | typeList: " + typeList);
+            log.fine("initSchema | serviceList: " + serviceList);
+        }
+        if (typeList.size() == 0 || serviceList.size() == 0) {
+            throw new RuntimeException("initSchema | typeElementList is empty or serviceElementList is empty");
+        }
+
+        // work with proto-file messages or enums: if typeElement is message or enum? write it to schema
+        DynamicSchema.Builder schemaBuilder = DynamicSchema.newBuilder();
+        typeList.forEach(typeElement -> {
+            // enum
+            if (typeElement instanceof EnumElement) {
+                EnumElement element = (EnumElement) typeElement;
+                EnumDefinition.Builder definitionBuilder = EnumDefinition.newBuilder(element.name());
+                element.constants().forEach(field -> definitionBuilder.addValue(field.name(), field.tag()));
+                EnumDefinition definition = definitionBuilder.build();
+                schemaBuilder.addEnumDefinition(definition);
+                // message
+            } else if (typeElement instanceof MessageElement) {
+                MessageElement element = (MessageElement) typeElement;
+                // get message fields
+                List<FieldElement> fields = element.fields();
+                // create definitionBuilder
+                MessageDefinition.Builder definitionBuilder = MessageDefinition.newBuilder(element.name());
+                // add field parts to definitionBuilder
+                fields.forEach(field -> definitionBuilder.addField(field.label().name().toLowerCase(),
+                        field.type().toString(),
+                        field.name(),
+                        field.tag()));
+                // create message definition
+                MessageDefinition definition = definitionBuilder.build();
+                // write message definition to schemaBuilder
+                schemaBuilder.addMessageDefinition(definition);
+            }
+        });
+
+        // work with proto-file services:
+        Map<String, ApiDefinition> serviceMap = new HashMap<>(serviceList.size());
+
+        // working with services
+        serviceList.forEach(serviceElement -> {
+            // get RpcElement (service entity)
+            List<RpcElement> rpcList = serviceElement.rpcs();
+            rpcList.forEach(rpcElement -> {
+                String api = String.format("%s/%s", serviceElement.name(), rpcElement.name());
+                boolean[] streaming = streamingMap.getOrDefault(api, new boolean[2]);
+                ApiDefinition definition = new ApiDefinition(rpcElement.requestType().toString(),
+                        rpcElement.responseType().toString(), streaming[0], streaming[1]);
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("initSchema | api: " + api + ", definition: " + definition);
+                }
+                serviceMap.put(api, definition);
+            });
+        });
+
+        DynamicSchema schema = null;
+        try {
+            schema = schemaBuilder.build();
+        } catch (DescriptorValidationException e) {
+            throw new RuntimeException(String.format("initSchema | schema build error %s", e.getMessage()), e);
+        }
+        return new SchemaCache.Entry(schema, serviceMap);
+    }
+
+    // api -> {client streaming, server streaming}
+    private static Map<String, boolean[]> parseStreaming(String protoFileContent) {
+        Map<String, boolean[]> streamingMap = new HashMap<>();
+        String service = null;
+        Matcher matcher = RPC_PATTERN.matcher(protoFileContent);
+        while (matcher.find()) {
+            if (matcher.group(1) != null) {
+                service = matcher.group(1);
+            } else if (service != null) {
+                String api = String.format("%s/%s", service, matcher.group(2));
+                streamingMap.put(api, new boolean[]{matcher.group(3) != null, matcher.group(4) != null});
+            }
+        }
+        return streamingMap;
+    }
+
+    // create gRPC ManagedChannel
+    private static ChannelPool initChannel(ClientConfig clientConfig) {
+        String address = clientConfig.getAddress();
+        Supplier<ManagedChannel> channelFactory = channelFactory(clientConfig);
+        // an elastic pool starts with connections held between its bounds
+        ElasticConfig elastic = clientConfig.getElastic();
+        int connections = elastic == null ? clientConfig.getConnections()
+                : Math.max(elastic.getMinConnections(), Math.min(elastic.getMaxConnections(), clientConfig.getConnections()));
+        ManagedChannel[] channels = new ManagedChannel[connections];
+        for (int i = 0; i < connections; i++) {
+            channels[i] = channelFactory.get();
+        }
+        if (elastic == null) {
+            return new ChannelPool(clientConfig.getName(), address, channels, clientConfig.getChannelStrategy(), clientConfig.getInstrumentation(),
+                    clientConfig.getHealth());
+        }
+        return new ChannelPool(clientConfig.getName(), address, channels, clientConfig.getChannelStrategy(), clientConfig.getInstrumentation(),
+                clientConfig.getHealth(), elastic, channelFactory);
+    }
+
+    // builds the channels of the client, at registration and when an elastic pool grows
+    private static Supplier<ManagedChannel> channelFactory(ClientConfig clientConfig) {
+        String address = clientConfig.getAddress();
+        TransportConfig transport = transport(clientConfig);
+        // every channel of every client shares the event loops unless the config brings its own
+        EventLoopGroup eventLoopGroup = transport.getEventLoopGroup() == null ? EventLoops.shared() : transport.getEventLoopGroup();
+        Class<? extends Channel> channelType = transport.getChannelType() == null
+                ? EventLoops.channelType(eventLoopGroup) : transport.getChannelType();
+        DecompressorRegistry decompressorRegistry = acceptEncodings(clientConfig.getCompression());
+        return () -> {
+            NettyChannelBuilder builder = NettyChannelBuilder.forTarget(address)
+                    .eventLoopGroup(eventLoopGroup)
+                    .channelType(channelType)
+                    .defaultLoadBalancingPolicy(transport.getLoadBalancingPolicy())
+                    .flowControlWindow(transport.getFlowControlWindow())
+                    .maxInboundMessageSize(transport.getMaxInboundMessageSize())
+                    .keepAliveTimeout(transport.getKeepAliveTimeout(), TimeUnit.MILLISECONDS)
+                    .keepAliveWithoutCalls(transport.isKeepAliveWithoutCalls());
+            if (transport.isPlaintext()) {
+                builder.usePlaintext();
+            } else {
+                builder.useTransportSecurity();
+            }
+            if (transport.getKeepAliveTime() > 0) {
+                builder.keepAliveTime(transport.getKeepAliveTime(), TimeUnit.MILLISECONDS);
+            }
+            if (decompressorRegistry != null) {
+                builder.decompressorRegistry(decompressorRegistry);
+            }
+            if (transport.isDirectExecutor()) {
+                builder.directExecutor();
+            } else if (transport.getExecutor() != null) {
+                builder.executor(transport.getExecutor());
+            }
+            return builder.build();
+        };
+    }
+
+    private static TransportConfig transport(ClientConfig clientConfig) {
+        return clientConfig.getTransport() == null ? DEFAULT_TRANSPORT : clientConfig.getTransport();
+    }
+
+    private static Set<String> acceptedEncodings(ClientConfig clientConfig) {
+        CompressionConfig compression = clientConfig.getCompression();
+        return compression == null ? Collections.emptySet() : compression.getAcceptEncodings();
+    }
+
+    // reply encodings advertised to the server, null keeps every registered decompressor
+    private static DecompressorRegistry acceptEncodings(CompressionConfig compression) {
+        if (compression == null || compression.getAcceptEncodings().isEmpty()) {
+            return null;
+        }
+        DecompressorRegistry registry = DecompressorRegistry.emptyInstance().with(Codec.Identity.NONE, false);
+        for (String encoding : compression.getAcceptEncodings()) {
+            registry = registry.with(DecompressorRegistry.getDefaultInstance().lookupDecompressor(encoding), true);
+        }
+        return registry;
+    }
+
+    // compile call plans once, every call reuses them
+    private static Map<String, CallPlan> compilePlans(ClientConfig clientConfig, SchemaCache.Entry schema, ChannelPool channelPool) {
+        // unary apis share one limiter unless each gets its own
+        LimiterConfig limiterConfig = clientConfig.getLimiter();
+        ConcurrencyLimiter shared = limiterConfig == null || limiterConfig.isPerApi() ? null : new ConcurrencyLimiter(limiterConfig);
+        // listed unary apis share the retry budget of the client
+        RetryConfig retryConfig = clientConfig.getRetry();
+        RetryPolicy.Budget budget = retryConfig == null ? null : new RetryPolicy.Budget(retryConfig);
+        CacheConfig cacheConfig = clientConfig.getCache();
+        Map<String, CallPlan> plans = new HashMap<>(schema.getServices().size());
+        for (Entry<String, ApiDefinition> entry : schema.getServices().entrySet()) {
+            boolean unary = entry.getValue().getMethodType() == MethodType.UNARY;
+            ConcurrencyLimiter limiter = null;
+            if (limiterConfig != null && unary) {
+                limiter = shared == null ? new ConcurrencyLimiter(limiterConfig) : shared;
+            }
+            RetryPolicy retryPolicy = null;
+            if (retryConfig != null && unary && retryConfig.getApis().contains(entry.getKey())) {
+                retryPolicy = new RetryPolicy(retryConfig, budget);
+            }
+            ResponseCache cache = null;
+            if (cacheConfig != null && unary && cacheConfig.getApis().contains(entry.getKey())) {
+                cache = new ResponseCache(cacheConfig);
+            }
+            SingleFlight singleFlight = unary && clientConfig.getCoalescedApis().contains(entry.getKey()) ? new SingleFlight() : null;
+            CompressionConfig compression = clientConfig.getCompression();
+            if (compression != null && !(unary && compression.covers(entry.getKey()))) {
+                compression = null;
+            }
+            plans.put(entry.getKey(), CallPlan.compile(schema.getSchema(), entry.getKey(), entry.getValue(), channelPool,
+                    limiter, retryPolicy, cache, singleFlight, compression));
+        }
+        return Collections.unmodifiableMap(plans);
+    }
+
+    // establish connections, all channels at once under one deadline, then report the registration
+    private static CompletableFuture<Boolean> warmUp(ClientConfig clientConfig, WarmUp warmUp, ClientHandle handle,
+                                                     long start, long schemaEnd) {
+        String name = clientConfig.getName();
+        // take any api to warm up, unary preferred
+        CallPlan unary = null;
+        for (CallPlan plan : handle.getPlans().values()) {
+            if (plan.getMethodType() == MethodType.UNARY) {
+                unary = plan;
+                break;
+            }
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("warmUp | client: " + name + ", mode: " + warmUp + ", api: " + (unary == null ? null : unary.getApi()));
+        }
+        return warmUp.start(handle.getChannelPool(), unary, clientConfig.getWarmUpTimeout()).thenApply(ready -> {
+            if (!ready) {
+                log.warning(String.format("client[ %s ] not all channels are up after warm up", name));
+            }
+            Instrumentation instrumentation = clientConfig.getInstrumentation();
+            if (instrumentation != null) {
+                ChannelPool channelPool = handle.getChannelPool();
+                instrumentation.onRegister(name, channelPool.capacity(), schemaEnd - start, System.nanoTime() - schemaEnd);
+                instrumentation.onPoolResize(name, channelPool.size());
+            }
+            return ready;
+        });
+    }
+}
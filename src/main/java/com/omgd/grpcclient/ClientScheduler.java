@@ -0,0 +1,40 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * one daemon thread for the timers of every client (warm up deadlines, channel drains, hedges, pool resizing), created
+ * on first use
+ */
+final class ClientScheduler {
+    private static final Logger log = Logger.getLogger(ClientScheduler.class.getName());
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "grpc-client-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ClientScheduler() {
+    }
+
+    // tasks must be short, they share the thread
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return SCHEDULER.schedule(task, delay, unit);
+    }
+
+    // an exception would cancel the next runs without a trace, a failed run is logged and the task keeps running
+    static ScheduledFuture<?> scheduleWithFixedDelay(String description, Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return SCHEDULER.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, String.format("%s failed", description), e);
+            }
+        }, initialDelay, delay, unit);
+    }
+}
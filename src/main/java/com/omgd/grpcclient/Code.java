@@ -9,5 +9,7 @@ package com.omgd.grpcclient;
  * @since 2020-04-23
  */
 public enum Code {
-    OK, TIMEOUT, ERROR;
+    // REJECTED: over the concurrency limit of the client, never sent
+    // CIRCUIT_OPEN: the circuit breaker of the client is open, never sent
+    OK, TIMEOUT, ERROR, REJECTED, CIRCUIT_OPEN;
 }
@@ -0,0 +1,109 @@
+package com.omgd.grpcclient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+
+/**
+ * <p>
+ * request compression of unary apis, set with {@link ClientConfig.Builder#compression(CompressionConfig)}
+ * </p>
+ * <p>
+ * a request is compressed with the compressor when its serialized size is at least minSize; the compressor is gzip or
+ * any codec registered in {@link CompressorRegistry#getDefaultInstance()}. acceptEncodings are the reply encodings
+ * advertised to the server. with an {@link Instrumentation} the wire sizes of every compressed api are reported
+ * through {@link Instrumentation#onCompression}
+ * </p>
+ */
+public class CompressionConfig {
+    private String compressor;
+    // bytes, smaller requests go out as they are
+    private int minSize;
+    // apis that compress their requests, empty means every unary api of the client
+    private Set<String> apis;
+    // reply encodings the channels accept, empty means every registered decompressor
+    private Set<String> acceptEncodings;
+
+    private CompressionConfig() {
+
+    }
+
+    public void validate() {
+        if (compressor == null ||
+                CompressorRegistry.getDefaultInstance().lookupCompressor(compressor) == null ||
+                minSize < 0) {
+            throw new IllegalArgumentException("CompressionConfig is Illegal");
+        }
+        for (String encoding : acceptEncodings) {
+            if (DecompressorRegistry.getDefaultInstance().lookupDecompressor(encoding) == null) {
+                throw new IllegalArgumentException(String.format("CompressionConfig accepts unknown encoding %s", encoding));
+            }
+        }
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public String getCompressor() {
+        return compressor;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public Set<String> getApis() {
+        return apis;
+    }
+
+    public Set<String> getAcceptEncodings() {
+        return acceptEncodings;
+    }
+
+    // compression applies to the unary api
+    boolean covers(String api) {
+        return apis.isEmpty() || apis.contains(api);
+    }
+
+    // inner class for builder feature
+    public static class Builder {
+        private String compressor = "gzip";
+        private int minSize = 1024;
+        private Set<String> apis = new HashSet<>();
+        private Set<String> acceptEncodings = new HashSet<>();
+
+        public Builder compressor(String compressor) {
+            this.compressor = compressor;
+            return this;
+        }
+
+        public Builder minSize(int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public Builder apis(String... apis) {
+            this.apis.addAll(Arrays.asList(apis));
+            return this;
+        }
+
+        public Builder acceptEncodings(String... acceptEncodings) {
+            this.acceptEncodings.addAll(Arrays.asList(acceptEncodings));
+            return this;
+        }
+
+        public CompressionConfig build() {
+            CompressionConfig config = new CompressionConfig();
+            config.compressor = compressor;
+            config.minSize = minSize;
+            config.apis = Collections.unmodifiableSet(new HashSet<>(apis));
+            config.acceptEncodings = Collections.unmodifiableSet(new HashSet<>(acceptEncodings));
+            return config;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * adaptive limit of the unary calls in flight of a client or api, configured by {@link LimiterConfig}
+ * </p>
+ * <p>
+ * read the current state with {@link ClientRegistry#getLimiter(String, String)}
+ * </p>
+ */
+public final class ConcurrencyLimiter {
+    // AIMD: share of the limit kept on a drop
+    private static final double BACKOFF = 0.9;
+    // GRADIENT: weight of a sample in the long term rtt, weight of a new limit
+    private static final double RTT_WEIGHT = 0.05;
+    private static final double SMOOTHING = 0.2;
+
+    private final LimiterConfig config;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    // bits of the fractional limit, calls are held to its floor
+    private final AtomicLong limit;
+    // GRADIENT: average rtt in nanos, a lost update only drops a sample
+    private volatile double longRtt;
+
+    ConcurrencyLimiter(LimiterConfig config) {
+        this.config = config;
+        this.limit = new AtomicLong(Double.doubleToRawLongBits(config.getInitialLimit()));
+    }
+
+    /**
+     * take a slot, waiting up to waitMillis in the queue when the config has one
+     *
+     * @return false when the call is rejected
+     */
+    boolean acquire(long waitMillis) {
+        if (tryAcquire()) {
+            return true;
+        }
+        if (waitMillis <= 0 || queued.incrementAndGet() > config.getMaxQueue()) {
+            if (waitMillis > 0) {
+                queued.decrementAndGet();
+            }
+            rejected.increment();
+            return false;
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            synchronized (this) {
+                while (!tryAcquire()) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        rejected.increment();
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private boolean tryAcquire() {
+        int limit = getLimit();
+        for (; ; ) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * give the slot back, OK and TIMEOUT move the limit; errors say nothing about load and are left out
+     *
+     * @param startNanos System.nanoTime when the slot was taken
+     */
+    void release(long startNanos, Code code) {
+        int current = inFlight.getAndDecrement();
+        boolean grew = (code == Code.OK || code == Code.TIMEOUT)
+                && update(System.nanoTime() - startNanos, current, code == Code.TIMEOUT);
+        // the freed slot, and the ones a higher limit adds, go to the queued calls
+        if (queued.get() > 0) {
+            synchronized (this) {
+                if (grew) {
+                    notifyAll();
+                } else {
+                    notify();
+                }
+            }
+        }
+    }
+
+    // true when the limit went up by a whole slot
+    private boolean update(long rtt, int inFlight, boolean dropped) {
+        double gradient = 1;
+        if (config.getAlgorithm() == LimiterConfig.Algorithm.GRADIENT) {
+            double average = longRtt;
+            longRtt = average == 0 ? rtt : average * (1 - RTT_WEIGHT) + rtt * RTT_WEIGHT;
+            if (dropped) {
+                gradient = 0.5;
+            } else if (average != 0) {
+                gradient = Math.max(0.5, Math.min(1, average / rtt));
+            }
+        }
+        for (; ; ) {
+            long bits = limit.get();
+            double current = Double.longBitsToDouble(bits);
+            // a limit that is not in use says nothing, it must not grow
+            if (!dropped && inFlight * 2 < current) {
+                return false;
+            }
+            double next;
+            if (config.getAlgorithm() == LimiterConfig.Algorithm.AIMD) {
+                next = dropped ? current * BACKOFF : current + 1 / current;
+            } else {
+                // sqrt(limit) of headroom lets it grow while latency holds
+                next = current * (1 - SMOOTHING) + (current * gradient + Math.sqrt(current)) * SMOOTHING;
+            }
+            next = Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), next));
+            if (next == current || limit.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return (int) next > (int) current;
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    // calls rejected since registration
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append(config.getAlgorithm()).append(" limit=").append(getLimit())
+                .append(" inFlight=").append(getInFlight()).append(" queued=").append(getQueued())
+                .append(" rejected=").append(getRejected()).toString();
+    }
+}
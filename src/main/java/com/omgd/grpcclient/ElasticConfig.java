@@ -0,0 +1,114 @@
+package com.omgd.grpcclient;
+
+import java.util.Objects;
+
+/**
+ * <p>
+ * elastic channel pool, set with {@link ClientConfig.Builder#elastic(ElasticConfig)}
+ * </p>
+ * <p>
+ * the pool starts with {@link ClientConfig#getConnections()} channels held between minConnections and maxConnections.
+ * a channel is added when a call finds more than maxStreamsPerChannel calls in flight on the channel it picked, keep
+ * it below the MAX_CONCURRENT_STREAMS of the server. once per cooldown the newest channel is retired when no channel
+ * had more than half of maxStreamsPerChannel in flight and the pool did not grow; it takes no new calls and is shut
+ * down once its calls ended, a new channel can take its place meanwhile. pool size goes to {@link Instrumentation#onPoolResize(String, int)}
+ * </p>
+ */
+public class ElasticConfig {
+    private int minConnections;
+    private int maxConnections;
+    // calls in flight on one channel before the pool grows
+    private int maxStreamsPerChannel;
+    // milliseconds between two shrink checks, and since the last growth before a shrink
+    private int cooldown;
+
+    private ElasticConfig() {
+
+    }
+
+    public void validate() {
+        if (minConnections < 1 ||
+                maxConnections < minConnections ||
+                maxStreamsPerChannel < 1 ||
+                cooldown <= 0) {
+            throw new IllegalArgumentException("ElasticConfig is Illegal");
+        }
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxStreamsPerChannel() {
+        return maxStreamsPerChannel;
+    }
+
+    public int getCooldown() {
+        return cooldown;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ElasticConfig)) {
+            return false;
+        }
+        ElasticConfig that = (ElasticConfig) o;
+        return minConnections == that.minConnections &&
+                maxConnections == that.maxConnections &&
+                maxStreamsPerChannel == that.maxStreamsPerChannel &&
+                cooldown == that.cooldown;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minConnections, maxConnections, maxStreamsPerChannel, cooldown);
+    }
+
+    // inner class for builder feature
+    public static class Builder {
+        private int minConnections = 1;
+        private int maxConnections = 64;
+        private int maxStreamsPerChannel = 50;
+        private int cooldown = 60000;
+
+        public Builder minConnections(int minConnections) {
+            this.minConnections = minConnections;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder maxStreamsPerChannel(int maxStreamsPerChannel) {
+            this.maxStreamsPerChannel = maxStreamsPerChannel;
+            return this;
+        }
+
+        public Builder cooldown(int cooldown) {
+            this.cooldown = cooldown;
+            return this;
+        }
+
+        public ElasticConfig build() {
+            ElasticConfig config = new ElasticConfig();
+            config.minConnections = minConnections;
+            config.maxConnections = maxConnections;
+            config.maxStreamsPerChannel = maxStreamsPerChannel;
+            config.cooldown = cooldown;
+            return config;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * the event loop group shared by the channels of every client, created on first use and never shut down (daemon
+ * threads); epoll is looked up by reflection so netty-transport-native-epoll stays optional
+ */
+final class EventLoops {
+    private static final Logger log = Logger.getLogger(EventLoops.class.getName());
+
+    private static final String EPOLL = "io.netty.channel.epoll.Epoll";
+    private static final String EPOLL_EVENT_LOOP_GROUP = "io.netty.channel.epoll.EpollEventLoopGroup";
+    private static final String EPOLL_SOCKET_CHANNEL = "io.netty.channel.epoll.EpollSocketChannel";
+
+    private EventLoops() {
+    }
+
+    static EventLoopGroup shared() {
+        return Shared.GROUP;
+    }
+
+    // socket channel class of a group: epoll or NIO
+    static Class<? extends Channel> channelType(EventLoopGroup group) {
+        if (group instanceof NioEventLoopGroup) {
+            return NioSocketChannel.class;
+        }
+        if (EPOLL_EVENT_LOOP_GROUP.equals(group.getClass().getName())) {
+            try {
+                return Class.forName(EPOLL_SOCKET_CHANNEL, true, group.getClass().getClassLoader()).asSubclass(Channel.class);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException(String.format("channelType of %s must be set", group.getClass().getName()));
+    }
+
+    // holder: the group is created by the first client that uses it
+    private static final class Shared {
+        // 0 is netty's default, twice the available processors
+        private static final EventLoopGroup GROUP = create(0, new DefaultThreadFactory("grpc-client-eventloop", true));
+    }
+
+    private static EventLoopGroup create(int threads, ThreadFactory threadFactory) {
+        try {
+            Class<?> epoll = Class.forName(EPOLL);
+            if ((Boolean) epoll.getMethod("isAvailable").invoke(null)) {
+                return (EventLoopGroup) Class.forName(EPOLL_EVENT_LOOP_GROUP)
+                        .getConstructor(int.class, ThreadFactory.class)
+                        .newInstance(threads, threadFactory);
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.log(Level.FINE, "native epoll transport unavailable, using NIO", e);
+        }
+        return new NioEventLoopGroup(threads, threadFactory);
+    }
+}
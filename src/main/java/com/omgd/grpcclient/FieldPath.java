@@ -0,0 +1,231 @@
+package com.omgd.grpcclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * <p>
+ * dotted path of fields of one message type, e.g. "info.id": every field but the last is a singular message field,
+ * names are proto or JSON names
+ * </p>
+ * <p>
+ * the value is typed like {@link DynamicMessage#getField}: default value when unset, a List for repeated fields. it
+ * is read from the wire format without decoding the fields off the path, or from a decoded message
+ * </p>
+ */
+final class FieldPath {
+    private final String path;
+    private final FieldDescriptor[] fields;
+    // groups and oneofs are left to the decoded message, a oneof member set later clears the one on the path
+    private final boolean wireReadable;
+
+    private FieldPath(String path, FieldDescriptor[] fields, boolean wireReadable) {
+        this.path = path;
+        this.fields = fields;
+        this.wireReadable = wireReadable;
+    }
+
+    static FieldPath compile(Descriptor descriptor, String path) {
+        String[] names = path.split("\\.", -1);
+        FieldDescriptor[] fields = new FieldDescriptor[names.length];
+        boolean wireReadable = true;
+        Descriptor type = descriptor;
+        for (int i = 0; i < names.length; i++) {
+            FieldDescriptor field = type == null ? null : findField(type, names[i]);
+            if (field == null) {
+                throw new IllegalArgumentException(String.format("%s has no field %s", descriptor.getFullName(), path));
+            }
+            boolean message = field.getJavaType() == FieldDescriptor.JavaType.MESSAGE;
+            if (i < names.length - 1 && (field.isRepeated() || !message)) {
+                throw new IllegalArgumentException(String.format("field path %s goes through %s, not a singular message",
+                        path, field.getName()));
+            }
+            wireReadable &= field.getType() != FieldDescriptor.Type.GROUP && field.getContainingOneof() == null;
+            fields[i] = field;
+            type = message ? field.getMessageType() : null;
+        }
+        return new FieldPath(path, fields, wireReadable);
+    }
+
+    private static FieldDescriptor findField(Descriptor type, String name) {
+        FieldDescriptor field = type.findFieldByName(name);
+        if (field != null) {
+            return field;
+        }
+        for (FieldDescriptor candidate : type.getFields()) {
+            if (candidate.getJsonName().equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    boolean isWireReadable() {
+        return wireReadable;
+    }
+
+    Object get(DynamicMessage message) {
+        for (int i = 0; i < fields.length - 1; i++) {
+            message = (DynamicMessage) message.getField(fields[i]);
+        }
+        return message.getField(fields[fields.length - 1]);
+    }
+
+    // only when isWireReadable
+    Object read(byte[] bytes) throws InvalidProtocolBufferException {
+        Leaf leaf = new Leaf(fields[fields.length - 1]);
+        try {
+            scan(CodedInputStream.newInstance(bytes), 0, leaf);
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e);
+        }
+        return leaf.value();
+    }
+
+    // occurrences of a message field are merged, so the path is followed into every one of them
+    private void scan(CodedInputStream input, int depth, Leaf leaf) throws IOException {
+        int number = fields[depth].getNumber();
+        boolean last = depth == fields.length - 1;
+        for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+            if (WireFormat.getTagFieldNumber(tag) != number) {
+                if (!input.skipField(tag)) {
+                    throw new InvalidProtocolBufferException(String.format("unexpected end group reading %s", path));
+                }
+            } else if (last) {
+                leaf.read(input, tag);
+            } else if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                int limit = input.pushLimit(input.readRawVarint32());
+                scan(input, depth + 1, leaf);
+                input.popLimit(limit);
+            } else {
+                // wrong wire type, an unknown field for the parser too
+                input.skipField(tag);
+            }
+        }
+    }
+
+    /**
+     * value of the last field of the path: last occurrence of a scalar, merge of a message, every element of a
+     * repeated field
+     */
+    private static final class Leaf {
+        private final FieldDescriptor field;
+        private final int wireType;
+        private final boolean packable;
+        private Object value;
+        private DynamicMessage.Builder message;
+        private List<Object> values;
+
+        Leaf(FieldDescriptor field) {
+            this.field = field;
+            this.wireType = field.getLiteType().getWireType();
+            this.packable = field.isRepeated() && field.getLiteType().isPackable();
+            if (field.isRepeated()) {
+                values = new ArrayList<>();
+            }
+        }
+
+        void read(CodedInputStream input, int tag) throws IOException {
+            int tagWireType = WireFormat.getTagWireType(tag);
+            if (packable && tagWireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                int limit = input.pushLimit(input.readRawVarint32());
+                while (input.getBytesUntilLimit() > 0) {
+                    add(readValue(input));
+                }
+                input.popLimit(limit);
+            } else if (tagWireType != wireType) {
+                input.skipField(tag);
+            } else if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE && !field.isRepeated()) {
+                if (message == null) {
+                    message = DynamicMessage.newBuilder(field.getMessageType());
+                }
+                message.mergeFrom(input.readBytes());
+            } else {
+                add(readValue(input));
+            }
+        }
+
+        private void add(Object read) {
+            // an enum number unknown to a proto2 type is an unknown field
+            if (read == null) {
+                return;
+            }
+            if (values != null) {
+                values.add(read);
+            } else {
+                value = read;
+            }
+        }
+
+        private Object readValue(CodedInputStream input) throws IOException {
+            switch (field.getType()) {
+                case DOUBLE:
+                    return input.readDouble();
+                case FLOAT:
+                    return input.readFloat();
+                case INT64:
+                    return input.readInt64();
+                case UINT64:
+                    return input.readUInt64();
+                case INT32:
+                    return input.readInt32();
+                case FIXED64:
+                    return input.readFixed64();
+                case FIXED32:
+                    return input.readFixed32();
+                case BOOL:
+                    return input.readBool();
+                case STRING:
+                    return field.getFile().getSyntax() == FileDescriptor.Syntax.PROTO3
+                            ? input.readStringRequireUtf8() : input.readString();
+                case BYTES:
+                    return input.readBytes();
+                case UINT32:
+                    return input.readUInt32();
+                case ENUM:
+                    int number = input.readEnum();
+                    return field.getFile().getSyntax() == FileDescriptor.Syntax.PROTO3
+                            ? field.getEnumType().findValueByNumberCreatingIfUnknown(number)
+                            : field.getEnumType().findValueByNumber(number);
+                case SFIXED32:
+                    return input.readSFixed32();
+                case SFIXED64:
+                    return input.readSFixed64();
+                case SINT32:
+                    return input.readSInt32();
+                case SINT64:
+                    return input.readSInt64();
+                case MESSAGE:
+                    return DynamicMessage.parseFrom(field.getMessageType(), input.readBytes());
+                default:
+                    throw new IllegalStateException("unsupported field type " + field.getType());
+            }
+        }
+
+        Object value() {
+            if (values != null) {
+                return Collections.unmodifiableList(values);
+            }
+            if (message != null) {
+                return message.build();
+            }
+            if (value != null) {
+                return value;
+            }
+            return field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+                    ? DynamicMessage.getDefaultInstance(field.getMessageType()) : field.getDefaultValue();
+        }
+    }
+}
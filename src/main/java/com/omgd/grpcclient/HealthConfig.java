@@ -0,0 +1,245 @@
+package com.omgd.grpcclient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+import io.grpc.Status;
+
+/**
+ * <p>
+ * channel health and circuit breaking of a client, set with {@link ClientConfig.Builder#health(HealthConfig)}
+ * </p>
+ * <p>
+ * a call fails for its channel when it ends with one of failureCodes. a channel is ejected, no call picks it, after
+ * consecutiveFailures failed calls in a row, or when once per interval its failure rate reaches failureRate or its
+ * mean latency is latencyFactor times the median of the pool, both over at least minCalls calls. it reconnects in the
+ * background and comes back after baseEjectionTime times the number of recent ejections, at most maxEjectionTime;
+ * at most maxEjectionPercent of the channels are ejected, never all of them
+ * </p>
+ * <p>
+ * after breakerFailures failed calls in a row on the client the circuit breaker opens: unary calls fail with
+ * {@link Code#CIRCUIT_OPEN} without being sent. breakerOpenTime later halfOpenCalls calls go through, the breaker
+ * closes once they all succeeded and opens again when one fails. ejections and breaker state go to
+ * {@link Instrumentation#onEjection(String, int, boolean)} and {@link Instrumentation#onCircuitBreaker(String, boolean)}
+ * </p>
+ */
+public class HealthConfig {
+    private Set<Status.Code> failureCodes;
+    // milliseconds between two checks of the failure rates and latencies
+    private int interval;
+    private int consecutiveFailures;
+    // failed calls / calls of a channel in an interval, 0 turns the check off
+    private double failureRate;
+    // mean latency of a channel / median of the pool, 0 turns the check off
+    private double latencyFactor;
+    // calls of a channel in an interval before its rate and latency count
+    private int minCalls;
+    // milliseconds
+    private int baseEjectionTime;
+    private int maxEjectionTime;
+    private int maxEjectionPercent;
+    // failed calls in a row that open the breaker, 0 means no breaker
+    private int breakerFailures;
+    // milliseconds
+    private int breakerOpenTime;
+    private int halfOpenCalls;
+
+    private HealthConfig() {
+
+    }
+
+    public void validate() {
+        if (failureCodes == null ||
+                interval <= 0 ||
+                consecutiveFailures < 1 ||
+                failureRate < 0 || failureRate > 1 ||
+                latencyFactor < 0 || (latencyFactor > 0 && latencyFactor <= 1) ||
+                minCalls < 1 ||
+                baseEjectionTime <= 0 ||
+                maxEjectionTime < baseEjectionTime ||
+                maxEjectionPercent < 0 || maxEjectionPercent > 100 ||
+                breakerFailures < 0 ||
+                breakerOpenTime <= 0 ||
+                halfOpenCalls < 1) {
+            throw new IllegalArgumentException("HealthConfig is Illegal");
+        }
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public Set<Status.Code> getFailureCodes() {
+        return failureCodes;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public double getLatencyFactor() {
+        return latencyFactor;
+    }
+
+    public int getMinCalls() {
+        return minCalls;
+    }
+
+    public int getBaseEjectionTime() {
+        return baseEjectionTime;
+    }
+
+    public int getMaxEjectionTime() {
+        return maxEjectionTime;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    public int getBreakerFailures() {
+        return breakerFailures;
+    }
+
+    public int getBreakerOpenTime() {
+        return breakerOpenTime;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HealthConfig)) {
+            return false;
+        }
+        HealthConfig that = (HealthConfig) o;
+        return Objects.equals(failureCodes, that.failureCodes) &&
+                interval == that.interval &&
+                consecutiveFailures == that.consecutiveFailures &&
+                Double.compare(failureRate, that.failureRate) == 0 &&
+                Double.compare(latencyFactor, that.latencyFactor) == 0 &&
+                minCalls == that.minCalls &&
+                baseEjectionTime == that.baseEjectionTime &&
+                maxEjectionTime == that.maxEjectionTime &&
+                maxEjectionPercent == that.maxEjectionPercent &&
+                breakerFailures == that.breakerFailures &&
+                breakerOpenTime == that.breakerOpenTime &&
+                halfOpenCalls == that.halfOpenCalls;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(failureCodes, interval, consecutiveFailures, failureRate, latencyFactor, minCalls,
+                baseEjectionTime, maxEjectionTime, maxEjectionPercent, breakerFailures, breakerOpenTime, halfOpenCalls);
+    }
+
+    // inner class for builder feature
+    public static class Builder {
+        private EnumSet<Status.Code> failureCodes = EnumSet.of(Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED);
+        private int interval = 1000;
+        private int consecutiveFailures = 5;
+        private double failureRate = 0.5;
+        private double latencyFactor = 3;
+        private int minCalls = 10;
+        private int baseEjectionTime = 10000;
+        private int maxEjectionTime = 300000;
+        private int maxEjectionPercent = 50;
+        private int breakerFailures = 20;
+        private int breakerOpenTime = 5000;
+        private int halfOpenCalls = 3;
+
+        public Builder failureCodes(Status.Code... failureCodes) {
+            this.failureCodes = EnumSet.noneOf(Status.Code.class);
+            this.failureCodes.addAll(Arrays.asList(failureCodes));
+            return this;
+        }
+
+        public Builder interval(int interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        public Builder consecutiveFailures(int consecutiveFailures) {
+            this.consecutiveFailures = consecutiveFailures;
+            return this;
+        }
+
+        public Builder failureRate(double failureRate) {
+            this.failureRate = failureRate;
+            return this;
+        }
+
+        public Builder latencyFactor(double latencyFactor) {
+            this.latencyFactor = latencyFactor;
+            return this;
+        }
+
+        public Builder minCalls(int minCalls) {
+            this.minCalls = minCalls;
+            return this;
+        }
+
+        public Builder baseEjectionTime(int baseEjectionTime) {
+            this.baseEjectionTime = baseEjectionTime;
+            return this;
+        }
+
+        public Builder maxEjectionTime(int maxEjectionTime) {
+            this.maxEjectionTime = maxEjectionTime;
+            return this;
+        }
+
+        public Builder maxEjectionPercent(int maxEjectionPercent) {
+            this.maxEjectionPercent = maxEjectionPercent;
+            return this;
+        }
+
+        public Builder breakerFailures(int breakerFailures) {
+            this.breakerFailures = breakerFailures;
+            return this;
+        }
+
+        public Builder breakerOpenTime(int breakerOpenTime) {
+            this.breakerOpenTime = breakerOpenTime;
+            return this;
+        }
+
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public HealthConfig build() {
+            HealthConfig config = new HealthConfig();
+            config.failureCodes = Collections.unmodifiableSet(EnumSet.copyOf(failureCodes));
+            config.interval = interval;
+            config.consecutiveFailures = consecutiveFailures;
+            config.failureRate = failureRate;
+            config.latencyFactor = latencyFactor;
+            config.minCalls = minCalls;
+            config.baseEjectionTime = baseEjectionTime;
+            config.maxEjectionTime = maxEjectionTime;
+            config.maxEjectionPercent = maxEjectionPercent;
+            config.breakerFailures = breakerFailures;
+            config.breakerOpenTime = breakerOpenTime;
+            config.halfOpenCalls = halfOpenCalls;
+            return config;
+        }
+    }
+}
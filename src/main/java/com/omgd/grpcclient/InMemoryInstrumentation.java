@@ -0,0 +1,354 @@
+package com.omgd.grpcclient;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * instrumentation that keeps everything in memory: per client/api histograms and outcome counters,
+ * per channel in-flight gauges, pool size and utilization, ejections, circuit breaker state and registration
+ * timings
+ * </p>
+ * <p>
+ * recording does not allocate once a client/api has been seen, read it with {@link #getApiMetrics(String, String)}
+ * or dump it with {@link #report()}
+ * </p>
+ */
+public class InMemoryInstrumentation implements Instrumentation {
+    // client -> api -> metrics
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, ApiMetrics>> calls = new ConcurrentHashMap<>();
+    // client -> calls in flight per channel
+    private final ConcurrentHashMap<String, AtomicIntegerArray> inFlight = new ConcurrentHashMap<>();
+    // client -> channels taking calls
+    private final ConcurrentHashMap<String, Integer> poolSizes = new ConcurrentHashMap<>();
+    // client -> channel ejections so far
+    private final ConcurrentHashMap<String, LongAdder> ejections = new ConcurrentHashMap<>();
+    // clients whose circuit breaker is open
+    private final Set<String> openCircuits = ConcurrentHashMap.newKeySet();
+    // client -> {schema nanos, channel nanos} of the last registration
+    private final ConcurrentHashMap<String, long[]> registrations = new ConcurrentHashMap<>();
+
+    @Override
+    public void onCall(String client, String api, Code code, long serializeNanos, long networkNanos, long deserializeNanos,
+                       int requestBytes, int replyBytes) {
+        ConcurrentHashMap<String, ApiMetrics> apis = calls.get(client);
+        if (apis == null) {
+            apis = calls.computeIfAbsent(client, key -> new ConcurrentHashMap<>());
+        }
+        ApiMetrics metrics = apis.get(api);
+        if (metrics == null) {
+            metrics = apis.computeIfAbsent(api, key -> new ApiMetrics());
+        }
+        metrics.record(code, serializeNanos, networkNanos, deserializeNanos, requestBytes, replyBytes);
+    }
+
+    @Override
+    public void onCompression(String client, String api, long requestBytes, long requestWireBytes, long replyBytes,
+                              long replyWireBytes) {
+        ConcurrentHashMap<String, ApiMetrics> apis = calls.get(client);
+        if (apis == null) {
+            apis = calls.computeIfAbsent(client, key -> new ConcurrentHashMap<>());
+        }
+        ApiMetrics metrics = apis.get(api);
+        if (metrics == null) {
+            metrics = apis.computeIfAbsent(api, key -> new ApiMetrics());
+        }
+        metrics.recordCompression(requestBytes, requestWireBytes, replyBytes, replyWireBytes);
+    }
+
+    @Override
+    public void onInFlight(String client, int channel, int inFlight) {
+        AtomicIntegerArray gauges = this.inFlight.get(client);
+        if (gauges != null && channel < gauges.length()) {
+            gauges.set(channel, inFlight);
+        }
+    }
+
+    @Override
+    public void onPoolResize(String client, int size) {
+        poolSizes.put(client, size);
+    }
+
+    @Override
+    public void onEjection(String client, int channel, boolean ejected) {
+        if (ejected) {
+            ejections.computeIfAbsent(client, key -> new LongAdder()).increment();
+        }
+    }
+
+    @Override
+    public void onCircuitBreaker(String client, boolean open) {
+        if (open) {
+            openCircuits.add(client);
+        } else {
+            openCircuits.remove(client);
+        }
+    }
+
+    @Override
+    public void onRegister(String client, int connections, long schemaNanos, long channelNanos) {
+        inFlight.put(client, new AtomicIntegerArray(connections));
+        registrations.put(client, new long[]{schemaNanos, channelNanos});
+    }
+
+    // null when the api of the client had no call yet
+    public ApiMetrics getApiMetrics(String client, String api) {
+        Map<String, ApiMetrics> apis = calls.get(client);
+        return apis == null ? null : apis.get(api);
+    }
+
+    // calls in flight per channel, null when the client is not registered
+    public int[] getInFlight(String client) {
+        AtomicIntegerArray gauges = inFlight.get(client);
+        if (gauges == null) {
+            return null;
+        }
+        int[] values = new int[gauges.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = gauges.get(i);
+        }
+        return values;
+    }
+
+    // channels of the client taking calls, 0 when the client is not registered
+    public int getPoolSize(String client) {
+        return poolSizes.getOrDefault(client, 0);
+    }
+
+    // calls in flight per channel taking calls, 0 when the client is not registered
+    public double getUtilization(String client) {
+        AtomicIntegerArray gauges = inFlight.get(client);
+        int size = getPoolSize(client);
+        if (gauges == null || size == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < gauges.length(); i++) {
+            sum += gauges.get(i);
+        }
+        return (double) sum / size;
+    }
+
+    public long getEjections(String client) {
+        LongAdder count = ejections.get(client);
+        return count == null ? 0 : count.sum();
+    }
+
+    public boolean isCircuitOpen(String client) {
+        return openCircuits.contains(client);
+    }
+
+    // one line per registered client and per api, latencies in microseconds
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        registrations.forEach((client, nanos) -> {
+            builder.append(client).append(" | schema=").append(TimeUnit.NANOSECONDS.toMicros(nanos[0]))
+                    .append("us channel=").append(TimeUnit.NANOSECONDS.toMicros(nanos[1]))
+                    .append("us pool=").append(getPoolSize(client))
+                    .append(" utilization=").append(String.format(Locale.ROOT, "%.2f", getUtilization(client)))
+                    .append(" inFlight=").append(inFlight.get(client))
+                    .append(" ejections=").append(getEjections(client))
+                    .append(" circuit=").append(isCircuitOpen(client) ? "open" : "closed").append('\n');
+        });
+        calls.forEach((client, apis) -> apis.forEach((api, metrics) ->
+                builder.append(client).append(' ').append(api).append(" | ").append(metrics).append('\n')));
+        return builder.toString();
+    }
+
+    /**
+     * metrics of one api of a client
+     */
+    public static final class ApiMetrics {
+        private final AtomicLongArray codes = new AtomicLongArray(Code.values().length);
+        private final Histogram serialize = new Histogram();
+        private final Histogram network = new Histogram();
+        private final Histogram deserialize = new Histogram();
+        private final Histogram total = new Histogram();
+        private final Histogram requestBytes = new Histogram();
+        private final Histogram replyBytes = new Histogram();
+        // sums of compressed apis: requests, replies, before and on the wire
+        private final LongAdder requestUncompressed = new LongAdder();
+        private final LongAdder requestWire = new LongAdder();
+        private final LongAdder replyUncompressed = new LongAdder();
+        private final LongAdder replyWire = new LongAdder();
+
+        void record(Code code, long serializeNanos, long networkNanos, long deserializeNanos, int requestBytes, int replyBytes) {
+            codes.incrementAndGet(code.ordinal());
+            serialize.record(serializeNanos);
+            network.record(networkNanos);
+            deserialize.record(deserializeNanos);
+            total.record(serializeNanos + networkNanos + deserializeNanos);
+            if (requestBytes >= 0) {
+                this.requestBytes.record(requestBytes);
+            }
+            if (replyBytes >= 0) {
+                this.replyBytes.record(replyBytes);
+            }
+        }
+
+        void recordCompression(long requestBytes, long requestWireBytes, long replyBytes, long replyWireBytes) {
+            requestUncompressed.add(requestBytes);
+            requestWire.add(requestWireBytes);
+            replyUncompressed.add(replyBytes);
+            replyWire.add(replyWireBytes);
+        }
+
+        public long getCount(Code code) {
+            return codes.get(code.ordinal());
+        }
+
+        // nanoseconds
+        public Histogram getSerialize() {
+            return serialize;
+        }
+
+        // nanoseconds
+        public Histogram getNetwork() {
+            return network;
+        }
+
+        // nanoseconds
+        public Histogram getDeserialize() {
+            return deserialize;
+        }
+
+        // nanoseconds
+        public Histogram getTotal() {
+            return total;
+        }
+
+        // bytes
+        public Histogram getRequestBytes() {
+            return requestBytes;
+        }
+
+        // bytes
+        public Histogram getReplyBytes() {
+            return replyBytes;
+        }
+
+        // wire bytes / uncompressed bytes of requests, 1 without compression data
+        public double getRequestCompressionRatio() {
+            return ratio(requestWire.sum(), requestUncompressed.sum());
+        }
+
+        // wire bytes / uncompressed bytes of replies, 1 without compression data
+        public double getReplyCompressionRatio() {
+            return ratio(replyWire.sum(), replyUncompressed.sum());
+        }
+
+        private static double ratio(long wire, long uncompressed) {
+            return uncompressed == 0 ? 1 : (double) wire / uncompressed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Code code : Code.values()) {
+                builder.append(code).append('=').append(getCount(code)).append(' ');
+            }
+            return builder.append("p50=").append(TimeUnit.NANOSECONDS.toMicros(total.getPercentile(50)))
+                    .append("us p99=").append(TimeUnit.NANOSECONDS.toMicros(total.getPercentile(99)))
+                    .append("us serialize.p50=").append(TimeUnit.NANOSECONDS.toMicros(serialize.getPercentile(50)))
+                    .append("us network.p50=").append(TimeUnit.NANOSECONDS.toMicros(network.getPercentile(50)))
+                    .append("us deserialize.p50=").append(TimeUnit.NANOSECONDS.toMicros(deserialize.getPercentile(50)))
+                    .append("us requestBytes.p50=").append(requestBytes.getPercentile(50))
+                    .append(" replyBytes.p50=").append(replyBytes.getPercentile(50))
+                    .append(String.format(Locale.ROOT, " requestRatio=%.2f replyRatio=%.2f", getRequestCompressionRatio(), getReplyCompressionRatio()))
+                    .toString();
+        }
+    }
+
+    /**
+     * <p>
+     * lock-free histogram of non-negative values, 8 buckets per power of two (12.5% precision)
+     * </p>
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BITS = 3;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // largest value that falls into the bucket
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) getSum() / count;
+        }
+
+        // upper bound of the bucket holding the percentile, 0 < percentile <= 100
+        public long getPercentile(double percentile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder().append("count=").append(getCount()).append(" mean=").append((long) getMean())
+                    .append(" p50=").append(getPercentile(50)).append(" p99=").append(getPercentile(99))
+                    .append(" max=").append(getMax()).toString();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.omgd.grpcclient;
+
+/**
+ * <p>
+ * instrumentation SPI of the client, set per client with {@link ClientConfig.Builder#instrumentation(Instrumentation)}
+ * </p>
+ * <p>
+ * without one nothing is timed, measured or counted. callbacks get primitives only and run on the calling or grpc
+ * callback thread, so implementations must be thread-safe and fast.
+ * </p>
+ */
+public interface Instrumentation {
+
+    /**
+     * one finished unary call, phases in nanoseconds, 0 when the phase did not run
+     *
+     * @param serializeNanos   JSON/message to wire
+     * @param networkNanos     call start to reply arrival
+     * @param deserializeNanos reply to the requested body format
+     * @param requestBytes     serialized request size, -1 when the call failed before serializing
+     * @param replyBytes       serialized reply size, -1 without reply
+     */
+    void onCall(String client, String api, Code code, long serializeNanos, long networkNanos, long deserializeNanos,
+                int requestBytes, int replyBytes);
+
+    /**
+     * one finished call of an api with a {@link CompressionConfig}, bytes summed over its messages
+     *
+     * @param requestWireBytes as sent, compressed or not
+     * @param replyWireBytes   as received, compressed or not
+     */
+    default void onCompression(String client, String api, long requestBytes, long requestWireBytes, long replyBytes,
+                               long replyWireBytes) {
+    }
+
+    // calls in flight on a pooled channel changed
+    default void onInFlight(String client, int channel, int inFlight) {
+    }
+
+    // channels of an elastic pool taking calls changed, also called once at registration
+    default void onPoolResize(String client, int size) {
+    }
+
+    // channel ejected from or taken back into the picks of the client, with a HealthConfig
+    default void onEjection(String client, int channel, boolean ejected) {
+    }
+
+    // circuit breaker of the client opened, or closed after its half open calls succeeded
+    default void onCircuitBreaker(String client, boolean open) {
+    }
+
+    // client registered and warmed up: schema parse and build, channel creation and warm up; connections is the
+    // number of channels the pool can hold, maxConnections for an elastic pool
+    default void onRegister(String client, int connections, long schemaNanos, long channelNanos) {
+    }
+}
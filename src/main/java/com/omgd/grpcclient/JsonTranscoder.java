@@ -0,0 +1,1540 @@
+package com.omgd.grpcclient;
+
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.io.BaseEncoding;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+
+/**
+ * <p>
+ * JSON to protobuf wire transcoder of one message type, compiled from the registered descriptors
+ * </p>
+ * <p>
+ * reads JSON tokens and writes wire format directly, and prints wire format back as JSON, without building a
+ * DynamicMessage. the output is the same as JsonFormat.parser().ignoringUnknownFields() and
+ * JsonFormat.printer().includingDefaultValueFields(). input it does not cover (lenient JSON, duplicate keys, numbers
+ * that need BigDecimal, merged message fields, malformed wire data ...) gives null, the caller then takes the
+ * JsonFormat path which yields the canonical result or error.
+ * </p>
+ */
+final class JsonTranscoder {
+    private static final int RECURSION_LIMIT = 100;
+    // scratch buffers above this size are not kept by the thread
+    private static final int MAX_RETAINED = 1 << 20;
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_START_GROUP = 3;
+    private static final int WIRETYPE_END_GROUP = 4;
+    private static final int WIRETYPE_FIXED32 = 5;
+    private static final BigInteger MAX_UINT64 = new BigInteger("FFFFFFFFFFFFFFFF", 16);
+    private static final String[] REPLACEMENT_CHARS = replacementChars();
+    private static final Fallback FALLBACK = new Fallback();
+    private static final ThreadLocal<WireOut> WIRE_SCRATCH = ThreadLocal.withInitial(WireOut::new);
+    private static final ThreadLocal<JsonOut> JSON_SCRATCH = ThreadLocal.withInitial(JsonOut::new);
+
+    // fields sorted by number, the order JsonFormat prints them in
+    private FieldInfo[] fields;
+    // field number -> index in fields, null when numbers are too sparse for a table
+    private int[] numberTable;
+    private int[] numbers;
+    // open addressing table of proto and json names -> index in fields
+    private String[] nameKeys;
+    private int[] nameValues;
+
+    private JsonTranscoder() {
+    }
+
+    // null when the message tree uses something JsonFormat treats specially (oneof, map, well-known type, group, required)
+    static JsonTranscoder compile(Descriptor descriptor) {
+        return compile(descriptor, new HashMap<>());
+    }
+
+    private static JsonTranscoder compile(Descriptor descriptor, Map<Descriptor, JsonTranscoder> compiled) {
+        if (compiled.containsKey(descriptor)) {
+            return compiled.get(descriptor);
+        }
+        if (descriptor.getFullName().startsWith("google.protobuf.") || !descriptor.getOneofs().isEmpty()) {
+            return null;
+        }
+        JsonTranscoder transcoder = new JsonTranscoder();
+        // registered before the fields so recursive types point to the same transcoder
+        compiled.put(descriptor, transcoder);
+        List<FieldDescriptor> fieldList = descriptor.getFields();
+        FieldInfo[] fields = new FieldInfo[fieldList.size()];
+        for (int i = 0; i < fields.length; i++) {
+            FieldDescriptor field = fieldList.get(i);
+            if (field.isRequired() || field.isMapField() || field.getType() == FieldDescriptor.Type.GROUP) {
+                return null;
+            }
+            JsonTranscoder message = null;
+            if (field.getType() == FieldDescriptor.Type.MESSAGE) {
+                message = compile(field.getMessageType(), compiled);
+                if (message == null) {
+                    return null;
+                }
+            }
+            if (field.getType() == FieldDescriptor.Type.ENUM && field.getEnumType().getFullName().startsWith("google.protobuf.")) {
+                return null;
+            }
+            fields[i] = new FieldInfo(field, message);
+        }
+        Arrays.sort(fields, (a, b) -> Integer.compare(a.number, b.number));
+        transcoder.fields = fields;
+        transcoder.numbers = new int[fields.length];
+        int maxNumber = 0;
+        for (int i = 0; i < fields.length; i++) {
+            transcoder.numbers[i] = fields[i].number;
+            maxNumber = Math.max(maxNumber, fields[i].number);
+        }
+        if (maxNumber <= fields.length * 4 + 64) {
+            transcoder.numberTable = new int[maxNumber + 1];
+            Arrays.fill(transcoder.numberTable, -1);
+            for (int i = 0; i < fields.length; i++) {
+                transcoder.numberTable[fields[i].number] = i;
+            }
+        }
+        int size = Integer.highestOneBit(Math.max(fields.length, 1) * 4 - 1) << 1;
+        transcoder.nameKeys = new String[size];
+        transcoder.nameValues = new int[size];
+        for (int i = 0; i < fields.length; i++) {
+            transcoder.putName(fields[i].field.getName(), i);
+            transcoder.putName(fields[i].field.getJsonName(), i);
+        }
+        return transcoder;
+    }
+
+    private void putName(String name, int index) {
+        int mask = nameKeys.length - 1;
+        for (int slot = name.hashCode() & mask; ; slot = (slot + 1) & mask) {
+            if (nameKeys[slot] == null || nameKeys[slot].equals(name)) {
+                nameKeys[slot] = name;
+                nameValues[slot] = index;
+                return;
+            }
+        }
+    }
+
+    // field of the name in json[start, end), hashed like String.hashCode so no String is created
+    private int findName(String json, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + json.charAt(i);
+        }
+        int mask = nameKeys.length - 1;
+        int length = end - start;
+        for (int slot = hash & mask; nameKeys[slot] != null; slot = (slot + 1) & mask) {
+            String key = nameKeys[slot];
+            if (key.length() == length && json.regionMatches(start, key, 0, length)) {
+                return nameValues[slot];
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(int number) {
+        if (numberTable != null) {
+            return number < numberTable.length ? numberTable[number] : -1;
+        }
+        int index = Arrays.binarySearch(numbers, number);
+        return index < 0 ? -1 : index;
+    }
+
+    // JSON -> wire, null when the JsonFormat path has to decide
+    byte[] toWire(String json) {
+        WireOut out = WIRE_SCRATCH.get();
+        out.pos = 0;
+        try {
+            JsonIn in = new JsonIn(json);
+            in.skipWhitespace();
+            writeMessage(in, out, 0);
+            in.skipWhitespace();
+            if (in.pos != json.length()) {
+                return null;
+            }
+            return Arrays.copyOf(out.buf, out.pos);
+        } catch (Fallback | IndexOutOfBoundsException e) {
+            return null;
+        } finally {
+            if (out.buf.length > MAX_RETAINED) {
+                WIRE_SCRATCH.remove();
+            }
+        }
+    }
+
+    // wire -> JSON, null when the JsonFormat path has to decide
+    String toJson(byte[] wire) {
+        JsonOut out = JSON_SCRATCH.get();
+        out.reset();
+        try {
+            printMessage(new WireIn(wire), 0, wire.length, out, 0);
+            return out.builder.toString();
+        } catch (Fallback | IndexOutOfBoundsException e) {
+            return null;
+        } finally {
+            if (out.builder.capacity() > MAX_RETAINED) {
+                JSON_SCRATCH.remove();
+            }
+        }
+    }
+
+    private void writeMessage(JsonIn in, WireOut out, int depth) throws Fallback {
+        if (depth >= RECURSION_LIMIT || in.next() != '{') {
+            throw FALLBACK;
+        }
+        long seenMask = 0;
+        boolean[] seen = fields.length > 64 ? new boolean[fields.length] : null;
+        in.skipWhitespace();
+        if (in.peek() == '}') {
+            in.pos++;
+            return;
+        }
+        while (true) {
+            in.skipWhitespace();
+            if (in.next() != '"') {
+                throw FALLBACK;
+            }
+            int nameStart = in.pos;
+            int nameEnd = in.skipString();
+            in.skipWhitespace();
+            if (in.next() != ':') {
+                throw FALLBACK;
+            }
+            in.skipWhitespace();
+            int index = in.escaped ? -2 : findName(in.json, nameStart, nameEnd);
+            if (index == -2) {
+                throw FALLBACK;
+            }
+            if (index < 0) {
+                in.skipValue(depth);
+            } else {
+                // a field given twice (same key or proto name plus json name) is left to JsonFormat
+                if (seen == null) {
+                    if ((seenMask & (1L << index)) != 0) {
+                        throw FALLBACK;
+                    }
+                    seenMask |= 1L << index;
+                } else {
+                    if (seen[index]) {
+                        throw FALLBACK;
+                    }
+                    seen[index] = true;
+                }
+                if (!in.skipNull()) {
+                    writeField(fields[index], in, out, depth);
+                }
+            }
+            in.skipWhitespace();
+            char c = in.next();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw FALLBACK;
+            }
+        }
+    }
+
+    private void writeField(FieldInfo field, JsonIn in, WireOut out, int depth) throws Fallback {
+        if (!field.repeated) {
+            int start = out.pos;
+            writeValue(field, in, out, depth, true);
+            // a proto3 scalar set to its default is not written, the same as DynamicMessage
+            if (field.implicitDefault && out.isZero(start + field.tagSize)) {
+                out.pos = start;
+            }
+            return;
+        }
+        if (in.next() != '[') {
+            throw FALLBACK;
+        }
+        int start = out.pos;
+        int contentStart = 0;
+        if (field.packed) {
+            out.writeTag(field.number, WIRETYPE_LENGTH_DELIMITED);
+            contentStart = out.pos;
+        }
+        in.skipWhitespace();
+        if (in.peek() == ']') {
+            in.pos++;
+        } else {
+            while (true) {
+                in.skipWhitespace();
+                if (in.skipNull()) {
+                    throw FALLBACK;
+                }
+                writeValue(field, in, out, depth, !field.packed);
+                in.skipWhitespace();
+                char c = in.next();
+                if (c == ']') {
+                    break;
+                }
+                if (c != ',') {
+                    throw FALLBACK;
+                }
+            }
+        }
+        if (field.packed) {
+            if (out.pos == contentStart) {
+                out.pos = start;
+            } else {
+                out.insertLength(contentStart);
+            }
+        }
+    }
+
+    private void writeValue(FieldInfo field, JsonIn in, WireOut out, int depth, boolean tagged) throws Fallback {
+        FieldDescriptor.Type type = field.type;
+        if (type == FieldDescriptor.Type.MESSAGE) {
+            out.writeTag(field.number, WIRETYPE_LENGTH_DELIMITED);
+            int contentStart = out.pos;
+            field.message.writeMessage(in, out, depth + 1);
+            out.insertLength(contentStart);
+            return;
+        }
+        if (type == FieldDescriptor.Type.STRING) {
+            out.writeTag(field.number, WIRETYPE_LENGTH_DELIMITED);
+            int contentStart = out.pos;
+            in.writeScalarText(out);
+            out.insertLength(contentStart);
+            return;
+        }
+        in.readScalar();
+        if (type == FieldDescriptor.Type.ENUM) {
+            int number = in.enumNumber(field);
+            if (number == Integer.MIN_VALUE) {
+                // unknown enum values are ignored like unknown fields
+                return;
+            }
+            if (tagged) {
+                out.writeTag(field.number, WIRETYPE_VARINT);
+            }
+            out.writeVarint(number);
+            return;
+        }
+        if (tagged) {
+            out.writeTag(field.number, field.wireType);
+        }
+        switch (type) {
+            case INT32:
+                out.writeVarint(in.int32());
+                break;
+            case SINT32:
+                int sint32 = in.int32();
+                out.writeVarint(((sint32 << 1) ^ (sint32 >> 31)) & 0xFFFFFFFFL);
+                break;
+            case SFIXED32:
+                out.writeFixed32(in.int32());
+                break;
+            case INT64:
+                out.writeVarint(in.int64());
+                break;
+            case SINT64:
+                long sint64 = in.int64();
+                out.writeVarint((sint64 << 1) ^ (sint64 >> 63));
+                break;
+            case SFIXED64:
+                out.writeFixed64(in.int64());
+                break;
+            case UINT32:
+                out.writeVarint(in.uint32() & 0xFFFFFFFFL);
+                break;
+            case FIXED32:
+                out.writeFixed32(in.uint32());
+                break;
+            case UINT64:
+                out.writeVarint(in.uint64());
+                break;
+            case FIXED64:
+                out.writeFixed64(in.uint64());
+                break;
+            case BOOL:
+                out.writeVarint(in.bool() ? 1 : 0);
+                break;
+            case FLOAT:
+                out.writeFixed32(Float.floatToRawIntBits(in.float32()));
+                break;
+            case DOUBLE:
+                out.writeFixed64(Double.doubleToRawLongBits(in.float64()));
+                break;
+            case BYTES:
+                byte[] bytes = in.bytes();
+                out.writeVarint(bytes.length);
+                out.write(bytes, 0, bytes.length);
+                break;
+            default:
+                throw FALLBACK;
+        }
+    }
+
+    private void printMessage(WireIn in, int start, int end, JsonOut out, int depth) throws Fallback {
+        if (depth >= RECURSION_LIMIT) {
+            throw FALLBACK;
+        }
+        // value position + 1 of the last occurrence of singular fields, 1 marks repeated fields that occur
+        int[] present = new int[fields.length];
+        in.pos = start;
+        while (in.pos < end) {
+            int tag = in.readVarint32(end);
+            int number = tag >>> 3;
+            int wireType = tag & 7;
+            if (number == 0) {
+                throw FALLBACK;
+            }
+            int valueStart = in.pos;
+            in.skipValue(wireType, number, end);
+            int index = indexOf(number);
+            if (index < 0) {
+                continue;
+            }
+            FieldInfo field = fields[index];
+            if (field.repeated) {
+                if (field.accepts(wireType)) {
+                    present[index] = 1;
+                }
+            } else if (wireType != field.wireType) {
+                if (field.accepts(wireType)) {
+                    // packed data of a singular field is rejected by DynamicMessage
+                    throw FALLBACK;
+                }
+            } else {
+                if (field.type == FieldDescriptor.Type.MESSAGE && present[index] != 0) {
+                    // repeated occurrences of a message field merge, left to DynamicMessage
+                    throw FALLBACK;
+                }
+                if (field.utf8Check && present[index] != 0) {
+                    // proto3 rejects invalid UTF-8 in every occurrence, the last one is checked when printed
+                    int saved = in.pos;
+                    in.pos = present[index] - 1;
+                    int length = in.readVarint32(end);
+                    appendUtf8(null, in.buf, in.pos, in.pos + length);
+                    in.pos = saved;
+                }
+                if (field.closedEnum && field.enumName(in.varintAt(valueStart, end)) == null) {
+                    // unknown value of a closed enum is an unknown field
+                    continue;
+                }
+                present[index] = valueStart + 1;
+            }
+        }
+        out.write("{");
+        out.newLine();
+        out.indent++;
+        boolean printed = false;
+        for (int i = 0; i < fields.length; i++) {
+            FieldInfo field = fields[i];
+            if (!field.repeated && present[i] == 0 && field.type == FieldDescriptor.Type.MESSAGE) {
+                continue;
+            }
+            if (printed) {
+                out.write(",");
+                out.newLine();
+            }
+            printed = true;
+            out.write(field.key);
+            if (field.repeated) {
+                out.builder.append('[');
+                if (present[i] != 0) {
+                    printRepeated(field, in, start, end, out, depth);
+                }
+                out.builder.append(']');
+            } else if (present[i] != 0) {
+                in.pos = present[i] - 1;
+                printValue(field, in, end, out, depth);
+            } else {
+                out.builder.append(field.defaultJson);
+            }
+        }
+        if (printed) {
+            out.newLine();
+        }
+        out.indent--;
+        out.write("}");
+    }
+
+    private void printRepeated(FieldInfo field, WireIn in, int start, int end, JsonOut out, int depth) throws Fallback {
+        boolean printed = false;
+        int pos = start;
+        while (pos < end) {
+            in.pos = pos;
+            int tag = in.readVarint32(end);
+            int wireType = tag & 7;
+            int valueStart = in.pos;
+            in.skipValue(wireType, tag >>> 3, end);
+            pos = in.pos;
+            if (tag >>> 3 != field.number || !field.accepts(wireType)) {
+                continue;
+            }
+            if (wireType == field.wireType) {
+                in.pos = valueStart;
+                printed = printElement(field, in, pos, out, depth, printed);
+            } else {
+                // packed
+                in.pos = valueStart;
+                int length = in.readVarint32(end);
+                int packedEnd = in.pos + length;
+                while (in.pos < packedEnd) {
+                    printed = printElement(field, in, packedEnd, out, depth, printed);
+                }
+            }
+        }
+    }
+
+    // leaves in.pos after the element
+    private boolean printElement(FieldInfo field, WireIn in, int end, JsonOut out, int depth, boolean printed) throws Fallback {
+        if (field.closedEnum) {
+            int valueStart = in.pos;
+            if (field.enumName((int) in.readVarint64(end)) == null) {
+                return printed;
+            }
+            in.pos = valueStart;
+        }
+        if (printed) {
+            out.builder.append(", ");
+        }
+        printValue(field, in, end, out, depth);
+        return true;
+    }
+
+    // leaves in.pos after the value
+    private static void printValue(FieldInfo field, WireIn in, int end, JsonOut out, int depth) throws Fallback {
+        StringBuilder builder = out.builder;
+        switch (field.type) {
+            case INT32:
+            case ENUM:
+                int int32 = (int) in.readVarint64(end);
+                if (field.type == FieldDescriptor.Type.INT32) {
+                    builder.append(int32);
+                } else {
+                    String name = field.enumName(int32);
+                    if (name == null) {
+                        builder.append(int32);
+                    } else {
+                        builder.append('"').append(name).append('"');
+                    }
+                }
+                break;
+            case SINT32:
+                int zigzag32 = (int) in.readVarint64(end);
+                builder.append((zigzag32 >>> 1) ^ -(zigzag32 & 1));
+                break;
+            case SFIXED32:
+                builder.append(in.readFixed32(end));
+                break;
+            case INT64:
+                builder.append('"').append(in.readVarint64(end)).append('"');
+                break;
+            case SINT64:
+                long zigzag64 = in.readVarint64(end);
+                builder.append('"').append((zigzag64 >>> 1) ^ -(zigzag64 & 1)).append('"');
+                break;
+            case SFIXED64:
+                builder.append('"').append(in.readFixed64(end)).append('"');
+                break;
+            case UINT32:
+                builder.append(in.readVarint64(end) & 0xFFFFFFFFL);
+                break;
+            case FIXED32:
+                builder.append(in.readFixed32(end) & 0xFFFFFFFFL);
+                break;
+            case UINT64:
+                appendUnsigned(builder, in.readVarint64(end));
+                break;
+            case FIXED64:
+                appendUnsigned(builder, in.readFixed64(end));
+                break;
+            case BOOL:
+                builder.append(in.readVarint64(end) != 0);
+                break;
+            case FLOAT:
+                appendFloat(builder, Float.intBitsToFloat(in.readFixed32(end)));
+                break;
+            case DOUBLE:
+                appendDouble(builder, Double.longBitsToDouble(in.readFixed64(end)));
+                break;
+            case STRING:
+                int stringLength = in.readVarint32(end);
+                in.checkLength(stringLength, end);
+                builder.append('"');
+                appendUtf8(builder, in.buf, in.pos, in.pos + stringLength);
+                builder.append('"');
+                in.pos += stringLength;
+                break;
+            case BYTES:
+                int bytesLength = in.readVarint32(end);
+                in.checkLength(bytesLength, end);
+                builder.append('"').append(BaseEncoding.base64().encode(in.buf, in.pos, bytesLength)).append('"');
+                in.pos += bytesLength;
+                break;
+            case MESSAGE:
+                int messageLength = in.readVarint32(end);
+                in.checkLength(messageLength, end);
+                int messageStart = in.pos;
+                field.message.printMessage(in, messageStart, messageStart + messageLength, out, depth + 1);
+                in.pos = messageStart + messageLength;
+                break;
+            default:
+                throw FALLBACK;
+        }
+    }
+
+    private static void appendUnsigned(StringBuilder builder, long value) {
+        builder.append('"');
+        if (value >= 0) {
+            builder.append(value);
+        } else {
+            builder.append(Long.toUnsignedString(value));
+        }
+        builder.append('"');
+    }
+
+    private static void appendFloat(StringBuilder builder, float value) {
+        if (Float.isNaN(value)) {
+            builder.append("\"NaN\"");
+        } else if (Float.isInfinite(value)) {
+            builder.append(value < 0 ? "\"-Infinity\"" : "\"Infinity\"");
+        } else {
+            builder.append(value);
+        }
+    }
+
+    private static void appendDouble(StringBuilder builder, double value) {
+        if (Double.isNaN(value)) {
+            builder.append("\"NaN\"");
+        } else if (Double.isInfinite(value)) {
+            builder.append(value < 0 ? "\"-Infinity\"" : "\"Infinity\"");
+        } else {
+            builder.append(value);
+        }
+    }
+
+    // quoted and escaped the way Gson does it by default (html safe)
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            appendChar(builder, value.charAt(i));
+        }
+        builder.append('"');
+    }
+
+    private static void appendChar(StringBuilder builder, char c) {
+        if (c < 128) {
+            String replacement = REPLACEMENT_CHARS[c];
+            if (replacement == null) {
+                builder.append(c);
+            } else {
+                builder.append(replacement);
+            }
+        } else if (c == '\u2028') {
+            builder.append("\\u2028");
+        } else if (c == '\u2029') {
+            builder.append("\\u2029");
+        } else {
+            builder.append(c);
+        }
+    }
+
+    // decode UTF-8 straight into the escaped JSON string, or only validate it when builder is null.
+    // malformed input is left to DynamicMessage
+    private static void appendUtf8(StringBuilder builder, byte[] buf, int start, int end) throws Fallback {
+        int i = start;
+        while (i < end) {
+            int b = buf[i++];
+            if (b >= 0) {
+                if (builder != null) {
+                    appendChar(builder, (char) b);
+                }
+                continue;
+            }
+            int codePoint;
+            if ((b & 0xE0) == 0xC0) {
+                codePoint = ((b & 0x1F) << 6) | continuation(buf, i++, end);
+                if (codePoint < 0x80) {
+                    throw FALLBACK;
+                }
+            } else if ((b & 0xF0) == 0xE0) {
+                codePoint = ((b & 0x0F) << 12) | (continuation(buf, i++, end) << 6) | continuation(buf, i++, end);
+                if (codePoint < 0x800 || Character.isSurrogate((char) codePoint)) {
+                    throw FALLBACK;
+                }
+            } else if ((b & 0xF8) == 0xF0) {
+                codePoint = ((b & 0x07) << 18) | (continuation(buf, i++, end) << 12)
+                        | (continuation(buf, i++, end) << 6) | continuation(buf, i++, end);
+                if (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) {
+                    throw FALLBACK;
+                }
+            } else {
+                throw FALLBACK;
+            }
+            if (builder == null) {
+                continue;
+            }
+            if (codePoint >= 0x10000) {
+                builder.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+            } else {
+                appendChar(builder, (char) codePoint);
+            }
+        }
+    }
+
+    private static int continuation(byte[] buf, int i, int end) throws Fallback {
+        if (i >= end || (buf[i] & 0xC0) != 0x80) {
+            throw FALLBACK;
+        }
+        return buf[i] & 0x3F;
+    }
+
+    private static String[] replacementChars() {
+        String[] chars = new String[128];
+        for (int i = 0; i <= 0x1f; i++) {
+            chars[i] = String.format("\\u%04x", i);
+        }
+        chars['"'] = "\\\"";
+        chars['\\'] = "\\\\";
+        chars['\t'] = "\\t";
+        chars['\b'] = "\\b";
+        chars['\n'] = "\\n";
+        chars['\r'] = "\\r";
+        chars['\f'] = "\\f";
+        chars['<'] = "\\u003c";
+        chars['>'] = "\\u003e";
+        chars['&'] = "\\u0026";
+        chars['='] = "\\u003d";
+        chars['\''] = "\\u0027";
+        return chars;
+    }
+
+    // signals the JsonFormat path, shared and without stack trace as it is control flow
+    private static final class Fallback extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Fallback() {
+            super(null, null, false, false);
+        }
+    }
+
+    // compiled field of the message
+    private static final class FieldInfo {
+        private final FieldDescriptor field;
+        private final FieldDescriptor.Type type;
+        private final int number;
+        private final boolean repeated;
+        private final boolean packed;
+        private final int wireType;
+        // "jsonName": printed before the value
+        private final String key;
+        private final JsonTranscoder message;
+        // unknown numbers of a proto2 enum are unknown fields, proto3 prints them as numbers
+        private final boolean closedEnum;
+        private final boolean utf8Check;
+        // proto3 scalar without presence, its default value is left out of the wire data
+        private final boolean implicitDefault;
+        private final int tagSize;
+        private final String defaultJson;
+
+        FieldInfo(FieldDescriptor field, JsonTranscoder message) {
+            this.field = field;
+            this.type = field.getType();
+            this.number = field.getNumber();
+            this.repeated = field.isRepeated();
+            this.packed = field.isPacked();
+            this.wireType = wireType(type);
+            this.key = "\"" + field.getJsonName() + "\": ";
+            this.message = message;
+            this.closedEnum = type == FieldDescriptor.Type.ENUM
+                    && field.getEnumType().getFile().getSyntax() != FileDescriptor.Syntax.PROTO3;
+            this.utf8Check = type == FieldDescriptor.Type.STRING && field.getFile().getSyntax() == FileDescriptor.Syntax.PROTO3;
+            this.implicitDefault = !repeated && type != FieldDescriptor.Type.MESSAGE
+                    && field.getFile().getSyntax() == FileDescriptor.Syntax.PROTO3;
+            this.tagSize = CodedOutputStream.computeTagSize(number);
+            this.defaultJson = repeated || type == FieldDescriptor.Type.MESSAGE ? null : defaultJson(field);
+        }
+
+        boolean accepts(int wireType) {
+            return wireType == this.wireType || (wireType == WIRETYPE_LENGTH_DELIMITED && field.isPackable());
+        }
+
+        String enumName(int number) {
+            EnumValueDescriptor value = field.getEnumType().findValueByNumber(number);
+            return value == null ? null : value.getName();
+        }
+
+        private static int wireType(FieldDescriptor.Type type) {
+            switch (type) {
+                case FIXED64:
+                case SFIXED64:
+                case DOUBLE:
+                    return WIRETYPE_FIXED64;
+                case FIXED32:
+                case SFIXED32:
+                case FLOAT:
+                    return WIRETYPE_FIXED32;
+                case STRING:
+                case BYTES:
+                case MESSAGE:
+                    return WIRETYPE_LENGTH_DELIMITED;
+                default:
+                    return WIRETYPE_VARINT;
+            }
+        }
+
+        private static String defaultJson(FieldDescriptor field) {
+            Object value = field.getDefaultValue();
+            StringBuilder builder = new StringBuilder();
+            switch (field.getType()) {
+                case INT32:
+                case SINT32:
+                case SFIXED32:
+                case BOOL:
+                    builder.append(value);
+                    break;
+                case INT64:
+                case SINT64:
+                case SFIXED64:
+                    builder.append('"').append(value).append('"');
+                    break;
+                case UINT32:
+                case FIXED32:
+                    builder.append((Integer) value & 0xFFFFFFFFL);
+                    break;
+                case UINT64:
+                case FIXED64:
+                    appendUnsigned(builder, (Long) value);
+                    break;
+                case FLOAT:
+                    appendFloat(builder, (Float) value);
+                    break;
+                case DOUBLE:
+                    appendDouble(builder, (Double) value);
+                    break;
+                case STRING:
+                    appendString(builder, (String) value);
+                    break;
+                case BYTES:
+                    builder.append('"').append(BaseEncoding.base64().encode(((ByteString) value).toByteArray())).append('"');
+                    break;
+                case ENUM:
+                    builder.append('"').append(((EnumValueDescriptor) value).getName()).append('"');
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("field[ %s ] has no scalar default", field.getFullName()));
+            }
+            return builder.toString();
+        }
+    }
+
+    // strict JSON reader over the request string, scalar tokens are kept as [start, end) of the input
+    private static final class JsonIn {
+        private final String json;
+        private int pos;
+        // last string token has escapes
+        private boolean escaped;
+        // last scalar token: kind is '"' for strings, 'n' for numbers, 't'/'f' for booleans
+        private char kind;
+        private int start;
+        private int end;
+
+        JsonIn(String json) {
+            this.json = json;
+        }
+
+        char peek() throws Fallback {
+            if (pos >= json.length()) {
+                throw FALLBACK;
+            }
+            return json.charAt(pos);
+        }
+
+        char next() throws Fallback {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        void skipWhitespace() {
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        // pos is after the opening quote, returns the end of the content and moves after the closing quote
+        int skipString() throws Fallback {
+            escaped = false;
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return pos - 1;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                    checkEscape();
+                } else if (c < 0x20) {
+                    throw FALLBACK;
+                }
+            }
+        }
+
+        // only the escapes of the JSON grammar
+        private void checkEscape() throws Fallback {
+            char c = next();
+            if (c == 'u') {
+                for (int i = 0; i < 4; i++) {
+                    if (hexDigit(next()) < 0) {
+                        throw FALLBACK;
+                    }
+                }
+            } else if ("\"\\/bfnrt".indexOf(c) < 0) {
+                throw FALLBACK;
+            }
+        }
+
+        boolean skipNull() throws Fallback {
+            if (json.startsWith("null", pos)) {
+                pos += 4;
+                checkDelimiter();
+                return true;
+            }
+            return false;
+        }
+
+        private void checkDelimiter() throws Fallback {
+            if (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    throw FALLBACK;
+                }
+            }
+        }
+
+        void skipValue(int depth) throws Fallback {
+            if (depth >= RECURSION_LIMIT) {
+                throw FALLBACK;
+            }
+            char c = peek();
+            if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                pos++;
+                skipWhitespace();
+                if (peek() == close) {
+                    pos++;
+                    return;
+                }
+                while (true) {
+                    skipWhitespace();
+                    if (c == '{') {
+                        if (next() != '"') {
+                            throw FALLBACK;
+                        }
+                        skipString();
+                        skipWhitespace();
+                        if (next() != ':') {
+                            throw FALLBACK;
+                        }
+                        skipWhitespace();
+                    }
+                    skipValue(depth + 1);
+                    skipWhitespace();
+                    char separator = next();
+                    if (separator == close) {
+                        return;
+                    }
+                    if (separator != ',') {
+                        throw FALLBACK;
+                    }
+                }
+            }
+            if (!skipNull()) {
+                readScalar();
+            }
+        }
+
+        // reads a string, number or boolean token
+        void readScalar() throws Fallback {
+            char c = peek();
+            if (c == '"') {
+                pos++;
+                start = pos;
+                end = skipString();
+                kind = '"';
+            } else if (json.startsWith("true", pos) || json.startsWith("false", pos)) {
+                start = pos;
+                pos += c == 't' ? 4 : 5;
+                end = pos;
+                kind = c;
+                checkDelimiter();
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                start = pos;
+                end = scanNumber(pos);
+                if (end < 0) {
+                    throw FALLBACK;
+                }
+                pos = end;
+                kind = 'n';
+                checkDelimiter();
+            } else {
+                throw FALLBACK;
+            }
+        }
+
+        // end of the JSON number starting at i, -1 when the grammar does not match
+        private int scanNumber(int i) {
+            int length = json.length();
+            if (i < length && json.charAt(i) == '-') {
+                i++;
+            }
+            if (i >= length) {
+                return -1;
+            }
+            if (json.charAt(i) == '0') {
+                i++;
+            } else if (json.charAt(i) >= '1' && json.charAt(i) <= '9') {
+                while (i < length && isDigit(json.charAt(i))) {
+                    i++;
+                }
+            } else {
+                return -1;
+            }
+            if (i < length && json.charAt(i) == '.') {
+                i++;
+                int digits = i;
+                while (i < length && isDigit(json.charAt(i))) {
+                    i++;
+                }
+                if (i == digits) {
+                    return -1;
+                }
+            }
+            if (i < length && (json.charAt(i) == 'e' || json.charAt(i) == 'E')) {
+                i++;
+                if (i < length && (json.charAt(i) == '+' || json.charAt(i) == '-')) {
+                    i++;
+                }
+                int digits = i;
+                while (i < length && isDigit(json.charAt(i))) {
+                    i++;
+                }
+                if (i == digits) {
+                    return -1;
+                }
+            }
+            return i;
+        }
+
+        private static int hexDigit(char c) {
+            if (c >= '0' && c <= '9') {
+                return c - '0';
+            }
+            if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            }
+            if (c >= 'A' && c <= 'F') {
+                return c - 'A' + 10;
+            }
+            return -1;
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        // numeric text of the token: numbers, or strings holding a JSON number without escapes
+        private void checkNumeric() throws Fallback {
+            if (kind == 'n') {
+                return;
+            }
+            if (kind != '"' || escaped || start == end || scanNumber(start) != end) {
+                throw FALLBACK;
+            }
+        }
+
+        // plain integer of the token, values that need BigDecimal are left to JsonFormat
+        private long integer() throws Fallback {
+            checkNumeric();
+            int i = start;
+            boolean negative = json.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            // accumulated negative like Long.parseLong, so Long.MIN_VALUE fits
+            long value = 0;
+            for (; i < end; i++) {
+                char c = json.charAt(i);
+                if (!isDigit(c) || value < (Long.MIN_VALUE + (c - '0')) / 10) {
+                    throw FALLBACK;
+                }
+                value = value * 10 - (c - '0');
+            }
+            if (!negative && value == Long.MIN_VALUE) {
+                throw FALLBACK;
+            }
+            return negative ? value : -value;
+        }
+
+        int int32() throws Fallback {
+            long value = integer();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw FALLBACK;
+            }
+            return (int) value;
+        }
+
+        long int64() throws Fallback {
+            return integer();
+        }
+
+        int uint32() throws Fallback {
+            long value = integer();
+            if (value < 0 || value > 0xFFFFFFFFL) {
+                throw FALLBACK;
+            }
+            return (int) value;
+        }
+
+        long uint64() throws Fallback {
+            checkNumeric();
+            if (end - start > 18) {
+                if (json.charAt(start) == '-') {
+                    throw FALLBACK;
+                }
+                for (int i = start; i < end; i++) {
+                    if (!isDigit(json.charAt(i))) {
+                        throw FALLBACK;
+                    }
+                }
+                BigInteger value = new BigInteger(json.substring(start, end));
+                if (value.compareTo(MAX_UINT64) > 0) {
+                    throw FALLBACK;
+                }
+                return value.longValue();
+            }
+            long value = integer();
+            if (value < 0) {
+                throw FALLBACK;
+            }
+            return value;
+        }
+
+        boolean bool() throws Fallback {
+            if (kind == 't' || kind == 'f') {
+                return kind == 't';
+            }
+            if (kind == '"' && !escaped && json.regionMatches(start, "true", 0, 4) && end - start == 4) {
+                return true;
+            }
+            if (kind == '"' && !escaped && json.regionMatches(start, "false", 0, 5) && end - start == 5) {
+                return false;
+            }
+            throw FALLBACK;
+        }
+
+        float float32() throws Fallback {
+            float special = special();
+            if (special == special || kind == '"' && isNaN()) {
+                return special;
+            }
+            double value = decimal();
+            if (value > Float.MAX_VALUE * (1.0 + 1e-6) || value < -Float.MAX_VALUE * (1.0 + 1e-6)) {
+                throw FALLBACK;
+            }
+            return (float) value;
+        }
+
+        double float64() throws Fallback {
+            float special = special();
+            if (special == special || kind == '"' && isNaN()) {
+                return special;
+            }
+            double value = decimal();
+            // JsonFormat goes through BigDecimal: -0.0 loses its sign, values rounded down to MAX_VALUE are out of range
+            if (Double.isInfinite(value) || Math.abs(value) == Double.MAX_VALUE
+                    || (value == 0 && Double.doubleToRawLongBits(value) != 0)) {
+                throw FALLBACK;
+            }
+            return value;
+        }
+
+        private boolean isNaN() {
+            return !escaped && end - start == 3 && json.regionMatches(start, "NaN", 0, 3);
+        }
+
+        // NaN for no special value: "Infinity" and "-Infinity" strings
+        private float special() {
+            if (kind != '"' || escaped) {
+                return Float.NaN;
+            }
+            if (end - start == 8 && json.regionMatches(start, "Infinity", 0, 8)) {
+                return Float.POSITIVE_INFINITY;
+            }
+            if (end - start == 9 && json.regionMatches(start, "-Infinity", 0, 9)) {
+                return Float.NEGATIVE_INFINITY;
+            }
+            return Float.NaN;
+        }
+
+        private double decimal() throws Fallback {
+            checkNumeric();
+            return Double.parseDouble(json.substring(start, end));
+        }
+
+        byte[] bytes() throws Fallback {
+            if (kind != '"' || escaped) {
+                throw FALLBACK;
+            }
+            CharSequence chars = CharBuffer.wrap(json, start, end);
+            try {
+                return BaseEncoding.base64().decode(chars);
+            } catch (IllegalArgumentException e) {
+                try {
+                    return BaseEncoding.base64Url().decode(chars);
+                } catch (IllegalArgumentException urlException) {
+                    throw FALLBACK;
+                }
+            }
+        }
+
+        // enum number by name or number, Integer.MIN_VALUE for unknown values
+        int enumNumber(FieldInfo field) throws Fallback {
+            EnumDescriptor enumType = field.field.getEnumType();
+            if (kind == 't' || kind == 'f') {
+                throw FALLBACK;
+            }
+            if (kind == '"') {
+                if (escaped) {
+                    throw FALLBACK;
+                }
+                for (EnumValueDescriptor value : enumType.getValues()) {
+                    String name = value.getName();
+                    if (name.length() == end - start && json.regionMatches(start, name, 0, name.length())) {
+                        return value.getNumber();
+                    }
+                }
+            }
+            if (kind != 'n' && (kind != '"' || start == end || scanNumber(start) != end)) {
+                // neither a name nor a number
+                return Integer.MIN_VALUE;
+            }
+            int number = int32();
+            if (field.closedEnum && enumType.findValueByNumber(number) == null) {
+                return Integer.MIN_VALUE;
+            }
+            return number;
+        }
+
+        // string field: string tokens are unescaped, number and boolean tokens are taken as text
+        void writeScalarText(WireOut out) throws Fallback {
+            char c = peek();
+            if (c != '"') {
+                readScalar();
+                for (int i = start; i < end; i++) {
+                    out.writeByte(json.charAt(i));
+                }
+                return;
+            }
+            pos++;
+            int high = -1;
+            while (true) {
+                char ch = next();
+                if (ch == '"') {
+                    break;
+                }
+                if (ch == '\\') {
+                    ch = unescape();
+                } else if (ch < 0x20) {
+                    throw FALLBACK;
+                }
+                if (high >= 0) {
+                    if (Character.isLowSurrogate(ch)) {
+                        out.writeCodePoint(Character.toCodePoint((char) high, ch));
+                        high = -1;
+                        continue;
+                    }
+                    // unpaired surrogate is encoded as '?' like String.getBytes
+                    out.writeByte('?');
+                    high = -1;
+                }
+                if (Character.isHighSurrogate(ch)) {
+                    high = ch;
+                } else if (Character.isLowSurrogate(ch)) {
+                    out.writeByte('?');
+                } else {
+                    out.writeCodePoint(ch);
+                }
+            }
+            if (high >= 0) {
+                out.writeByte('?');
+            }
+        }
+
+        private char unescape() throws Fallback {
+            char c = next();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = hexDigit(next());
+                        if (digit < 0) {
+                            throw FALLBACK;
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    return (char) value;
+                default:
+                    throw FALLBACK;
+            }
+        }
+    }
+
+    // growable wire buffer, length-delimited content is written first and its length inserted in front
+    private static final class WireOut {
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, pos, length);
+            pos += length;
+        }
+
+        // every byte from the position on is 0: a zero varint, an empty string or a zero fixed value
+        boolean isZero(int from) {
+            for (int i = from; i < pos; i++) {
+                if (buf[i] != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void writeTag(int number, int wireType) {
+            writeVarint(((number << 3) | wireType) & 0xFFFFFFFFL);
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeFixed32(int value) {
+            ensure(4);
+            for (int i = 0; i < 4; i++) {
+                buf[pos++] = (byte) (value >> (i * 8));
+            }
+        }
+
+        void writeFixed64(long value) {
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                buf[pos++] = (byte) (value >> (i * 8));
+            }
+        }
+
+        void writeCodePoint(int codePoint) {
+            ensure(4);
+            if (codePoint < 0x80) {
+                buf[pos++] = (byte) codePoint;
+            } else if (codePoint < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (codePoint >> 6));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (codePoint < 0x10000) {
+                buf[pos++] = (byte) (0xE0 | (codePoint >> 12));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+        }
+
+        // shift [start, pos) right and write its length as varint at start
+        void insertLength(int start) {
+            int length = pos - start;
+            int size = 1;
+            for (int value = length >>> 7; value != 0; value >>>= 7) {
+                size++;
+            }
+            ensure(size);
+            System.arraycopy(buf, start, buf, start + size, length);
+            int end = pos + size;
+            pos = start;
+            writeVarint(length);
+            pos = end;
+        }
+    }
+
+    // wire reader over the reply bytes
+    private static final class WireIn {
+        private final byte[] buf;
+        private int pos;
+
+        WireIn(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readVarint32(int end) throws Fallback {
+            long value = readVarint64(end);
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw FALLBACK;
+            }
+            return (int) value;
+        }
+
+        long readVarint64(int end) throws Fallback {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    throw FALLBACK;
+                }
+                byte b = buf[pos++];
+                if (shift == 63 && b != 1) {
+                    // non canonical last byte, CodedInputStream decodes it differently depending on buffering
+                    throw FALLBACK;
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw FALLBACK;
+        }
+
+        int varintAt(int at, int end) throws Fallback {
+            int saved = pos;
+            pos = at;
+            int value = (int) readVarint64(end);
+            pos = saved;
+            return value;
+        }
+
+        int readFixed32(int end) throws Fallback {
+            checkLength(4, end);
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value |= (buf[pos++] & 0xFF) << (i * 8);
+            }
+            return value;
+        }
+
+        long readFixed64(int end) throws Fallback {
+            checkLength(8, end);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (buf[pos++] & 0xFFL) << (i * 8);
+            }
+            return value;
+        }
+
+        void checkLength(int length, int end) throws Fallback {
+            if (length < 0 || end - pos < length) {
+                throw FALLBACK;
+            }
+        }
+
+        void skipValue(int wireType, int number, int end) throws Fallback {
+            switch (wireType) {
+                case WIRETYPE_VARINT:
+                    readVarint64(end);
+                    break;
+                case WIRETYPE_FIXED64:
+                    checkLength(8, end);
+                    pos += 8;
+                    break;
+                case WIRETYPE_LENGTH_DELIMITED:
+                    int length = readVarint32(end);
+                    checkLength(length, end);
+                    pos += length;
+                    break;
+                case WIRETYPE_FIXED32:
+                    checkLength(4, end);
+                    pos += 4;
+                    break;
+                case WIRETYPE_START_GROUP:
+                    while (true) {
+                        int tag = readVarint32(end);
+                        if ((tag & 7) == WIRETYPE_END_GROUP) {
+                            if (tag >>> 3 != number) {
+                                throw FALLBACK;
+                            }
+                            return;
+                        }
+                        skipValue(tag & 7, tag >>> 3, end);
+                    }
+                default:
+                    throw FALLBACK;
+            }
+        }
+    }
+
+    // pretty printer laid out like JsonFormat: two spaces per level, indent written at the start of a line
+    private static final class JsonOut {
+        private final StringBuilder builder = new StringBuilder(256);
+        private int indent;
+        private boolean atStartOfLine;
+
+        void reset() {
+            builder.setLength(0);
+            indent = 0;
+            atStartOfLine = true;
+        }
+
+        void write(String text) {
+            if (atStartOfLine) {
+                atStartOfLine = false;
+                for (int i = 0; i < indent; i++) {
+                    builder.append("  ");
+                }
+            }
+            builder.append(text);
+        }
+
+        void newLine() {
+            builder.append('\n');
+            atStartOfLine = true;
+        }
+    }
+}
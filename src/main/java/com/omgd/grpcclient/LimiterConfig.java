@@ -0,0 +1,126 @@
+package com.omgd.grpcclient;
+
+/**
+ * <p>
+ * adaptive concurrency limit of the unary calls of a client, set with {@link ClientConfig.Builder#limiter(LimiterConfig)}
+ * </p>
+ * <p>
+ * the limit moves between minLimit and maxLimit from observed latency and timeouts; calls over it get
+ * {@link Code#REJECTED} at once, or wait in a bounded queue when maxQueue is set. minLimit = maxLimit makes it a
+ * fixed bulkhead
+ * </p>
+ */
+public class LimiterConfig {
+    // how the limit follows latency
+    private Algorithm algorithm;
+    private int initialLimit;
+    private int minLimit;
+    private int maxLimit;
+    // blocking calls waiting for a slot at most, 0 rejects right away
+    private int maxQueue;
+    // one limit per api instead of one for the whole client
+    private boolean perApi;
+
+    private LimiterConfig() {
+
+    }
+
+    public void validate() {
+        if (algorithm == null ||
+                minLimit < 1 ||
+                initialLimit < minLimit ||
+                maxLimit < initialLimit ||
+                maxQueue < 0) {
+            throw new IllegalArgumentException("LimiterConfig is Illegal");
+        }
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    public boolean isPerApi() {
+        return perApi;
+    }
+
+    /**
+     * limit algorithms, a timeout always counts as a drop
+     */
+    public enum Algorithm {
+        // additive increase while the limit is in use, multiplicative decrease on drops
+        AIMD,
+        // scaled by long term rtt / current rtt, shrinks as soon as latency grows
+        GRADIENT
+    }
+
+    // inner class for builder feature
+    public static class Builder {
+        private Algorithm algorithm = Algorithm.GRADIENT;
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 1000;
+        private int maxQueue;
+        private boolean perApi;
+
+        public Builder algorithm(Algorithm algorithm) {
+            this.algorithm = algorithm;
+            return this;
+        }
+
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public Builder maxQueue(int maxQueue) {
+            this.maxQueue = maxQueue;
+            return this;
+        }
+
+        public Builder perApi(boolean perApi) {
+            this.perApi = perApi;
+            return this;
+        }
+
+        public LimiterConfig build() {
+            LimiterConfig config = new LimiterConfig();
+            config.algorithm = algorithm;
+            config.initialLimit = initialLimit;
+            config.minLimit = minLimit;
+            config.maxLimit = maxLimit;
+            config.maxQueue = maxQueue;
+            config.perApi = perApi;
+            return config;
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package com.omgd.grpcclient;
 
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+
 /**
  * <p>
  * grpc response
  * </p>
+ * <p>
+ * a reply keeps the bytes or message it came in: it is decoded and rendered on the first access of the body and
+ * the result is kept, {@link #getField(String)} reads single fields without rendering the body. a reply that can not
+ * be decoded throws IllegalStateException from the accessor
+ * </p>
  *
  * @author dengzhicheng
  * @since 2020-04-23
@@ -12,13 +20,39 @@ public class Response {
 
     private Code code;
     private String msg;
-    private String bodyJson;
+    private volatile String bodyJson;
+    private volatile DynamicMessage bodyMessage;
+    private volatile byte[] bodyBytes;
+    // byte[] or DynamicMessage of an OK reply with the plan of its api and the format the call asked for, only that
+    // format's accessor returns the body; null for a response built with its body
+    private Object reply;
+    private BodyFormat bodyFormat;
+    private CallPlan plan;
 
     public Response(Code code, String msg, String bodyJson) {
+        this(code, msg, bodyJson, null, null);
+    }
+
+    public Response(Code code, String msg, String bodyJson, DynamicMessage bodyMessage, byte[] bodyBytes) {
         super();
         this.code = code;
         this.msg = msg;
         this.bodyJson = bodyJson;
+        this.bodyMessage = bodyMessage;
+        this.bodyBytes = bodyBytes;
+    }
+
+    // OK reply, decoded when the body is read
+    Response(CallPlan plan, Object reply, BodyFormat bodyFormat) {
+        this.code = Code.OK;
+        this.plan = plan;
+        this.reply = reply;
+        this.bodyFormat = bodyFormat;
+        if (reply instanceof DynamicMessage) {
+            this.bodyMessage = (DynamicMessage) reply;
+        } else if (bodyFormat == BodyFormat.BYTES) {
+            this.bodyBytes = (byte[]) reply;
+        }
     }
 
     public Code getCode() {
@@ -30,12 +64,124 @@ public class Response {
     }
 
     public String getBodyJson() {
-        return bodyJson;
+        if (reply == null) {
+            return bodyJson;
+        }
+        if (bodyFormat != BodyFormat.JSON) {
+            return null;
+        }
+        String json = bodyJson;
+        if (json == null) {
+            // threads racing here render the same string
+            bodyJson = json = render();
+        }
+        return json;
+    }
+
+    // set only when the call asked for BodyFormat.MESSAGE
+    public DynamicMessage getBodyMessage() {
+        if (reply == null) {
+            return bodyMessage;
+        }
+        return bodyFormat == BodyFormat.MESSAGE ? message() : null;
+    }
+
+    // set only when the call asked for BodyFormat.BYTES
+    public byte[] getBodyBytes() {
+        if (reply == null) {
+            return bodyBytes;
+        }
+        if (bodyFormat != BodyFormat.BYTES) {
+            return null;
+        }
+        byte[] bytes = bodyBytes;
+        if (bytes == null) {
+            bodyBytes = bytes = ((DynamicMessage) reply).toByteArray();
+        }
+        return bytes;
+    }
+
+    /**
+     * value of a dotted field path of the reply, e.g. "info.id", whatever the body format; typed like
+     * {@link DynamicMessage#getField}: default value when unset, a List for repeated fields. null when the response
+     * has no reply message (failed call, or built with a JSON or bytes body); IllegalArgumentException when the reply
+     * type has no such path
+     */
+    public Object getField(String path) {
+        DynamicMessage message = bodyMessage;
+        if (plan == null) {
+            return message == null ? null : FieldPath.compile(message.getDescriptorForType(), path).get(message);
+        }
+        FieldPath fieldPath = plan.getReplyPath(path);
+        if (message == null && fieldPath.isWireReadable()) {
+            try {
+                return fieldPath.read((byte[]) reply);
+            } catch (InvalidProtocolBufferException e) {
+                throw undecodable(e);
+            }
+        }
+        return fieldPath.get(message());
+    }
+
+    // the decoded reply, parsed once
+    private DynamicMessage message() {
+        DynamicMessage message = bodyMessage;
+        if (message == null && reply != null) {
+            try {
+                bodyMessage = message = DynamicMessage.parseFrom(plan.getReplyDescriptor(), (byte[]) reply);
+            } catch (InvalidProtocolBufferException e) {
+                throw undecodable(e);
+            }
+        }
+        return message;
+    }
+
+    // bytes are transcoded straight to JSON when the plan can, otherwise the decoded message is printed
+    private String render() {
+        if (bodyMessage == null && plan.getReplyTranscoder() != null) {
+            String json = plan.getReplyTranscoder().toJson((byte[]) reply);
+            if (json != null) {
+                return json;
+            }
+        }
+        DynamicMessage message = message();
+        try {
+            return plan.getPrinter().print(message);
+        } catch (InvalidProtocolBufferException e) {
+            throw undecodable(e);
+        }
+    }
+
+    private IllegalStateException undecodable(InvalidProtocolBufferException e) {
+        return new IllegalStateException(String.format("reply of api[ %s ] can not be decoded", plan.getApi()), e);
+    }
+
+    // same response with its own copy of the body bytes, the reply stays shared
+    Response copyBytes() {
+        byte[] bytes = getBodyBytes();
+        if (bytes == null) {
+            return this;
+        }
+        if (plan == null) {
+            return new Response(code, msg, bodyJson, bodyMessage, bytes.clone());
+        }
+        return new Response(plan, bytes.clone(), BodyFormat.BYTES);
     }
 
+    // says what the body holds without decoding or rendering it, a reply that can not be decoded does not throw here
     @Override
     public String toString() {
-        return new StringBuilder().append("code=").append(code).append("|msg=").append(msg).append("|bodyJson=").append(bodyJson).toString();
+        StringBuilder builder = new StringBuilder().append("code=").append(code).append("|msg=").append(msg);
+        if (reply != null) {
+            builder.append("|body=").append(bodyFormat).append(' ').append(CallTimer.size(reply)).append(" bytes");
+        } else if (bodyJson != null) {
+            builder.append("|bodyJson=").append(bodyJson.length()).append(" chars");
+        } else if (bodyMessage != null) {
+            builder.append("|bodyMessage=").append(bodyMessage.getSerializedSize()).append(" bytes");
+        } else if (bodyBytes != null) {
+            builder.append("|bodyBytes=").append(bodyBytes.length).append(" bytes");
+        }
+        return builder.toString();
     }
 
 }
@@ -0,0 +1,108 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * <p>
+ * OK replies of one unary api by serialized request, configured by {@link CacheConfig}
+ * </p>
+ * <p>
+ * read hit and miss counts with {@link ClientRegistry#getCache(String, String)}
+ * </p>
+ */
+public final class ResponseCache {
+    private final Cache<ByteString, Entry> cache;
+
+    ResponseCache(CacheConfig config) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.getTtl(), TimeUnit.MILLISECONDS)
+                .recordStats();
+        this.cache = config.getMaxBytes() > 0
+                ? builder.maximumWeight(config.getMaxBytes()).weigher((ByteString key, Entry entry) -> key.size() + entry.size).build()
+                : builder.maximumSize(config.getMaxEntries()).build();
+    }
+
+    // the request as it goes on the wire, equal requests give equal keys; bytes the caller passed in are copied, the
+    // ones serialized for the call are wrapped
+    static ByteString key(byte[] wire, boolean callerOwned) {
+        return callerOwned ? ByteString.copyFrom(wire) : UnsafeByteOperations.unsafeWrap(wire);
+    }
+
+    // null on a miss
+    Response get(ByteString key, CallPlan plan, BodyFormat bodyFormat) {
+        Entry entry = cache.getIfPresent(key);
+        return entry == null ? null : entry.response(plan, bodyFormat);
+    }
+
+    // reply is byte[] or DynamicMessage as the call returned it
+    void put(ByteString key, Object reply) {
+        cache.put(key, new Entry(reply));
+    }
+
+    public long getHits() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMisses() {
+        return cache.stats().missCount();
+    }
+
+    public long getEvictions() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return new StringBuilder().append("size=").append(size()).append(" hits=").append(stats.hitCount())
+                .append(" misses=").append(stats.missCount()).append(" evictions=").append(stats.evictionCount()).toString();
+    }
+
+    // JSON and message responses are shared by the hits, so the first one that reads the body decodes it for all
+    private static final class Entry {
+        private final Object reply;
+        private final int size;
+        private volatile Response json;
+        private volatile Response message;
+
+        Entry(Object reply) {
+            this.reply = reply;
+            this.size = reply instanceof byte[] ? ((byte[]) reply).length : ((DynamicMessage) reply).getSerializedSize();
+        }
+
+        Response response(CallPlan plan, BodyFormat bodyFormat) {
+            if (bodyFormat == BodyFormat.BYTES) {
+                // callers own the bytes they get, the cached ones stay untouched
+                Object copy = reply instanceof byte[] ? ((byte[]) reply).clone() : reply;
+                return Client.reply(plan, copy, bodyFormat);
+            }
+            if (bodyFormat == BodyFormat.MESSAGE) {
+                Response response = message;
+                if (response == null) {
+                    message = response = Client.reply(plan, reply, bodyFormat);
+                }
+                return response;
+            }
+            Response response = json;
+            if (response == null) {
+                json = response = Client.reply(plan, reply, bodyFormat);
+            }
+            return response;
+        }
+    }
+}
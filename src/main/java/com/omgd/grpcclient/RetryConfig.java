@@ -0,0 +1,183 @@
+package com.omgd.grpcclient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.grpc.Status;
+
+/**
+ * <p>
+ * hedging and retries of idempotent unary apis, set with {@link ClientConfig.Builder#retry(RetryConfig)}
+ * </p>
+ * <p>
+ * every attempt of a call shares its deadline. a hedge goes to another pooled channel once the call is slower than
+ * hedgePercentile of the recent latency of the api, the first reply wins and the other attempts are cancelled. failed
+ * attempts with a retryable status are retried on another channel after a random backoff below initialBackoff times
+ * backoffMultiplier to the power of the retries before, at most maxBackoff; a retry whose backoff would pass the
+ * deadline is not sent. hedges and retries spend one token of a budget
+ * per client that earns budgetRatio tokens per successful call and holds at most maxTokens
+ * </p>
+ */
+public class RetryConfig {
+    // apis the policy applies to, they must be idempotent
+    private Set<String> apis;
+    // attempts of a call at most, the first one included
+    private int maxAttempts;
+    private Set<Status.Code> retryableCodes;
+    // latency percentile that triggers a hedge, 0 means no hedging
+    private double hedgePercentile;
+    // hedges never go out sooner, milliseconds
+    private int minHedgeDelay;
+    private double budgetRatio;
+    private int maxTokens;
+    // milliseconds, the backoff of the first retry is random below initialBackoff
+    private int initialBackoff;
+    private int maxBackoff;
+    private double backoffMultiplier;
+
+    private RetryConfig() {
+
+    }
+
+    public void validate() {
+        if (apis == null || apis.isEmpty() ||
+                maxAttempts < 1 ||
+                retryableCodes == null ||
+                hedgePercentile < 0 || hedgePercentile >= 100 ||
+                minHedgeDelay < 0 ||
+                budgetRatio < 0 ||
+                maxTokens < 1 ||
+                initialBackoff < 0 ||
+                maxBackoff < initialBackoff ||
+                backoffMultiplier < 1) {
+            throw new IllegalArgumentException("RetryConfig is Illegal");
+        }
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public Set<String> getApis() {
+        return apis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Set<Status.Code> getRetryableCodes() {
+        return retryableCodes;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public int getMinHedgeDelay() {
+        return minHedgeDelay;
+    }
+
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public int getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public int getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    // inner class for builder feature
+    public static class Builder {
+        private Set<String> apis = new HashSet<>();
+        private int maxAttempts = 3;
+        private EnumSet<Status.Code> retryableCodes = EnumSet.of(Status.Code.UNAVAILABLE);
+        private double hedgePercentile;
+        private int minHedgeDelay = 5;
+        private double budgetRatio = 0.1;
+        private int maxTokens = 10;
+        private int initialBackoff = 20;
+        private int maxBackoff = 1000;
+        private double backoffMultiplier = 2;
+
+        public Builder apis(String... apis) {
+            this.apis.addAll(Arrays.asList(apis));
+            return this;
+        }
+
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder retryableCodes(Status.Code... retryableCodes) {
+            this.retryableCodes = EnumSet.noneOf(Status.Code.class);
+            this.retryableCodes.addAll(Arrays.asList(retryableCodes));
+            return this;
+        }
+
+        public Builder hedgePercentile(double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public Builder minHedgeDelay(int minHedgeDelay) {
+            this.minHedgeDelay = minHedgeDelay;
+            return this;
+        }
+
+        public Builder budgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+            return this;
+        }
+
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder initialBackoff(int initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        public Builder maxBackoff(int maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder backoffMultiplier(double backoffMultiplier) {
+            this.backoffMultiplier = backoffMultiplier;
+            return this;
+        }
+
+        public RetryConfig build() {
+            RetryConfig config = new RetryConfig();
+            config.apis = Collections.unmodifiableSet(new HashSet<>(apis));
+            config.maxAttempts = maxAttempts;
+            config.retryableCodes = Collections.unmodifiableSet(EnumSet.copyOf(retryableCodes));
+            config.hedgePercentile = hedgePercentile;
+            config.minHedgeDelay = minHedgeDelay;
+            config.budgetRatio = budgetRatio;
+            config.maxTokens = maxTokens;
+            config.initialBackoff = initialBackoff;
+            config.maxBackoff = maxBackoff;
+            config.backoffMultiplier = backoffMultiplier;
+            return config;
+        }
+    }
+}
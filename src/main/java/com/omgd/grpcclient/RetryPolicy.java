@@ -0,0 +1,118 @@
+package com.omgd.grpcclient;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.grpc.Status;
+
+/**
+ * {@link RetryConfig} of one api: the budget shared by the apis of the client and the recent latency of this api
+ */
+final class RetryPolicy {
+    // latencies kept, and recorded between two updates of the hedge delay
+    private static final int WINDOW = 256;
+    private static final int REFRESH = 64;
+
+    private final RetryConfig config;
+    private final Budget budget;
+    // nanos of the last WINDOW successful attempts, a lost update only drops a sample
+    private final AtomicLongArray latencies = new AtomicLongArray(WINDOW);
+    private final AtomicInteger recorded = new AtomicInteger();
+    // nanos, 0 until the first window is full or when hedging is off
+    private volatile long hedgeDelay;
+
+    RetryPolicy(RetryConfig config, Budget budget) {
+        this.config = config;
+        this.budget = budget;
+    }
+
+    int getMaxAttempts() {
+        return config.getMaxAttempts();
+    }
+
+    boolean isRetryable(Status.Code code) {
+        return config.getRetryableCodes().contains(code);
+    }
+
+    // nanos to wait before the given retry of a call, 1 for the first one: random below the exponential backoff, as grpc
+    // retries, so the retries of calls failing together spread out
+    long getBackoff(int retry) {
+        double backoff = Math.min(config.getInitialBackoff() * Math.pow(config.getBackoffMultiplier(), retry - 1),
+                config.getMaxBackoff());
+        return (long) (ThreadLocalRandom.current().nextDouble() * TimeUnit.MILLISECONDS.toNanos((long) backoff));
+    }
+
+    // nanos after which a call is hedged, 0 means no hedge
+    long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    // a hedge or a retry may go out
+    boolean tryAcquire() {
+        return budget.tryAcquire();
+    }
+
+    // latency of a call, from its first attempt to the reply that won
+    void onSuccess(long latency) {
+        budget.deposit();
+        if (config.getHedgePercentile() == 0) {
+            return;
+        }
+        int count = recorded.getAndIncrement();
+        latencies.set(count % WINDOW, latency);
+        if (count + 1 >= WINDOW && (count + 1) % REFRESH == 0) {
+            long[] sorted = new long[WINDOW];
+            for (int i = 0; i < WINDOW; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            long percentile = sorted[Math.min(WINDOW - 1, (int) (WINDOW * config.getHedgePercentile() / 100))];
+            hedgeDelay = Math.max(percentile, TimeUnit.MILLISECONDS.toNanos(config.getMinHedgeDelay()));
+        }
+    }
+
+    /**
+     * token bucket of the client, as grpc retry throttling: a hedge or retry costs one token, a successful call earns
+     * budgetRatio, so extra attempts stay a fixed share of the traffic and stop when the server is down
+     */
+    static final class Budget {
+        private static final long TOKEN = 1000;
+
+        // thousandths of a token
+        private final AtomicLong tokens;
+        private final long maxTokens;
+        private final long ratio;
+
+        Budget(RetryConfig config) {
+            this.maxTokens = config.getMaxTokens() * TOKEN;
+            this.ratio = (long) (config.getBudgetRatio() * TOKEN);
+            this.tokens = new AtomicLong(maxTokens);
+        }
+
+        boolean tryAcquire() {
+            for (; ; ) {
+                long current = tokens.get();
+                if (current < TOKEN) {
+                    return false;
+                }
+                if (tokens.compareAndSet(current, current - TOKEN)) {
+                    return true;
+                }
+            }
+        }
+
+        void deposit() {
+            for (; ; ) {
+                long current = tokens.get();
+                long next = Math.min(maxTokens, current + ratio);
+                if (next == current || tokens.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.omgd.grpcclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.CallOptions;
+import io.grpc.Deadline;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+
+/**
+ * one unary call of an api with a {@link RetryPolicy}: attempts on different pooled channels under the deadline of
+ * the call, the first reply wins
+ */
+final class RetryingCall {
+    private final CallPlan plan;
+    private final RetryPolicy policy;
+    private final Object wire;
+    private final CallOptions callOptions;
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+    // System.nanoTime of the first attempt, hedges that win record the latency of the call
+    private final long callStart = System.nanoTime();
+    // guarded by this
+    private final List<ListenableFuture<?>> attempts = new ArrayList<>();
+    private int started;
+    // attempts in flight and retries waiting for their backoff
+    private int running;
+    private int retries;
+    private Throwable failure;
+    private int lastIndex = -1;
+
+    private RetryingCall(CallPlan plan, Object wire, int timeout) {
+        this.plan = plan;
+        this.policy = plan.getRetryPolicy();
+        this.wire = wire;
+        this.callOptions = CallOptions.DEFAULT.withDeadline(Deadline.after(timeout, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * start the first attempt, the future completes with the reply or the failure of the last attempt
+     */
+    static CompletableFuture<Object> start(CallPlan plan, Object wire, int timeout) {
+        RetryingCall call = new RetryingCall(plan, wire, timeout);
+        call.attempt();
+        call.scheduleHedge();
+        return call.result;
+    }
+
+    private void scheduleHedge() {
+        long delay = policy.getHedgeDelay();
+        if (delay > 0 && !result.isDone()) {
+            ClientScheduler.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // the call is slow, another attempt races it when the budget allows
+    private void hedge() {
+        synchronized (this) {
+            if (result.isDone() || started >= policy.getMaxAttempts() || isExpired()) {
+                return;
+            }
+        }
+        if (policy.tryAcquire() && attempt()) {
+            scheduleHedge();
+        }
+    }
+
+    private boolean isExpired() {
+        return callOptions.getDeadline().isExpired();
+    }
+
+    // false when the call is over or out of attempts
+    private boolean attempt() {
+        ChannelPool channelPool = plan.getChannelPool();
+        int index;
+        synchronized (this) {
+            if (result.isDone() || started >= policy.getMaxAttempts()) {
+                return false;
+            }
+            // another channel than the previous attempt, a slow or broken connection is not tried twice in a row
+            index = channelPool.acquire(lastIndex);
+            lastIndex = index;
+            started++;
+            running++;
+        }
+        ManagedChannel channel = channelPool.get(index);
+        long start = System.nanoTime();
+        ListenableFuture<?> future;
+        try {
+            future = Client.futureCall(plan, channel, wire, callOptions);
+        } catch (RuntimeException e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        synchronized (this) {
+            attempts.add(future);
+        }
+        Futures.addCallback(future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object reply) {
+                channelPool.release(index, Status.Code.OK, System.nanoTime() - start);
+                if (result.complete(reply)) {
+                    policy.onSuccess(System.nanoTime() - callStart);
+                    cancelAttempts();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status.Code code = t instanceof CancellationException ? Status.Code.CANCELLED
+                        : Status.fromThrowable(t).getCode();
+                // cancelled losers of a hedge do not count against their channel
+                channelPool.release(index, code, -1);
+                if (code == Status.Code.DEADLINE_EXCEEDED) {
+                    // trigger reconnection when timeout occurs
+                    channel.enterIdle();
+                }
+                long backoff = -1;
+                synchronized (RetryingCall.this) {
+                    if (!result.isDone() && policy.isRetryable(code) && started < policy.getMaxAttempts()) {
+                        backoff = policy.getBackoff(++retries);
+                    }
+                }
+                // a retry that could not start before the deadline is not worth a token
+                if (backoff >= 0 && backoff < callOptions.getDeadline().timeRemaining(TimeUnit.NANOSECONDS)
+                        && policy.tryAcquire()) {
+                    // this attempt goes on counting as running until the retry started, the call cannot fail between
+                    ClientScheduler.schedule(() -> retry(t), backoff, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                end(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return true;
+    }
+
+    private void retry(Throwable cause) {
+        // the attempt that waited for the retry stops counting once the retry runs, it may even have failed already
+        end(!isExpired() && attempt() ? null : cause);
+    }
+
+    // an attempt ended without a retry, or null once a retry started: the call fails with the last failure when no
+    // attempt runs anymore
+    private void end(Throwable t) {
+        Throwable last;
+        synchronized (this) {
+            if (t != null) {
+                failure = t;
+            }
+            last = --running == 0 ? failure : null;
+        }
+        if (last != null) {
+            result.completeExceptionally(last);
+        }
+    }
+
+    // losers of the race are cancelled, their servers stop working on them
+    private void cancelAttempts() {
+        List<ListenableFuture<?>> losers;
+        synchronized (this) {
+            losers = new ArrayList<>(attempts);
+        }
+        for (ListenableFuture<?> future : losers) {
+            // grpc cancels the call of a future only when it may interrupt
+            future.cancel(true);
+        }
+    }
+}
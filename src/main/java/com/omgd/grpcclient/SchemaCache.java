@@ -0,0 +1,176 @@
+package com.omgd.grpcclient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import io.grpc.MethodDescriptor.MethodType;
+
+/**
+ * <p>
+ * compiled schemas keyed by the SHA-256 of the proto content, clients registered with the same proto share one. the
+ * cache holds them weakly: a schema lives as long as a registered client uses it, revisions replaced by updateClient
+ * and schemas of unregistered clients are collected
+ * </p>
+ * <p>
+ * with a snapshot directory the compiled descriptors are also written to {@code <sha256>.v<version>.desc} as a
+ * FileDescriptorSet, the next process loads them from there instead of parsing the proto text. the version is
+ * {@link #SNAPSHOT_VERSION}, snapshots of another version are left alone and the proto is compiled again
+ * </p>
+ */
+final class SchemaCache {
+    private static final Logger log = Logger.getLogger(SchemaCache.class.getName());
+    // bumped whenever the snapshot layout or the schema compiled from a proto changes
+    static final int SNAPSHOT_VERSION = 1;
+    // the services ride in the snapshot as one extra file, never built, only read back into api definitions
+    private static final String SERVICES_FILE = "grpc-dynamic-client.services";
+    // values are weak, the handles of the registered clients hold their entry
+    private static final Cache<String, Entry> CACHE = CacheBuilder.newBuilder().weakValues().build();
+
+    private SchemaCache() {
+    }
+
+    /**
+     * cached schema of the proto content, loaded from the snapshot directory or compiled on a miss
+     *
+     * @param snapshotDir null when snapshots are off
+     * @param compiler    parses and builds the proto content
+     */
+    static Entry get(String protoFileContent, String snapshotDir, Function<String, Entry> compiler) {
+        String key = key(protoFileContent);
+        Entry entry = CACHE.getIfPresent(key);
+        if (entry != null) {
+            return entry;
+        }
+        // one compile per content, concurrent registrations of the same proto wait for it
+        try {
+            return CACHE.get(key, () -> compute(key, protoFileContent, snapshotDir, compiler));
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            // the compiler fails with unchecked exceptions only
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    static String key(String protoFileContent) {
+        return Hashing.sha256().hashString(protoFileContent, StandardCharsets.UTF_8).toString();
+    }
+
+    // snapshot file of the schema with the key, in the current version
+    static Path snapshot(String snapshotDir, String key) {
+        return Paths.get(snapshotDir, key + ".v" + SNAPSHOT_VERSION + ".desc");
+    }
+
+    private static Entry compute(String key, String protoFileContent, String snapshotDir, Function<String, Entry> compiler) {
+        Path snapshot = snapshotDir == null ? null : snapshot(snapshotDir, key);
+        if (snapshot != null && Files.exists(snapshot)) {
+            try {
+                return load(snapshot);
+            } catch (Exception e) {
+                log.warning(String.format("schema snapshot %s is unreadable, compiling the proto: %s", snapshot, e));
+            }
+        }
+        Entry compiled = compiler.apply(protoFileContent);
+        if (snapshot != null) {
+            try {
+                save(snapshot, compiled);
+            } catch (Exception e) {
+                log.warning(String.format("schema snapshot %s not written: %s", snapshot, e));
+            }
+        }
+        return compiled;
+    }
+
+    static Entry load(Path snapshot) throws IOException, DescriptorValidationException {
+        FileDescriptorSet set = FileDescriptorSet.parseFrom(Files.readAllBytes(snapshot));
+        FileDescriptorSet.Builder files = FileDescriptorSet.newBuilder();
+        Map<String, ApiDefinition> services = new HashMap<>();
+        for (FileDescriptorProto file : set.getFileList()) {
+            if (!SERVICES_FILE.equals(file.getName())) {
+                files.addFile(file);
+                continue;
+            }
+            for (ServiceDescriptorProto service : file.getServiceList()) {
+                for (MethodDescriptorProto method : service.getMethodList()) {
+                    services.put(String.format("%s/%s", service.getName(), method.getName()),
+                            new ApiDefinition(method.getInputType(), method.getOutputType(),
+                                    method.getClientStreaming(), method.getServerStreaming()));
+                }
+            }
+        }
+        if (services.isEmpty()) {
+            throw new IOException("no services in snapshot");
+        }
+        return new Entry(DynamicSchema.parseFrom(files.build().toByteArray()), services);
+    }
+
+    // written next to the target and moved over it, readers never see half a file
+    static void save(Path snapshot, Entry entry) throws IOException {
+        FileDescriptorSet.Builder set = FileDescriptorSet.newBuilder().mergeFrom(entry.getSchema().toByteArray());
+        FileDescriptorProto.Builder file = FileDescriptorProto.newBuilder().setName(SERVICES_FILE);
+        Map<String, ServiceDescriptorProto.Builder> services = new HashMap<>();
+        entry.getServices().forEach((api, definition) -> {
+            int slash = api.indexOf('/');
+            MethodType methodType = definition.getMethodType();
+            services.computeIfAbsent(api.substring(0, slash), name -> ServiceDescriptorProto.newBuilder().setName(name))
+                    .addMethod(MethodDescriptorProto.newBuilder()
+                            .setName(api.substring(slash + 1))
+                            .setInputType(definition.getRequestTypeName())
+                            .setOutputType(definition.getReplyTypeName())
+                            .setClientStreaming(methodType == MethodType.CLIENT_STREAMING || methodType == MethodType.BIDI_STREAMING)
+                            .setServerStreaming(methodType == MethodType.SERVER_STREAMING || methodType == MethodType.BIDI_STREAMING));
+        });
+        services.values().forEach(file::addService);
+        set.addFile(file);
+
+        Files.createDirectories(snapshot.getParent());
+        Path temp = Files.createTempFile(snapshot.getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, set.build().toByteArray());
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * compiled schema and the apis of its services, shared read-only between clients
+     */
+    static final class Entry {
+        private final DynamicSchema schema;
+        private final Map<String, ApiDefinition> services;
+
+        Entry(DynamicSchema schema, Map<String, ApiDefinition> services) {
+            this.schema = schema;
+            this.services = Collections.unmodifiableMap(services);
+        }
+
+        DynamicSchema getSchema() {
+            return schema;
+        }
+
+        Map<String, ApiDefinition> getServices() {
+            return services;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * identical unary calls of one api in flight at the same time, set with
+ * {@link ClientConfig.Builder#coalesce(String...)}: the first caller makes the call, the others share its response
+ */
+final class SingleFlight {
+    // response of the leading call by request and body format, removed before the followers get it
+    private final ConcurrentHashMap<Key, CompletableFuture<Response>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * call is made when no identical call is in flight, otherwise the response of that call is shared
+     *
+     * @param request serialized request
+     */
+    CompletableFuture<Response> execute(ByteString request, BodyFormat bodyFormat, Supplier<CompletableFuture<Response>> call) {
+        Key key = new Key(request, bodyFormat);
+        CompletableFuture<Response> shared = calls.get(key);
+        if (shared == null) {
+            CompletableFuture<Response> created = new CompletableFuture<>();
+            shared = calls.putIfAbsent(key, created);
+            if (shared == null) {
+                CompletableFuture<Response> result;
+                try {
+                    result = call.get();
+                } catch (RuntimeException e) {
+                    calls.remove(key, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+                // callers arriving from now on make a new call
+                result.whenComplete((response, t) -> {
+                    calls.remove(key, created);
+                    if (t != null) {
+                        created.completeExceptionally(t);
+                    } else {
+                        created.complete(response);
+                    }
+                });
+                return result;
+            }
+        }
+        // responses are shared but for body bytes, every follower gets its own
+        return shared.thenApply(Response::copyBytes);
+    }
+
+    private static final class Key {
+        private final ByteString request;
+        private final BodyFormat bodyFormat;
+
+        Key(ByteString request, BodyFormat bodyFormat) {
+            this.request = request;
+            this.bodyFormat = bodyFormat;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return bodyFormat == key.bodyFormat && request.equals(key.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return request.hashCode() * 31 + bodyFormat.hashCode();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.omgd.grpcclient;
+
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * <p>
+ * handle of an open streaming grpc call, items are JSON strings or DynamicMessage
+ * </p>
+ * <p>
+ * inbound flow control: the call asks the server for {@code window} items up front and, when the window is
+ * positive, asks for one more after each item is delivered; with a window of 0 the caller drives it with
+ * {@link #request(int)}. outbound flow control: send only while {@link #isReady()}, resume from the handler
+ * given to {@link #setOnReadyHandler(Runnable)}.
+ * </p>
+ * <p>
+ * like grpc ClientCall, the outbound methods are not thread-safe
+ * </p>
+ */
+public final class StreamCall<T> {
+    private final ClientCall<DynamicMessage, DynamicMessage> call;
+    private final Codec<T> codec;
+    private final StreamObserver<T> observer;
+    private final ChannelPool channelPool;
+    // channel of the call in the pool, released when the call closes
+    private final int index;
+    private final boolean autoRequest;
+    // outbound stream of the api, false when the request is a single message
+    private final boolean clientStreaming;
+    private volatile Runnable onReadyHandler;
+
+    StreamCall(ClientCall<DynamicMessage, DynamicMessage> call, Codec<T> codec, StreamObserver<T> observer, ChannelPool channelPool,
+               int index, int window, boolean clientStreaming) {
+        this.call = call;
+        this.codec = codec;
+        this.observer = observer;
+        this.channelPool = channelPool;
+        this.index = index;
+        this.autoRequest = window > 0;
+        this.clientStreaming = clientStreaming;
+        call.start(new Listener(), new Metadata());
+        if (window > 0) {
+            call.request(window);
+        }
+    }
+
+    // ask the server for n more items
+    public void request(int n) {
+        call.request(n);
+    }
+
+    // send one item, only allowed on client and bidirectional streaming apis
+    public void send(T item) {
+        if (!clientStreaming) {
+            throw new IllegalStateException("request of this api is not a stream");
+        }
+        sendMessage(item);
+    }
+
+    void sendMessage(T item) {
+        DynamicMessage message;
+        try {
+            message = codec.encode(item);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException(String.format("stream item is Illegal: %s", e.getMessage()), e);
+        }
+        call.sendMessage(message);
+    }
+
+    // whether the transport can take more items without buffering
+    public boolean isReady() {
+        return call.isReady();
+    }
+
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+        this.onReadyHandler = onReadyHandler;
+    }
+
+    // no more items will be sent
+    public void complete() {
+        call.halfClose();
+    }
+
+    public void cancel(String message) {
+        call.cancel(message, null);
+    }
+
+    // item conversion of the stream
+    interface Codec<T> {
+        DynamicMessage encode(T item) throws InvalidProtocolBufferException;
+
+        T decode(DynamicMessage message) throws InvalidProtocolBufferException;
+    }
+
+    // inner class
+    private class Listener extends ClientCall.Listener<DynamicMessage> {
+        @Override
+        public void onMessage(DynamicMessage message) {
+            T item;
+            try {
+                item = codec.decode(message);
+            } catch (InvalidProtocolBufferException e) {
+                call.cancel("decode stream item error", e);
+                return;
+            }
+            observer.onNext(item);
+            if (autoRequest) {
+                call.request(1);
+            }
+        }
+
+        @Override
+        public void onReady() {
+            Runnable handler = onReadyHandler;
+            if (handler != null) {
+                handler.run();
+            }
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            channelPool.release(index, status.getCode(), -1);
+            if (status.isOk()) {
+                observer.onCompleted();
+                return;
+            }
+            if (status.getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                // trigger reconnection when timeout occurs
+                channelPool.get(index).enterIdle();
+            }
+            observer.onError(status.asRuntimeException(trailers));
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.omgd.grpcclient;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+
+/**
+ * <p>
+ * netty transport of the pooled channels, set with {@link ClientConfig.Builder#transport(TransportConfig)}
+ * </p>
+ * <p>
+ * without an eventLoopGroup every channel of every client runs on one shared group of the library, native epoll when
+ * netty-transport-native-epoll is on the classpath and usable, NIO otherwise. a group of the caller is never shut down
+ * by the client
+ * </p>
+ */
+public class TransportConfig {
+    // event loops of the channels, null means the shared group
+    private EventLoopGroup eventLoopGroup;
+    // socket channel class matching eventLoopGroup, null means derived from it
+    private Class<? extends Channel> channelType;
+    // executor of call callbacks, null means the shared executor of grpc
+    private Executor executor;
+    // callbacks run on the event loop, they must never block
+    private boolean directExecutor;
+    // HTTP/2 flow control window per stream, bytes
+    private int flowControlWindow;
+    private int maxInboundMessageSize;
+    // milliseconds, 0 means no keepalive pings
+    private long keepAliveTime;
+    private long keepAliveTimeout;
+    private boolean keepAliveWithoutCalls;
+    private String loadBalancingPolicy;
+    // false means TLS
+    private boolean plaintext;
+
+    private TransportConfig() {
+
+    }
+
+    public void validate() {
+        if ((channelType != null && eventLoopGroup == null) ||
+                (executor != null && directExecutor) ||
+                flowControlWindow <= 0 ||
+                maxInboundMessageSize <= 0 ||
+                keepAliveTime < 0 ||
+                keepAliveTimeout <= 0 ||
+                loadBalancingPolicy == null) {
+            throw new IllegalArgumentException("TransportConfig is Illegal");
+        }
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    public Class<? extends Channel> getChannelType() {
+        return channelType;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public boolean isDirectExecutor() {
+        return directExecutor;
+    }
+
+    public int getFlowControlWindow() {
+        return flowControlWindow;
+    }
+
+    public int getMaxInboundMessageSize() {
+        return maxInboundMessageSize;
+    }
+
+    public long getKeepAliveTime() {
+        return keepAliveTime;
+    }
+
+    public long getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public boolean isKeepAliveWithoutCalls() {
+        return keepAliveWithoutCalls;
+    }
+
+    public String getLoadBalancingPolicy() {
+        return loadBalancingPolicy;
+    }
+
+    public boolean isPlaintext() {
+        return plaintext;
+    }
+
+    // equal configs build the same channels, groups and executors of the caller are compared by instance
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TransportConfig)) {
+            return false;
+        }
+        TransportConfig that = (TransportConfig) o;
+        return eventLoopGroup == that.eventLoopGroup &&
+                channelType == that.channelType &&
+                executor == that.executor &&
+                directExecutor == that.directExecutor &&
+                flowControlWindow == that.flowControlWindow &&
+                maxInboundMessageSize == that.maxInboundMessageSize &&
+                keepAliveTime == that.keepAliveTime &&
+                keepAliveTimeout == that.keepAliveTimeout &&
+                keepAliveWithoutCalls == that.keepAliveWithoutCalls &&
+                Objects.equals(loadBalancingPolicy, that.loadBalancingPolicy) &&
+                plaintext == that.plaintext;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(eventLoopGroup, channelType, executor, directExecutor, flowControlWindow, maxInboundMessageSize,
+                keepAliveTime, keepAliveTimeout, keepAliveWithoutCalls, loadBalancingPolicy, plaintext);
+    }
+
+    // inner class for builder feature
+    public static class Builder {
+        private EventLoopGroup eventLoopGroup;
+        private Class<? extends Channel> channelType;
+        private Executor executor;
+        private boolean directExecutor;
+        private int flowControlWindow = NettyChannelBuilder.DEFAULT_FLOW_CONTROL_WINDOW;
+        private int maxInboundMessageSize = 4 * 1024 * 1024;
+        private long keepAliveTime;
+        private long keepAliveTimeout = 3000;
+        private boolean keepAliveWithoutCalls = true;
+        private String loadBalancingPolicy = "round_robin";
+        private boolean plaintext = true;
+
+        // the socket channel class is derived from the group: epoll or NIO
+        public Builder eventLoopGroup(EventLoopGroup eventLoopGroup) {
+            this.eventLoopGroup = eventLoopGroup;
+            return this;
+        }
+
+        public Builder eventLoopGroup(EventLoopGroup eventLoopGroup, Class<? extends Channel> channelType) {
+            this.eventLoopGroup = eventLoopGroup;
+            this.channelType = channelType;
+            return this;
+        }
+
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder directExecutor(boolean directExecutor) {
+            this.directExecutor = directExecutor;
+            return this;
+        }
+
+        public Builder flowControlWindow(int flowControlWindow) {
+            this.flowControlWindow = flowControlWindow;
+            return this;
+        }
+
+        public Builder maxInboundMessageSize(int maxInboundMessageSize) {
+            this.maxInboundMessageSize = maxInboundMessageSize;
+            return this;
+        }
+
+        public Builder keepAliveTime(long keepAliveTime) {
+            this.keepAliveTime = keepAliveTime;
+            return this;
+        }
+
+        public Builder keepAliveTimeout(long keepAliveTimeout) {
+            this.keepAliveTimeout = keepAliveTimeout;
+            return this;
+        }
+
+        public Builder keepAliveWithoutCalls(boolean keepAliveWithoutCalls) {
+            this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+            return this;
+        }
+
+        public Builder loadBalancingPolicy(String loadBalancingPolicy) {
+            this.loadBalancingPolicy = loadBalancingPolicy;
+            return this;
+        }
+
+        public Builder plaintext(boolean plaintext) {
+            this.plaintext = plaintext;
+            return this;
+        }
+
+        public TransportConfig build() {
+            TransportConfig config = new TransportConfig();
+            config.eventLoopGroup = eventLoopGroup;
+            config.channelType = channelType;
+            config.executor = executor;
+            config.directExecutor = directExecutor;
+            config.flowControlWindow = flowControlWindow;
+            config.maxInboundMessageSize = maxInboundMessageSize;
+            config.keepAliveTime = keepAliveTime;
+            config.keepAliveTimeout = keepAliveTimeout;
+            config.keepAliveWithoutCalls = keepAliveWithoutCalls;
+            config.loadBalancingPolicy = loadBalancingPolicy;
+            config.plaintext = plaintext;
+            return config;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.omgd.grpcclient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.CallOptions;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.stub.ClientCalls;
+
+/**
+ * <p>
+ * how registerClient warms up the pooled channels, all channels warm up at once under one deadline
+ * </p>
+ * <p>
+ * set it with {@link ClientConfig.Builder#warmUp(WarmUp)}, the deadline with
+ * {@link ClientConfig.Builder#warmUpTimeout(int)}
+ * </p>
+ */
+public enum WarmUp {
+    // empty request to a unary api, connects and loads the server path too; CONNECT when there is no unary api
+    RPC {
+        @Override
+        CompletableFuture<Boolean> start(ManagedChannel channel, CallPlan plan, long deadline) {
+            if (plan == null) {
+                return CONNECT.start(channel, null, deadline);
+            }
+            CompletableFuture<Boolean> ready = new CompletableFuture<>();
+            long timeout = Math.max(deadline - System.nanoTime(), 0);
+            CallOptions callOptions = CallOptions.DEFAULT.withDeadlineAfter(timeout, TimeUnit.NANOSECONDS);
+            // "{}" is the empty message, zero bytes on the wire
+            Futures.addCallback(ClientCalls.futureUnaryCall(channel.newCall(plan.getRawMethodDescriptor(), callOptions), new byte[0]),
+                    new FutureCallback<byte[]>() {
+                        @Override
+                        public void onSuccess(byte[] reply) {
+                            ready.complete(true);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            // any answer of the server means the connection is up
+                            Status.Code code = Status.fromThrowable(t).getCode();
+                            ready.complete(code != Status.Code.UNAVAILABLE && code != Status.Code.DEADLINE_EXCEEDED);
+                        }
+                    }, MoreExecutors.directExecutor());
+            return ready;
+        }
+    },
+    // wait for the channel to be READY, no request is sent
+    CONNECT {
+        @Override
+        CompletableFuture<Boolean> start(ManagedChannel channel, CallPlan plan, long deadline) {
+            CompletableFuture<Boolean> ready = new CompletableFuture<>();
+            awaitReady(channel, ready, deadline);
+            return ready;
+        }
+    },
+    // nothing at registration, channels connect on their first call
+    NONE {
+        @Override
+        CompletableFuture<Boolean> start(ManagedChannel channel, CallPlan plan, long deadline) {
+            return CompletableFuture.completedFuture(true);
+        }
+    };
+
+    // plan is a unary api of the client or null, deadline in System.nanoTime
+    abstract CompletableFuture<Boolean> start(ManagedChannel channel, CallPlan plan, long deadline);
+
+    /**
+     * warm up every channel of the pool at once, completes with true when all of them are up, false when one failed
+     * or the timeout passed first; never completes exceptionally
+     */
+    CompletableFuture<Boolean> start(ChannelPool channelPool, CallPlan plan, int timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        CompletableFuture<Boolean> ready = new CompletableFuture<>();
+        int size = channelPool.size();
+        AtomicInteger pending = new AtomicInteger(size);
+        for (int i = 0; i < size; i++) {
+            CompletableFuture<Boolean> channelReady;
+            try {
+                channelReady = start(channelPool.get(i), plan, deadline);
+            } catch (RuntimeException e) {
+                channelReady = CompletableFuture.completedFuture(false);
+            }
+            channelReady.whenComplete((up, t) -> {
+                if (t != null || !up) {
+                    ready.complete(false);
+                } else if (pending.decrementAndGet() == 0) {
+                    ready.complete(true);
+                }
+            });
+        }
+        if (!ready.isDone()) {
+            ClientScheduler.schedule(() -> ready.complete(false), timeout, TimeUnit.MILLISECONDS);
+        }
+        return ready;
+    }
+
+    // re-arms on every state change until READY, SHUTDOWN, the deadline or the caller gave up
+    private static void awaitReady(ManagedChannel channel, CompletableFuture<Boolean> ready, long deadline) {
+        // true asks an IDLE channel to connect
+        ConnectivityState state = channel.getState(true);
+        if (state == ConnectivityState.READY) {
+            ready.complete(true);
+        } else if (state == ConnectivityState.SHUTDOWN || System.nanoTime() - deadline >= 0) {
+            ready.complete(false);
+        } else if (!ready.isDone()) {
+            channel.notifyWhenStateChanged(state, () -> awaitReady(channel, ready, deadline));
+        }
+    }
+}
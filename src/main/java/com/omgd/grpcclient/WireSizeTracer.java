@@ -0,0 +1,56 @@
+package com.omgd.grpcclient;
+
+import io.grpc.ClientStreamTracer;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+/**
+ * reports uncompressed and wire sizes of every call of a compressed api to {@link Instrumentation#onCompression}
+ */
+final class WireSizeTracer extends ClientStreamTracer.Factory {
+    private final Instrumentation instrumentation;
+    private final String client;
+    private final String api;
+
+    WireSizeTracer(Instrumentation instrumentation, String client, String api) {
+        this.instrumentation = instrumentation;
+        this.client = client;
+        this.api = api;
+    }
+
+    @Override
+    public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+        return new ClientStreamTracer() {
+            // each direction is written by one thread at a time, read once the stream closed
+            private volatile long requestBytes;
+            private volatile long requestWireBytes;
+            private volatile long replyBytes;
+            private volatile long replyWireBytes;
+
+            @Override
+            public void outboundUncompressedSize(long bytes) {
+                requestBytes += bytes;
+            }
+
+            @Override
+            public void outboundWireSize(long bytes) {
+                requestWireBytes += bytes;
+            }
+
+            @Override
+            public void inboundUncompressedSize(long bytes) {
+                replyBytes += bytes;
+            }
+
+            @Override
+            public void inboundWireSize(long bytes) {
+                replyWireBytes += bytes;
+            }
+
+            @Override
+            public void streamClosed(Status status) {
+                instrumentation.onCompression(client, api, requestBytes, requestWireBytes, replyBytes, replyWireBytes);
+            }
+        };
+    }
+}
@@ -0,0 +1,175 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+
+public class ChannelHealthTest {
+    private final RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+    private final List<ChannelPool> pools = new ArrayList<>();
+    private final List<ChannelHealth> healths = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        // reconnects of the ejections ran, they do not find their channel shut down
+        InProcessBackends.flush(0);
+        healths.forEach(ChannelHealth::close);
+        pools.forEach(ChannelPool::shutdownNow);
+    }
+
+    @Test
+    public void ejectsAfterConsecutiveFailures() {
+        ChannelHealth health = health(4, config());
+
+        health.onResult(1, Status.Code.UNAVAILABLE, -1);
+        health.onResult(1, Status.Code.OK, 1000);
+        health.onResult(1, Status.Code.UNAVAILABLE, -1);
+        assertFalse(health.isEjected(1));
+        health.onResult(1, Status.Code.DEADLINE_EXCEEDED, -1);
+
+        assertTrue(health.isEjected(1));
+        assertEquals(Arrays.asList("eject 1"), instrumentation.events);
+    }
+
+    @Test
+    public void cancelledAndOtherCodesDoNotCount() {
+        ChannelHealth health = health(4, config());
+
+        for (int i = 0; i < 10; i++) {
+            health.onResult(0, Status.Code.CANCELLED, -1);
+            health.onResult(0, Status.Code.INVALID_ARGUMENT, -1);
+        }
+
+        assertFalse(health.isEjected(0));
+    }
+
+    @Test
+    public void ejectsAtMostMaxEjectionPercent() {
+        ChannelHealth health = health(4, config().maxEjectionPercent(50));
+
+        for (int index = 0; index < 4; index++) {
+            health.onResult(index, Status.Code.UNAVAILABLE, -1);
+            health.onResult(index, Status.Code.UNAVAILABLE, -1);
+        }
+
+        assertTrue(health.isEjected(0));
+        assertTrue(health.isEjected(1));
+        assertFalse(health.isEjected(2));
+        assertFalse(health.isEjected(3));
+    }
+
+    @Test
+    public void neverEjectsAllChannels() {
+        ChannelHealth health = health(2, config().maxEjectionPercent(100));
+
+        for (int i = 0; i < 5; i++) {
+            health.onResult(0, Status.Code.UNAVAILABLE, -1);
+            health.onResult(1, Status.Code.UNAVAILABLE, -1);
+        }
+
+        assertTrue(health.isEjected(0));
+        assertFalse(health.isEjected(1));
+    }
+
+    @Test
+    public void restoresAfterTheEjectionTime() throws Exception {
+        ChannelHealth health = health(4, config().baseEjectionTime(100).maxEjectionTime(100));
+        health.onResult(2, Status.Code.UNAVAILABLE, -1);
+        health.onResult(2, Status.Code.UNAVAILABLE, -1);
+        assertTrue(health.isEjected(2));
+
+        InProcessBackends.flush(100);
+
+        assertFalse(health.isEjected(2));
+        assertEquals(Arrays.asList("eject 2", "restore 2"), instrumentation.events);
+    }
+
+    @Test
+    public void ejectsOnTheFailureRateOfAnInterval() throws Exception {
+        // the calls are recorded long before the first check
+        ChannelHealth health = health(4, config().consecutiveFailures(100).failureRate(0.5).minCalls(4).interval(500));
+
+        for (int i = 0; i < 5; i++) {
+            health.onResult(3, Status.Code.UNAVAILABLE, -1);
+            health.onResult(3, Status.Code.OK, 1000);
+            health.onResult(0, Status.Code.OK, 1000);
+        }
+
+        InProcessBackends.flush(500);
+
+        assertTrue(health.isEjected(3));
+        assertFalse(health.isEjected(0));
+    }
+
+    @Test
+    public void picksSkipEjectedChannels() {
+        ChannelPool pool = pool(3, config());
+        pool.release(pool.acquire(), Status.Code.OK, 1000);
+        // round robin picks channel 1 next, it fails twice
+        for (int i = 0; i < 2; i++) {
+            int index = pool.acquire();
+            assertEquals(1, index);
+            pool.release(index, Status.Code.UNAVAILABLE, -1);
+            pool.release(pool.acquire(), Status.Code.OK, 1000);
+            pool.release(pool.acquire(), Status.Code.OK, 1000);
+        }
+
+        int[] picks = new int[3];
+        for (int i = 0; i < 30; i++) {
+            int index = pool.acquire();
+            picks[index]++;
+            pool.release(index, Status.Code.OK, 1000);
+        }
+
+        assertEquals(0, picks[1]);
+        assertNotEquals(0, picks[0]);
+        assertNotEquals(0, picks[2]);
+        assertArrayEquals(new int[]{0, 0, 0}, new int[]{pool.getInFlight(0), pool.getInFlight(1), pool.getInFlight(2)});
+    }
+
+    // consecutive failures only: no periodic rate or latency ejection, no breaker
+    private static HealthConfig.Builder config() {
+        return HealthConfig.create()
+                .consecutiveFailures(2)
+                .failureRate(0)
+                .latencyFactor(0)
+                .interval(60000)
+                .maxEjectionPercent(100)
+                .baseEjectionTime(60000)
+                .maxEjectionTime(60000)
+                .breakerFailures(0);
+    }
+
+    private ChannelHealth health(int connections, HealthConfig.Builder builder) {
+        HealthConfig config = builder.build();
+        config.validate();
+        // the pool only lends its size, channels and instrumentation
+        ChannelPool pool = pool(connections, null);
+        ChannelHealth health = new ChannelHealth(pool, connections, config);
+        healths.add(health);
+        return health;
+    }
+
+    private ChannelPool pool(int connections, HealthConfig.Builder health) {
+        ManagedChannel[] channels = new ManagedChannel[connections];
+        for (int i = 0; i < connections; i++) {
+            channels[i] = InProcessBackends.idleChannel();
+        }
+        ChannelPool pool = new ChannelPool("test", "in-process", channels, ChannelStrategy.ROUND_ROBIN, instrumentation,
+                health == null ? null : health.build());
+        pools.add(pool);
+        return pool;
+    }
+}
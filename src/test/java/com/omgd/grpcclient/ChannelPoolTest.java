@@ -0,0 +1,173 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.grpc.ManagedChannel;
+
+public class ChannelPoolTest {
+    // channels the pools of a test built, the first ones included
+    private final List<ManagedChannel> built = new ArrayList<>();
+    private final List<ChannelPool> pools = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        pools.forEach(ChannelPool::shutdownNow);
+        built.forEach(ManagedChannel::shutdownNow);
+    }
+
+    @Test
+    public void growsPastMaxStreamsPerChannel() throws Exception {
+        ChannelPool pool = pool(1, ChannelStrategy.LEAST_OUTSTANDING, ElasticConfig.create()
+                .maxConnections(3).maxStreamsPerChannel(2).cooldown(60000));
+
+        for (int i = 0; i < 3; i++) {
+            pool.acquire();
+        }
+        InProcessBackends.flush(0);
+        assertEquals(2, pool.size());
+        // calls keep piling up, the pool stops at maxConnections
+        for (int i = 0; i < 20; i++) {
+            pool.acquire();
+        }
+        InProcessBackends.flush(0);
+
+        assertEquals(3, pool.size());
+        assertEquals(3, built.size());
+    }
+
+    @Test
+    public void noGrowthWithinMaxStreamsPerChannel() throws Exception {
+        ChannelPool pool = pool(2, ChannelStrategy.ROUND_ROBIN, ElasticConfig.create()
+                .maxConnections(4).maxStreamsPerChannel(2).cooldown(60000));
+
+        for (int i = 0; i < 4; i++) {
+            pool.acquire();
+        }
+        InProcessBackends.flush(0);
+
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void shrinksAfterTheCooldown() throws Exception {
+        ChannelPool pool = pool(3, ChannelStrategy.ROUND_ROBIN, ElasticConfig.create()
+                .minConnections(2).maxConnections(3).cooldown(100));
+        ManagedChannel newest = pool.get(2);
+
+        InProcessBackends.flush(100);
+        assertEquals(2, pool.size());
+        InProcessBackends.flush(ChannelPool.DRAIN_DELAY);
+        assertTrue(newest.isShutdown());
+        // never below minConnections, however many checks ran
+        InProcessBackends.flush(200);
+
+        assertEquals(2, pool.size());
+        assertFalse(pool.get(1).isShutdown());
+    }
+
+    @Test
+    public void retiredChannelDrainsItsCalls() throws Exception {
+        ChannelPool pool = pool(2, ChannelStrategy.ROUND_ROBIN, ElasticConfig.create()
+                .maxConnections(2).maxStreamsPerChannel(4).cooldown(100));
+        ManagedChannel retired = pool.get(1);
+        assertEquals(0, pool.acquire());
+        pool.release(0);
+        // a call on the newest channel, not enough load to keep the pool from shrinking
+        assertEquals(1, pool.acquire());
+
+        InProcessBackends.flush(100);
+        assertEquals(1, pool.size());
+        // the first drain check finds the call
+        InProcessBackends.flush(ChannelPool.DRAIN_DELAY);
+        assertFalse(retired.isShutdown());
+
+        pool.release(1);
+        InProcessBackends.flush(ChannelPool.DRAIN_DELAY);
+        assertTrue(retired.isShutdown());
+    }
+
+    @Test
+    public void picksOnlyAmongTheSizeTheyAreGiven() {
+        for (ChannelStrategy strategy : ChannelStrategy.values()) {
+            // the pool shrank to 2 after the caller read its size
+            ChannelPool pool = pool(8, strategy, ElasticConfig.create().maxConnections(8).cooldown(60000));
+            // calls on the first two channels only, a pick looking past them would find idle ones
+            while (pool.getInFlight(0) == 0 || pool.getInFlight(1) == 0) {
+                int index = pool.acquire();
+                if (index >= 2) {
+                    pool.release(index);
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                int index = strategy.pick(pool, 2);
+                assertTrue(strategy + " picked " + index, index >= 0 && index < 2);
+            }
+        }
+    }
+
+    @Test
+    public void picksStayInThePoolDuringShrinks() throws Exception {
+        for (ChannelStrategy strategy : ChannelStrategy.values()) {
+            ChannelPool pool = pool(8, strategy, ElasticConfig.create()
+                    .maxConnections(8).maxStreamsPerChannel(1000).cooldown(20));
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            CountDownLatch done = new CountDownLatch(4);
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        while (pool.size() > 1 && failure.get() == null) {
+                            int index = pool.acquire();
+                            if (index < 0 || index >= pool.capacity()) {
+                                throw new AssertionError(strategy + " picked " + index);
+                            }
+                            pool.release(index);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            assertTrue(strategy + " did not shrink", done.await(5, TimeUnit.SECONDS));
+            if (failure.get() != null) {
+                throw new AssertionError(strategy + " failed", failure.get());
+            }
+            for (int i = 0; i < pool.capacity(); i++) {
+                assertEquals(0, pool.getInFlight(i));
+            }
+        }
+    }
+
+    private ChannelPool pool(int connections, ChannelStrategy strategy, ElasticConfig.Builder builder) {
+        ElasticConfig elastic = builder.build();
+        elastic.validate();
+        ManagedChannel[] channels = new ManagedChannel[connections];
+        for (int i = 0; i < connections; i++) {
+            channels[i] = channel();
+        }
+        ChannelPool pool = new ChannelPool("test", "in-process", channels, strategy, null, null, elastic, this::channel);
+        pools.add(pool);
+        return pool;
+    }
+
+    private synchronized ManagedChannel channel() {
+        ManagedChannel channel = InProcessBackends.idleChannel();
+        built.add(channel);
+        return channel;
+    }
+}
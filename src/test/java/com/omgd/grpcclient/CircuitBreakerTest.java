@@ -0,0 +1,89 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    private final RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+
+    @Test
+    public void opensAfterBreakerFailures() {
+        CircuitBreaker breaker = breaker(3, 60000, 1);
+
+        breaker.onResult(true);
+        breaker.onResult(true);
+        assertTrue(breaker.allow());
+        breaker.onResult(true);
+
+        assertFalse(breaker.allow());
+        assertEquals(Collections.singletonList("open"), instrumentation.events);
+    }
+
+    @Test
+    public void successEndsTheRunOfFailures() {
+        CircuitBreaker breaker = breaker(3, 60000, 1);
+
+        breaker.onResult(true);
+        breaker.onResult(true);
+        breaker.onResult(false);
+        breaker.onResult(true);
+        breaker.onResult(true);
+
+        assertTrue(breaker.allow());
+        assertTrue(instrumentation.events.isEmpty());
+    }
+
+    @Test
+    public void halfOpenProbesCloseTheBreaker() throws Exception {
+        CircuitBreaker breaker = breaker(1, 50, 2);
+        breaker.onResult(true);
+        assertFalse(breaker.allow());
+
+        Thread.sleep(60);
+        // halfOpenCalls probes go through, the calls after them wait for their outcome
+        assertTrue(breaker.allow());
+        assertTrue(breaker.allow());
+        assertFalse(breaker.allow());
+        breaker.onResult(false);
+        assertFalse(breaker.allow());
+        breaker.onResult(false);
+
+        assertTrue(breaker.allow());
+        assertTrue(breaker.allow());
+        assertTrue(breaker.allow());
+        assertEquals(Arrays.asList("open", "close"), instrumentation.events);
+    }
+
+    @Test
+    public void failedProbeReopensTheBreaker() throws Exception {
+        CircuitBreaker breaker = breaker(1, 50, 2);
+        breaker.onResult(true);
+        Thread.sleep(60);
+        assertTrue(breaker.allow());
+
+        breaker.onResult(true);
+
+        // open for a whole breakerOpenTime again, then a new round of probes
+        assertFalse(breaker.allow());
+        Thread.sleep(60);
+        assertTrue(breaker.allow());
+        // reopening is no change for the instrumentation, the breaker never closed
+        assertEquals(Collections.singletonList("open"), instrumentation.events);
+    }
+
+    private CircuitBreaker breaker(int failures, int openTime, int halfOpenCalls) {
+        HealthConfig config = HealthConfig.create()
+                .breakerFailures(failures)
+                .breakerOpenTime(openTime)
+                .halfOpenCalls(halfOpenCalls)
+                .build();
+        config.validate();
+        return new CircuitBreaker("test", config, instrumentation);
+    }
+}
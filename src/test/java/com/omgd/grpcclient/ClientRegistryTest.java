@@ -0,0 +1,170 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.grpc.ManagedChannel;
+
+public class ClientRegistryTest {
+    private static final String NAME = "updated";
+
+    private final ClientRegistry registry = new ClientRegistry();
+    private InProcessBackends backends;
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+        if (backends != null) {
+            backends.shutdown();
+        }
+    }
+
+    @Test
+    public void schemaOnlyUpdateKeepsThePool() throws Exception {
+        backends = new InProcessBackends(InProcessBackends.Behaviour.HOLD);
+        registry.registerClient(config(backends.address(0), InProcessBackends.proto()));
+        ChannelPool pool = registry.getHandle(NAME).getChannelPool();
+        ManagedChannel first = pool.get(0);
+        ManagedChannel second = pool.get(1);
+        CallPlan oldPlan = registry.getPlan(NAME, InProcessBackends.API);
+        Client client = client();
+        CompletableFuture<Response> held = client.executeAsync();
+        assertEquals("call 0", backends.nextEvent());
+
+        // a new proto, with transport and health settings that are equal but not the same instances
+        registry.updateClient(config(backends.address(0), InProcessBackends.proto() + "\nmessage Extra {\n  optional string id = 1;\n}"));
+
+        assertTrue(oldPlan.isRetired());
+        assertSame(pool, registry.getHandle(NAME).getChannelPool());
+        assertSame(first, pool.get(0));
+        assertSame(second, pool.get(1));
+        // the call started before the update is still counted in flight on the pool
+        assertEquals(1, pool.getInFlight(0) + pool.getInFlight(1));
+        backends.release(0, InProcessBackends.Behaviour.REPLY);
+        assertEquals(Code.OK, held.get(5, TimeUnit.SECONDS).getCode());
+        assertEquals(0, pool.getInFlight(0) + pool.getInFlight(1));
+        assertEquals(Code.OK, client.execute().getCode());
+        assertFalse(first.isShutdown() || second.isShutdown());
+    }
+
+    @Test
+    public void schemaOnlyUpdateKeepsAnElasticPool() throws Exception {
+        backends = new InProcessBackends(InProcessBackends.Behaviour.REPLY);
+        registry.registerClient(builder(backends.address(0), InProcessBackends.proto())
+                .elastic(ElasticConfig.create().maxConnections(4).cooldown(60000).build()).build());
+        ChannelPool pool = registry.getHandle(NAME).getChannelPool();
+
+        registry.updateClient(builder(backends.address(0), InProcessBackends.proto() + "\nmessage Extra {\n  optional string id = 1;\n}")
+                .elastic(ElasticConfig.create().maxConnections(4).cooldown(60000).build()).build());
+
+        assertSame(pool, registry.getHandle(NAME).getChannelPool());
+        assertEquals(Code.OK, client().execute().getCode());
+        // other elastic bounds make a new pool
+        registry.updateClient(builder(backends.address(0), InProcessBackends.proto())
+                .elastic(ElasticConfig.create().maxConnections(8).cooldown(60000).build()).build());
+        assertNotSame(pool, registry.getHandle(NAME).getChannelPool());
+    }
+
+    @Test
+    public void addressChangeLetsCallsFinishOnTheOldPool() throws Exception {
+        backends = new InProcessBackends(InProcessBackends.Behaviour.HOLD, InProcessBackends.Behaviour.REPLY);
+        registry.registerClient(config(backends.address(0), InProcessBackends.proto()));
+        ChannelPool oldPool = registry.getHandle(NAME).getChannelPool();
+        Client client = client();
+        CompletableFuture<Response> held = client.executeAsync();
+        assertEquals("call 0", backends.nextEvent());
+
+        registry.updateClient(config(backends.address(1), InProcessBackends.proto()));
+
+        assertNotSame(oldPool, registry.getHandle(NAME).getChannelPool());
+        // new calls go to the new address while the old one still holds its call
+        assertEquals(Code.OK, client.execute().getCode());
+        assertEquals(1, backends.calls(1));
+        // the old pool is shut down after the drain delay, the call it already started runs to the end
+        InProcessBackends.flush(ClientRegistry.DRAIN_DELAY);
+        assertTrue(oldPool.get(0).isShutdown());
+        assertFalse(held.isDone());
+        backends.release(0, InProcessBackends.Behaviour.REPLY);
+        assertEquals(Code.OK, held.get(5, TimeUnit.SECONDS).getCode());
+        assertEquals(1, backends.calls(0));
+    }
+
+    @Test
+    public void callsDuringUpdatesNeverUseARetiredPlan() throws Exception {
+        backends = new InProcessBackends(InProcessBackends.Behaviour.REPLY, InProcessBackends.Behaviour.REPLY);
+        registry.registerClient(config(backends.address(0), InProcessBackends.proto()));
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger calls = new AtomicInteger();
+        AtomicReference<Response> failed = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            // built before the updates, every client rebinds to the current plan
+            Client client = client();
+            Thread thread = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        Response response = client.execute();
+                        if (response.getCode() != Code.OK) {
+                            failed.compareAndSet(null, response);
+                        }
+                        calls.incrementAndGet();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // every swap waits for calls on the new plan, then for the old pool to be shut down
+        for (int i = 1; i <= 3; i++) {
+            int swapped = calls.get();
+            registry.updateClient(config(backends.address(i % 2), InProcessBackends.proto()));
+            InProcessBackends.await(() -> calls.get() > swapped + 100);
+            InProcessBackends.flush(ClientRegistry.DRAIN_DELAY);
+        }
+        int drained = calls.get();
+        InProcessBackends.await(() -> calls.get() > drained + 100);
+        running.set(false);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(failed.get());
+        assertTrue(backends.calls(0) > 0 && backends.calls(1) > 0);
+    }
+
+    private static ClientConfig config(String address, String proto) {
+        return builder(address, proto).build();
+    }
+
+    // a pool of two channels, with its transport and health settings built anew every time
+    private static ClientConfig.Builder builder(String address, String proto) {
+        return ClientConfig.create()
+                .name(NAME)
+                .protoFileContent(proto)
+                .address(address)
+                .connections(2)
+                .warmUp(WarmUp.NONE)
+                .transport(TransportConfig.create().keepAliveTime(30000).build())
+                .health(HealthConfig.create().consecutiveFailures(100).build());
+    }
+
+    private Client client() {
+        return Client.create().name(NAME).api(InProcessBackends.API).paramsJson("{\"name\":\"a\"}").timeout(5000)
+                .registry(registry).build();
+    }
+}
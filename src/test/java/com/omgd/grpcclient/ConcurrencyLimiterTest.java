@@ -0,0 +1,196 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+    private InProcessBackends backends;
+    private ClientRegistry registry;
+
+    @After
+    public void tearDown() {
+        if (registry != null) {
+            registry.shutdown();
+        }
+        if (backends != null) {
+            backends.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsOverTheLimitWithoutAQueue() {
+        ConcurrencyLimiter limiter = limiter(LimiterConfig.create().initialLimit(2).minLimit(2).maxLimit(2));
+
+        assertTrue(limiter.acquire(0));
+        assertTrue(limiter.acquire(1000));
+        assertFalse(limiter.acquire(0));
+        // no queue, a call willing to wait is rejected all the same
+        assertFalse(limiter.acquire(1000));
+
+        assertEquals(2, limiter.getRejected());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void queuedCallGetsTheFreedSlot() throws Exception {
+        ConcurrencyLimiter limiter = limiter(LimiterConfig.create().initialLimit(1).minLimit(1).maxLimit(1).maxQueue(1));
+        long start = System.nanoTime();
+        assertTrue(limiter.acquire(0));
+        CountDownLatch acquired = waiter(limiter);
+        InProcessBackends.await(() -> limiter.getQueued() == 1);
+
+        // the queue is full, the next call does not wait
+        assertFalse(limiter.acquire(60000));
+        assertEquals(1, limiter.getRejected());
+        limiter.release(start, Code.ERROR);
+
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void queuedCallIsRejectedAfterItsWait() {
+        ConcurrencyLimiter limiter = limiter(LimiterConfig.create().initialLimit(1).minLimit(1).maxLimit(1).maxQueue(1));
+        assertTrue(limiter.acquire(0));
+
+        assertFalse(limiter.acquire(20));
+
+        assertEquals(1, limiter.getRejected());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void aimdBacksOffOnTimeoutsAndGrowsWhileSaturated() {
+        ConcurrencyLimiter limiter = limiter(LimiterConfig.create().algorithm(LimiterConfig.Algorithm.AIMD).initialLimit(10));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(0));
+        }
+
+        limiter.release(System.nanoTime(), Code.TIMEOUT);
+        assertEquals(9, limiter.getLimit());
+
+        // 9 in flight at every release, each OK adds 1 / limit
+        for (int i = 0; i < 20; i++) {
+            limiter.release(System.nanoTime(), Code.OK);
+            assertTrue(limiter.acquire(0));
+        }
+        assertTrue(limiter.getLimit() >= 10);
+        // errors say nothing about load
+        int limit = limiter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            limiter.release(System.nanoTime(), Code.ERROR);
+            assertTrue(limiter.acquire(0));
+        }
+        assertEquals(limit, limiter.getLimit());
+    }
+
+    @Test
+    public void unusedLimitDoesNotGrow() {
+        ConcurrencyLimiter limiter = limiter(LimiterConfig.create().algorithm(LimiterConfig.Algorithm.AIMD).initialLimit(10));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.acquire(0));
+            limiter.release(System.nanoTime(), Code.OK);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void gradientShrinksWhenLatencyRises() {
+        ConcurrencyLimiter limiter = limiter(LimiterConfig.create().algorithm(LimiterConfig.Algorithm.GRADIENT).initialLimit(20));
+        // enough calls in flight for every sample to count
+        for (int i = 0; i < 12; i++) {
+            assertTrue(limiter.acquire(0));
+        }
+        release(limiter, 1);
+        int limit = limiter.getLimit();
+        assertTrue(limit >= 20);
+
+        for (int i = 0; i < 5; i++) {
+            release(limiter, 10);
+        }
+
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void higherLimitAdmitsEveryQueuedCallItMakesRoomFor() throws Exception {
+        ConcurrencyLimiter limiter = limiter(LimiterConfig.create().algorithm(LimiterConfig.Algorithm.AIMD)
+                .initialLimit(1).maxQueue(2));
+        long start = System.nanoTime();
+        assertTrue(limiter.acquire(0));
+        CountDownLatch first = waiter(limiter);
+        CountDownLatch second = waiter(limiter);
+        InProcessBackends.await(() -> limiter.getQueued() == 2);
+
+        // one slot freed, one more from the limit going 1 -> 2: both queued calls get in
+        limiter.release(start, Code.OK);
+
+        assertEquals(2, limiter.getLimit());
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void clientCallOverTheLimitIsRejected() throws Exception {
+        backends = new InProcessBackends(InProcessBackends.Behaviour.HOLD);
+        registry = new ClientRegistry();
+        registry.registerClient(ClientConfig.create()
+                .name("limited")
+                .protoFileContent(InProcessBackends.proto())
+                .address(backends.address(0))
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .limiter(LimiterConfig.create().initialLimit(1).minLimit(1).maxLimit(1).build())
+                .build());
+        Client client = Client.create().name("limited").api(InProcessBackends.API).paramsJson("{\"name\":\"a\"}")
+                .timeout(5000).registry(registry).build();
+
+        CompletableFuture<Response> held = client.executeAsync();
+        assertEquals("call 0", backends.nextEvent());
+        Response rejected = client.execute();
+        backends.release(0, InProcessBackends.Behaviour.REPLY);
+
+        assertEquals(Code.REJECTED, rejected.getCode());
+        assertEquals(Code.OK, held.get(5, TimeUnit.SECONDS).getCode());
+        assertEquals(1, registry.getLimiter("limited", InProcessBackends.API).getRejected());
+        // only the call that got a slot reached the backend
+        assertEquals(1, backends.totalCalls());
+    }
+
+    private static ConcurrencyLimiter limiter(LimiterConfig.Builder builder) {
+        LimiterConfig config = builder.build();
+        config.validate();
+        return new ConcurrencyLimiter(config);
+    }
+
+    // OK release of a call that took the given time
+    private static void release(ConcurrencyLimiter limiter, long rttMillis) {
+        assertTrue(limiter.acquire(0));
+        limiter.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(rttMillis), Code.OK);
+    }
+
+    // a call waiting in the queue, the latch opens once it has a slot
+    private static CountDownLatch waiter(ConcurrencyLimiter limiter) {
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            if (limiter.acquire(60000)) {
+                acquired.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return acquired;
+    }
+}
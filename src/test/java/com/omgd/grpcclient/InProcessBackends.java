@@ -0,0 +1,276 @@
+package com.omgd.grpcclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+
+import io.grpc.Context;
+import io.grpc.HandlerRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * one in-process server per pooled channel, each answering the unary calls of example.proto the way the test sets;
+ * every backend also listens on a loopback port for the clients a registry connects by {@link #address(int)}.
+ * backends log what happens to calls in order, as "call 0", "reply 1", "fail 0" or "cancel 0" with the index of the
+ * backend, so tests check the sequence of events instead of timings
+ */
+final class InProcessBackends {
+    static final String API = "ExampleServer/info";
+
+    /**
+     * what a backend does with a call
+     */
+    enum Behaviour {
+        // echoes the request, an InfoRequest is a valid InfoReply
+        REPLY,
+        // fails with UNAVAILABLE
+        UNAVAILABLE,
+        // never answers, the call ends with its deadline or a cancel
+        HANG,
+        // keeps the call until the test answers it with release
+        HOLD
+    }
+
+    private final List<Server> servers = new ArrayList<>();
+    private final List<Server> listeners = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final Behaviour[] behaviours;
+    private final AtomicInteger[] calls;
+    private final AtomicInteger[] cancels;
+    private final List<ConcurrentLinkedQueue<Held>> held = new ArrayList<>();
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    // nanos left until the deadline of each call when it arrived, in arrival order
+    private final List<Long> deadlines = new CopyOnWriteArrayList<>();
+
+    InProcessBackends(Behaviour... behaviours) throws IOException {
+        this.behaviours = behaviours.clone();
+        this.calls = new AtomicInteger[behaviours.length];
+        this.cancels = new AtomicInteger[behaviours.length];
+        for (int i = 0; i < behaviours.length; i++) {
+            calls[i] = new AtomicInteger();
+            cancels[i] = new AtomicInteger();
+            String name = "backend-" + i + "-" + UUID.randomUUID();
+            held.add(new ConcurrentLinkedQueue<>());
+            servers.add(InProcessServerBuilder.forName(name).fallbackHandlerRegistry(registry(i)).build().start());
+            channels.add(InProcessChannelBuilder.forName(name).build());
+            listeners.add(NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                    .fallbackHandlerRegistry(registry(i)).build().start());
+        }
+    }
+
+    private HandlerRegistry registry(int backend) {
+        return new HandlerRegistry() {
+            @Override
+            public ServerMethodDefinition<?, ?> lookupMethod(String methodName, String authority) {
+                MethodDescriptor<byte[], byte[]> method = MethodDescriptor.<byte[], byte[]>newBuilder()
+                        .setType(MethodDescriptor.MethodType.UNARY)
+                        .setFullMethodName(methodName)
+                        .setRequestMarshaller(new BytesMarshaller())
+                        .setResponseMarshaller(new BytesMarshaller())
+                        .build();
+                ServerCallHandler<byte[], byte[]> handler = ServerCalls.asyncUnaryCall((request, observer) -> answer(backend, request, observer));
+                return ServerMethodDefinition.create(method, handler);
+            }
+        };
+    }
+
+    private void answer(int backend, byte[] request, StreamObserver<byte[]> observer) {
+        calls[backend].incrementAndGet();
+        events.add("call " + backend);
+        if (Context.current().getDeadline() != null) {
+            deadlines.add(Context.current().getDeadline().timeRemaining(TimeUnit.NANOSECONDS));
+        }
+        // cancelled by the client or past its deadline, not run when the backend answered
+        ((ServerCallStreamObserver<byte[]>) observer).setOnCancelHandler(() -> {
+            cancels[backend].incrementAndGet();
+            events.add("cancel " + backend);
+        });
+        if (behaviours[backend] == Behaviour.HOLD) {
+            held.get(backend).add(new Held(request, observer));
+        } else {
+            respond(backend, behaviours[backend], request, observer);
+        }
+    }
+
+    private void respond(int backend, Behaviour behaviour, byte[] request, StreamObserver<byte[]> observer) {
+        switch (behaviour) {
+            case REPLY:
+                events.add("reply " + backend);
+                observer.onNext(request);
+                observer.onCompleted();
+                break;
+            case UNAVAILABLE:
+                events.add("fail " + backend);
+                observer.onError(Status.UNAVAILABLE.withDescription("backend " + backend + " is down").asRuntimeException());
+                break;
+            default:
+                break;
+        }
+    }
+
+    // next event of the backends, waits for it
+    String nextEvent() throws InterruptedException {
+        String event = events.poll(5, TimeUnit.SECONDS);
+        if (event == null) {
+            throw new AssertionError("no event of the backends");
+        }
+        return event;
+    }
+
+    List<Long> deadlines() {
+        return deadlines;
+    }
+
+    void setBehaviour(int backend, Behaviour behaviour) {
+        behaviours[backend] = behaviour;
+    }
+
+    // answers the held calls of the backend and the ones after them the given way
+    void release(int backend, Behaviour behaviour) {
+        behaviours[backend] = behaviour;
+        for (Held call; (call = held.get(backend).poll()) != null; ) {
+            respond(backend, behaviour, call.request, call.observer);
+        }
+    }
+
+    // calls the backend holds
+    int held(int backend) {
+        return held.get(backend).size();
+    }
+
+    // target of the loopback port of the backend
+    String address(int backend) {
+        return "127.0.0.1:" + listeners.get(backend).getPort();
+    }
+
+    ManagedChannel[] channels() {
+        return channels.toArray(new ManagedChannel[0]);
+    }
+
+    // calls the backend received
+    int calls(int backend) {
+        return calls[backend].get();
+    }
+
+    int totalCalls() {
+        int total = 0;
+        for (AtomicInteger count : calls) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    // calls that ended without an answer of the backend: cancelled by the client or past their deadline
+    int cancels(int backend) {
+        return cancels[backend].get();
+    }
+
+    void shutdown() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+        listeners.forEach(Server::shutdownNow);
+    }
+
+    // channel to no server, for pools that are never called
+    static ManagedChannel idleChannel() {
+        return InProcessChannelBuilder.forName("idle-" + UUID.randomUUID()).build();
+    }
+
+    /**
+     * barrier of the background tasks: returns once every task {@link ClientScheduler} runs up to delayMillis from now
+     * ran, the scheduler runs one task at a time in the order they are due
+     */
+    static void flush(long delayMillis) throws Exception {
+        ClientScheduler.schedule(() -> {
+        }, delayMillis, TimeUnit.MILLISECONDS).get();
+    }
+
+    // waits for a condition a grpc thread makes true, for what no scheduler task does
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("condition not met in time");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * plan of {@link #API} of example.proto on the pool, compiled through a registry of its own: the client it registers
+     * there only lends its schema
+     */
+    static CallPlan plan(ChannelPool channelPool, RetryPolicy retryPolicy) throws IOException {
+        ClientRegistry registry = new ClientRegistry();
+        registry.registerClient(ClientConfig.create()
+                .name("schema")
+                .protoFileContent(proto())
+                .address("in-process")
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .build());
+        try {
+            SchemaCache.Entry schema = registry.getHandle("schema").getSchema();
+            return CallPlan.compile(schema.getSchema(), API, schema.getServices().get(API), channelPool, null, retryPolicy,
+                    null, null, null);
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    static String proto() throws IOException {
+        return Resources.toString(Resources.getResource("example.proto"), StandardCharsets.UTF_8);
+    }
+
+    private static final class Held {
+        private final byte[] request;
+        private final StreamObserver<byte[]> observer;
+
+        Held(byte[] request, StreamObserver<byte[]> observer) {
+            this.request = request;
+            this.observer = observer;
+        }
+    }
+
+    private static final class BytesMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return ByteStreams.toByteArray(stream);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
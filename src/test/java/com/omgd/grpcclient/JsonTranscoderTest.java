@@ -0,0 +1,599 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldOptions;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.WireFormat;
+import com.google.protobuf.util.JsonFormat;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// every result of the transcoder is what JsonFormat makes of the same input, null hands the input to JsonFormat
+public class JsonTranscoderTest {
+    private static final JsonFormat.Parser PARSER = JsonFormat.parser().ignoringUnknownFields();
+    private static final JsonFormat.Printer PRINTER = JsonFormat.printer().includingDefaultValueFields();
+
+    private static ClientRegistry registry;
+    // parity.Scalars, every scalar type singular and repeated
+    private static Descriptor scalars;
+    // legacy.Legacy, a proto2 message with a closed enum
+    private static Descriptor legacy;
+    private static FileDescriptor special;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        registry = new ClientRegistry();
+        // no call is made, the addresses are never connected
+        registry.registerClient(ClientConfig.create()
+                .name("example")
+                .protoFileContent(InProcessBackends.proto())
+                .address("127.0.0.1:1")
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .build());
+        registry.registerClient(ClientConfig.create()
+                .name("event")
+                .protoFileContent(resource("EventService.proto"))
+                .address("127.0.0.1:1")
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .build());
+        scalars = parityFile().findMessageTypeByName("Scalars");
+        legacy = legacyFile().findMessageTypeByName("Legacy");
+        special = specialFile();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    public void exampleProtoMatchesJsonFormat() throws Exception {
+        CallPlan plan = registry.getPlan("example", InProcessBackends.API);
+        Descriptor request = plan.getRequestDescriptor();
+        Descriptor reply = plan.getReplyDescriptor();
+
+        assertTrue(parse(request, "{\"name\":\"a\",\"title\":\"b\"}"));
+        assertTrue(parse(request, " {\n \"name\" : \"a\" ,\t\"title\":\"\" } \n"));
+        assertTrue(parse(request, "{}"));
+        assertTrue(parse(request, "{\"name\":null,\"title\":\"b\"}"));
+        assertTrue(parse(reply, "{\"code\":\"c\",\"msg\":\"m\",\"info\":{\"id\":\"1\",\"name\":\"n\",\"title\":\"t\"}}"));
+        assertTrue(parse(reply, "{\"code\":\"c\",\"info\":{}}"));
+        assertTrue(parse(reply, "{\"info\":null}"));
+        // keys in another order give the same message, the fields in the order they were given
+        assertTrue(parseUnordered(reply, "{\"info\":{\"title\":\"t\",\"id\":\"1\"},\"msg\":\"m\",\"code\":\"c\"}"));
+
+        assertTrue(print(request, new byte[0]));
+        assertTrue(print(request, wire(request, "{\"name\":\"a\",\"title\":\"b\"}")));
+        assertTrue(print(reply, wire(reply, "{\"code\":\"c\",\"info\":{\"id\":\"1\"}}")));
+        assertTrue(print(reply, wire(reply, "{\"info\":{}}")));
+        // the same plans hold transcoders of these types
+        assertNotNull(plan.getRequestTranscoder());
+        assertNotNull(plan.getReplyTranscoder());
+    }
+
+    @Test
+    public void eventServiceProtoMatchesJsonFormat() throws Exception {
+        CallPlan plan = registry.getPlan("event", "EventService/process");
+        Descriptor event = plan.getRequestDescriptor();
+
+        assertTrue(parse(event, "{\"payload\":\"{\\\"nested\\\": [1, 2]}\"}"));
+        assertTrue(parse(event, "{\"payload\":\"\"}"));
+        assertTrue(parse(event, "{\"payload\":\"" + repeat("x", 300) + "\"}"));
+        assertTrue(print(event, wire(event, "{\"payload\":\"" + repeat("y", 20000) + "\"}")));
+        assertTrue(print(event, wire(event, "{\"payload\":\"<a href='x'>&amp;</a>\"}")));
+    }
+
+    @Test
+    public void stringEscapesMatchJsonFormat() throws Exception {
+        String[] values = {
+                "\\\"\\\\\\/\\b\\f\\n\\r\\t",
+                "\\u0041\\u00e9\\u4e2d\\u0000\\u001f\\u007f",
+                // a surrogate pair, escaped and raw
+                "\\ud83d\\ude00",
+                "\ud83d\ude00 \u00e9\u4e2d",
+                // gson escapes these when printing
+                "<script>&'=</script>",
+                "\u2028\u2029\\u2028",
+                "\u007f\u0080\u00ff",
+        };
+        for (String value : values) {
+            String json = "{\"str\":\"" + value + "\"}";
+            assertTrue(json, parse(scalars, json));
+            assertTrue(json, print(scalars, wire(scalars, json)));
+        }
+        // lone surrogates, either the same bytes or left to JsonFormat
+        parse(scalars, "{\"str\":\"\\ud83d\"}");
+        parse(scalars, "{\"str\":\"\\ude00x\"}");
+        parse(scalars, "{\"str\":\"\ud83d\"}");
+        // raw control characters and broken escapes
+        assertFalse(parse(scalars, "{\"str\":\"a\nb\"}"));
+        assertFalse(parse(scalars, "{\"str\":\"\u0001\"}"));
+        assertFalse(parse(scalars, "{\"str\":\"\\x41\"}"));
+        assertFalse(parse(scalars, "{\"str\":\"\\u12\"}"));
+        assertFalse(parse(scalars, "{\"str\":\"open}"));
+
+        // invalid UTF-8 in a proto3 string is rejected by both, in any occurrence
+        assertFalse(print(scalars, bytes(14, new byte[]{(byte) 0xc3})));
+        assertFalse(print(scalars, concat(bytes(14, new byte[]{(byte) 0xff}), bytes(14, new byte[]{'a'}))));
+        // a 4 byte sequence prints as a surrogate pair
+        assertTrue(print(scalars, bytes(14, "\ud83d\ude00<&>".getBytes("UTF-8"))));
+        // bytes are base64 in and out
+        assertTrue(parse(scalars, "{\"by\":\"AAEC/w==\"}"));
+        assertTrue(print(scalars, bytes(15, new byte[]{0, 1, 2, (byte) 0xff, '<'})));
+        parse(scalars, "{\"by\":\"AAEC_w\"}");
+        parse(scalars, "{\"by\":\"not base64!\"}");
+    }
+
+    @Test
+    public void int64MatchesJsonFormatQuotedOrNot() throws Exception {
+        String[] values = {
+                "0", "1", "-1", "\"7\"", "\"-7\"",
+                "9223372036854775807", "\"9223372036854775807\"",
+                "-9223372036854775808", "\"-9223372036854775808\"",
+                "9223372036854775808", "\"-9223372036854775809\"",
+                "1e3", "\"1e3\"", "1.0", "1.5", "-0", "01", "\"\"", "\" 1\"", "true", "9223372036854775807.0",
+        };
+        for (String value : values) {
+            for (String field : new String[]{"i64", "s64", "sf64"}) {
+                parse(scalars, "{\"" + field + "\":" + value + "}");
+            }
+        }
+        String[] unsigned = {
+                "0", "18446744073709551615", "\"18446744073709551615\"", "18446744073709551616", "\"9223372036854775808\"",
+                "-1", "\"-1\"", "1e19", "1.5",
+        };
+        for (String value : unsigned) {
+            for (String field : new String[]{"u64", "f64"}) {
+                parse(scalars, "{\"" + field + "\":" + value + "}");
+            }
+        }
+        String[] int32 = {
+                "2147483647", "-2147483648", "2147483648", "-2147483649", "\"2147483647\"", "4294967295", "4294967296", "-1", "1e2", "1.5",
+        };
+        for (String value : int32) {
+            for (String field : new String[]{"i32", "s32", "sf32", "u32", "f32"}) {
+                parse(scalars, "{\"" + field + "\":" + value + "}");
+            }
+        }
+        assertTrue(parse(scalars, "{\"i32\":-2147483648,\"i64\":\"-9223372036854775808\",\"u32\":4294967295,\"u64\":\"18446744073709551615\","
+                + "\"s32\":-2147483648,\"s64\":\"-9223372036854775808\",\"f32\":4294967295,\"f64\":\"18446744073709551615\","
+                + "\"sf32\":-2147483648,\"sf64\":\"-9223372036854775808\"}"));
+
+        // printed quoted, unsigned values above the signed range included
+        assertTrue(print(scalars, wire(scalars, "{\"i64\":\"-9223372036854775808\",\"u64\":\"18446744073709551615\","
+                + "\"s64\":\"9223372036854775807\",\"f64\":\"18446744073709551615\",\"sf64\":\"-1\"}")));
+        assertTrue(print(scalars, wire(scalars, "{\"i32\":-1,\"u32\":4294967295,\"s32\":-2147483648,\"f32\":4294967295,\"sf32\":-2147483648}")));
+        // an int32 written as a 10 byte varint by another writer
+        assertTrue(print(scalars, varint(1, -5L)));
+    }
+
+    @Test
+    public void floatingPointMatchesJsonFormat() throws Exception {
+        String[] values = {
+                "0", "-0", "-0.0", "0.0", "1.5", "\"1.5\"", "NaN", "\"NaN\"", "\"Infinity\"", "\"-Infinity\"", "Infinity",
+                "1e308", "1.7976931348623157e308", "1e309", "-1e309", "4.9e-324", "1e-400", "1E5", "1e+5", "\"1e-5\"",
+                "3.4028235e38", "3.4028236e38", "3.5e38", "-3.5e38", "1.4e-45", "123456789012345678901234567890", ".5", "5.", "\"\"",
+        };
+        for (String value : values) {
+            for (String field : new String[]{"fl", "db"}) {
+                parse(scalars, "{\"" + field + "\":" + value + "}");
+            }
+        }
+        assertTrue(parse(scalars, "{\"fl\":\"NaN\",\"db\":\"-Infinity\"}"));
+        assertTrue(parse(scalars, "{\"fl\":-0.0,\"db\":0.0}"));
+        // JsonFormat drops the sign of a double zero, the range check rounds differently near MAX_VALUE
+        assertFalse(parse(scalars, "{\"db\":-0.0}"));
+        assertFalse(parse(scalars, "{\"db\":1.7976931348623158e308}"));
+        assertTrue(parse(scalars, "{\"fl\":1e-5,\"db\":1.25E300}"));
+
+        double[] doubles = {0.0, -0.0, 1.5, 1e-5, 1e7, 1.0E-7, 123456789.125, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.1 + 0.2};
+        for (double value : doubles) {
+            ByteArrayOutputStream wire = new ByteArrayOutputStream();
+            CodedOutputStream output = CodedOutputStream.newInstance(wire);
+            output.writeFloat(11, (float) value);
+            output.writeDouble(12, value);
+            output.flush();
+            assertTrue(String.valueOf(value), print(scalars, wire.toByteArray()));
+        }
+        assertTrue(print(scalars, wire(scalars, "{\"doubles\":[0, -0.0, \"NaN\", 1e300, 2.5]}")));
+    }
+
+    @Test
+    public void enumsMatchJsonFormatByNameOrNumber() throws Exception {
+        assertTrue(parse(scalars, "{\"color\":\"GREEN\"}"));
+        assertTrue(parse(scalars, "{\"color\":2}"));
+        assertTrue(parse(scalars, "{\"color\":\"RED\"}"));
+        assertTrue(parse(scalars, "{\"color\":0}"));
+        // an open enum keeps unknown numbers
+        assertTrue(parse(scalars, "{\"color\":7}"));
+        assertTrue(parse(scalars, "{\"colors\":[\"RED\",2,9,\"BLUE\"]}"));
+        // unknown names are ignored like unknown fields
+        parse(scalars, "{\"color\":\"PURPLE\"}");
+        parse(scalars, "{\"colors\":[\"PURPLE\",\"GREEN\"]}");
+        parse(scalars, "{\"color\":\"2\"}");
+        parse(scalars, "{\"color\":1.0}");
+        parse(scalars, "{\"color\":2147483648}");
+        parse(scalars, "{\"color\":true}");
+        parse(scalars, "{\"color\":\"\\u0047REEN\"}");
+
+        assertTrue(print(scalars, varint(16, 1)));
+        assertTrue(print(scalars, varint(16, 7)));
+        assertTrue(print(scalars, varint(16, -1)));
+        assertTrue(print(scalars, concat(varint(21, 2), varint(21, 9))));
+
+        // a closed enum takes known values only, the others are unknown fields
+        assertTrue(parse(legacy, "{\"level\":\"HIGH\"}"));
+        assertTrue(parse(legacy, "{\"level\":1,\"levels\":[\"LOW\",1]}"));
+        parse(legacy, "{\"level\":5}");
+        parse(legacy, "{\"levels\":[5,1]}");
+        assertTrue(print(legacy, varint(1, 1)));
+        assertTrue(print(legacy, varint(1, 5)));
+        assertTrue(print(legacy, concat(varint(1, 1), varint(1, 5))));
+        assertTrue(print(legacy, concat(varint(2, 5), varint(2, 1))));
+        assertTrue(print(legacy, new byte[0]));
+    }
+
+    @Test
+    public void repeatedFieldsMatchJsonFormatPackedOrNot() throws Exception {
+        assertTrue(parse(scalars, "{\"packedInts\":[1,-2,3],\"unpackedInts\":[4,-5]}"));
+        assertTrue(parse(scalars, "{\"packed_ints\":[],\"unpacked_ints\":[]}"));
+        assertTrue(parse(scalars, "{\"names\":[\"a\",\"\",\"c\"],\"colors\":[],\"doubles\":[1.5]}"));
+        assertTrue(parse(scalars, "{\"packedInts\":null,\"children\":[{\"i32\":1},{},{\"children\":[{\"str\":\"x\"}]}]}"));
+        assertFalse(parse(scalars, "{\"packedInts\":[1,null]}"));
+        assertFalse(parse(scalars, "{\"packedInts\":1}"));
+        assertFalse(parse(scalars, "{\"packedInts\":[1,]}"));
+
+        // parsers take both forms of a packable field, printing does not depend on it
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(wire);
+        output.writeInt32(18, 1);
+        output.writeTag(18, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(2);
+        output.writeInt32NoTag(2);
+        output.writeInt32NoTag(3);
+        output.writeTag(19, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(2);
+        output.writeInt32NoTag(4);
+        output.writeInt32NoTag(5);
+        output.writeInt32(19, 6);
+        output.writeTag(22, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(0);
+        output.writeDouble(22, 1.5);
+        output.flush();
+        assertTrue(print(scalars, wire.toByteArray()));
+        assertTrue(print(scalars, wire(scalars, "{\"names\":[\"a\",\"b\"],\"children\":[{\"color\":1},{}]}")));
+        // a packed run cut short
+        assertFalse(print(scalars, new byte[]{(byte) 0x92, 0x01, 0x02, 0x01}));
+    }
+
+    @Test
+    public void unknownFieldsMatchJsonFormat() throws Exception {
+        assertTrue(parse(scalars, "{\"nope\":1,\"i32\":1,\"other\":{\"a\":[1,{\"b\":null},\"c\"],\"d\":true},\"str\":\"s\",\"last\":\"x\"}"));
+        assertTrue(parse(scalars, "{\"nope\":[[[]]],\"i32\":2,\"deep\":{\"x\":{\"y\":{\"z\":-1.5e3}}}}"));
+        assertTrue(parse(scalars, "{\"child\":{\"nope\":false,\"i64\":\"3\"}}"));
+        parse(scalars, "{\"nope\":[1,}");
+        parse(scalars, "{\"nope\":{\"a\":1,\"a\":2}}");
+
+        // every wire type of an unknown field is skipped
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(wire);
+        output.writeInt64(100, -1);
+        output.writeFixed64(101, 7);
+        output.writeString(102, "unknown");
+        output.writeFixed32(103, 9);
+        output.writeTag(104, WireFormat.WIRETYPE_START_GROUP);
+        output.writeInt32(1, 1);
+        output.writeTag(104, WireFormat.WIRETYPE_END_GROUP);
+        output.writeInt32(1, 42);
+        // a known number with a wire type it does not take
+        output.writeFixed32(14, 3);
+        output.flush();
+        assertTrue(print(scalars, wire.toByteArray()));
+        // truncated and broken unknown fields
+        assertFalse(print(scalars, new byte[]{(byte) 0xa2, 0x06, 0x05, 'a'}));
+        assertFalse(print(scalars, new byte[]{(byte) 0xa3, 0x06}));
+        assertFalse(print(scalars, new byte[]{0x07}));
+        assertFalse(print(scalars, new byte[]{0x00}));
+    }
+
+    @Test
+    public void everyScalarRoundTrips() throws Exception {
+        String json = "{\"i32\":-7,\"i64\":\"-70\",\"u32\":7,\"u64\":\"70\",\"s32\":-8,\"s64\":\"-80\",\"f32\":9,\"f64\":\"90\","
+                + "\"sf32\":-10,\"sf64\":\"-100\",\"fl\":1.25,\"db\":-2.5,\"b\":true,\"str\":\"s\",\"by\":\"Ynl0ZXM=\",\"color\":\"BLUE\","
+                + "\"child\":{\"b\":false,\"str\":\"c\",\"child\":{\"i32\":1}},\"packedInts\":[1],\"unpackedInts\":[2],\"names\":[\"n\"],"
+                + "\"colors\":[\"GREEN\"],\"doubles\":[0.5],\"children\":[{\"u32\":1}]}";
+
+        assertTrue(parse(scalars, json));
+        assertTrue(print(scalars, wire(scalars, json)));
+        // defaults are printed, explicit defaults are not written
+        assertTrue(parse(scalars, "{\"i32\":0,\"i64\":\"0\",\"b\":false,\"str\":\"\",\"by\":\"\",\"color\":\"RED\",\"fl\":0,\"db\":0.0}"));
+        assertTrue(print(scalars, new byte[0]));
+        // proto names and json names are aliases
+        assertTrue(parse(scalars, "{\"packed_ints\":[5],\"unpackedInts\":[6]}"));
+        parse(scalars, "{\"b\":\"true\"}");
+        parse(scalars, "{\"b\":1}");
+        parse(scalars, "{\"b\":True}");
+    }
+
+    @Test
+    public void specialTypesAreLeftToJsonFormat() {
+        for (String name : new String[]{"WithOneof", "WithMap", "WithTimestamp", "WithRequired", "WithGroup", "HoldsOneof", "HoldsMapValue"}) {
+            assertNull(name, JsonTranscoder.compile(special.findMessageTypeByName(name)));
+        }
+        assertNull(JsonTranscoder.compile(Timestamp.getDescriptor()));
+        // a recursive type is compiled once
+        assertNotNull(JsonTranscoder.compile(special.findMessageTypeByName("Plain")));
+        assertNotNull(JsonTranscoder.compile(scalars));
+    }
+
+    @Test
+    public void duplicateKeysAreLeftToJsonFormat() throws Exception {
+        assertFalse(parse(scalars, "{\"str\":\"a\",\"str\":\"b\"}"));
+        assertFalse(parse(scalars, "{\"packed_ints\":[1],\"packedInts\":[2]}"));
+        assertFalse(parse(scalars, "{\"i32\":1,\"str\":\"x\",\"i32\":1}"));
+        assertFalse(parse(scalars, "{\"child\":{\"i32\":1,\"i32\":2}}"));
+        assertFalse(parse(scalars, "{\"str\":null,\"str\":\"b\"}"));
+        // an escaped key is read by JsonFormat only
+        assertFalse(parse(scalars, "{\"\\u0073tr\":\"a\"}"));
+    }
+
+    @Test
+    public void malformedJsonIsLeftToJsonFormat() throws Exception {
+        String[] inputs = {
+                "", " ", "null", "[]", "1", "\"s\"", "{", "}", "{\"str\":\"a\"", "{\"str\":\"a\",}", "{,}", "{\"str\" \"a\"}",
+                "{\"str\":'a'}", "{'str':\"a\"}", "{str:\"a\"}", "{\"i32\":01}", "{\"i32\":+1}", "{\"i32\":0x10}", "{\"i32\":1 2}",
+                "{\"str\":\"a\"} {}", "{\"str\":\"a\"}x", "{\"str\":\"a\"};", "{\"str\":\"a\"}/* c */", "// c\n{}", "{\"b\":tru}",
+                "{\"b\":nul}", "{\"child\":[]}", "{\"child\":\"x\"}", "{\"str\":{}}", "{\"i32\":\"\"}", "{\"i32\":[1]}",
+                "{\"nope\":}", "{\"nope\":[}", "{\"str\":\"a\"\"b\"}",
+        };
+        for (String input : inputs) {
+            assertFalse(input, parse(scalars, input));
+        }
+        // nesting deeper than the recursion limit
+        String deep = repeat("{\"child\":", 120) + "{}" + repeat("}", 120);
+        assertFalse(parse(scalars, deep));
+        assertTrue(parse(scalars, repeat("{\"child\":", 50) + "{}" + repeat("}", 50)));
+    }
+
+    @Test
+    public void mergedWireDataIsLeftToJsonFormat() throws Exception {
+        // two occurrences of a message field merge
+        assertFalse(print(scalars, concat(wire(scalars, "{\"child\":{\"i32\":1}}"), wire(scalars, "{\"child\":{\"str\":\"b\"}}"))));
+        // the last occurrence of a scalar wins
+        assertTrue(print(scalars, concat(wire(scalars, "{\"i32\":1,\"str\":\"a\"}"), wire(scalars, "{\"i32\":2,\"str\":\"b\"}"))));
+        // length delimited data of a singular number is an unknown field
+        assertTrue(print(scalars, new byte[]{0x0a, 0x01, 0x01}));
+        // a nested message cut short
+        assertFalse(print(scalars, new byte[]{(byte) 0x8a, 0x01, 0x05, 0x08}));
+        assertFalse(print(scalars, new byte[]{(byte) 0x8a, 0x01, 0x02, 0x08}));
+    }
+
+    // the transcoder writes the bytes JsonFormat writes, in the order of the keys; false when it left the input to JsonFormat
+    private static boolean parse(Descriptor type, String json) throws IOException {
+        return parse(type, json, true);
+    }
+
+    private static boolean parseUnordered(Descriptor type, String json) throws IOException {
+        return parse(type, json, false);
+    }
+
+    private static boolean parse(Descriptor type, String json, boolean ordered) throws IOException {
+        byte[] wire = JsonTranscoder.compile(type).toWire(json);
+        DynamicMessage expected;
+        try {
+            DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+            PARSER.merge(json, builder);
+            expected = builder.build();
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            assertNull(json, wire);
+            return false;
+        }
+        if (wire == null) {
+            return false;
+        }
+        if (ordered) {
+            assertArrayEquals(json, expected.toByteArray(), wire);
+        }
+        // compared as read back, a lone surrogate is written as '?'
+        assertEquals(json, DynamicMessage.parseFrom(type, expected.toByteArray()), DynamicMessage.parseFrom(type, wire));
+        return true;
+    }
+
+    // the transcoder prints the JSON JsonFormat prints; false when it left the bytes to JsonFormat
+    private static boolean print(Descriptor type, byte[] wire) throws IOException {
+        String json = JsonTranscoder.compile(type).toJson(wire);
+        String expected;
+        try {
+            expected = PRINTER.print(DynamicMessage.parseFrom(type, wire));
+        } catch (InvalidProtocolBufferException e) {
+            assertNull(json);
+            return false;
+        }
+        if (json == null) {
+            return false;
+        }
+        assertEquals(expected, json);
+        return true;
+    }
+
+    private static byte[] wire(Descriptor type, String json) throws IOException {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+        PARSER.merge(json, builder);
+        return builder.build().toByteArray();
+    }
+
+    private static byte[] varint(int number, long value) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(wire);
+        output.writeUInt64(number, value);
+        output.flush();
+        return wire.toByteArray();
+    }
+
+    private static byte[] bytes(int number, byte[] value) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(wire);
+        output.writeBytes(number, ByteString.copyFrom(value));
+        output.flush();
+        return wire.toByteArray();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private static String resource(String name) throws IOException {
+        try (java.io.InputStream in = JsonTranscoderTest.class.getClassLoader().getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), "UTF-8");
+        }
+    }
+
+    private static FileDescriptor parityFile() throws Exception {
+        DescriptorProto.Builder message = DescriptorProto.newBuilder().setName("Scalars")
+                .addField(field("i32", 1, FieldDescriptorProto.Type.TYPE_INT32))
+                .addField(field("i64", 2, FieldDescriptorProto.Type.TYPE_INT64))
+                .addField(field("u32", 3, FieldDescriptorProto.Type.TYPE_UINT32))
+                .addField(field("u64", 4, FieldDescriptorProto.Type.TYPE_UINT64))
+                .addField(field("s32", 5, FieldDescriptorProto.Type.TYPE_SINT32))
+                .addField(field("s64", 6, FieldDescriptorProto.Type.TYPE_SINT64))
+                .addField(field("f32", 7, FieldDescriptorProto.Type.TYPE_FIXED32))
+                .addField(field("f64", 8, FieldDescriptorProto.Type.TYPE_FIXED64))
+                .addField(field("sf32", 9, FieldDescriptorProto.Type.TYPE_SFIXED32))
+                .addField(field("sf64", 10, FieldDescriptorProto.Type.TYPE_SFIXED64))
+                .addField(field("fl", 11, FieldDescriptorProto.Type.TYPE_FLOAT))
+                .addField(field("db", 12, FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(field("b", 13, FieldDescriptorProto.Type.TYPE_BOOL))
+                .addField(field("str", 14, FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(field("by", 15, FieldDescriptorProto.Type.TYPE_BYTES))
+                .addField(field("color", 16, FieldDescriptorProto.Type.TYPE_ENUM).setTypeName(".parity.Color"))
+                .addField(field("child", 17, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".parity.Scalars"))
+                .addField(repeated("packed_ints", 18, FieldDescriptorProto.Type.TYPE_INT32))
+                .addField(repeated("unpacked_ints", 19, FieldDescriptorProto.Type.TYPE_INT32)
+                        .setOptions(FieldOptions.newBuilder().setPacked(false)))
+                .addField(repeated("names", 20, FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(repeated("colors", 21, FieldDescriptorProto.Type.TYPE_ENUM).setTypeName(".parity.Color"))
+                .addField(repeated("doubles", 22, FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(repeated("children", 23, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".parity.Scalars"));
+        FileDescriptorProto file = FileDescriptorProto.newBuilder()
+                .setName("parity.proto")
+                .setPackage("parity")
+                .setSyntax("proto3")
+                .addEnumType(enumType("Color", "RED", "GREEN", "BLUE"))
+                .addMessageType(message)
+                .build();
+        return FileDescriptor.buildFrom(file, new FileDescriptor[0]);
+    }
+
+    private static FileDescriptor legacyFile() throws Exception {
+        FileDescriptorProto file = FileDescriptorProto.newBuilder()
+                .setName("legacy.proto")
+                .setPackage("legacy")
+                .setSyntax("proto2")
+                .addEnumType(enumType("Level", "LOW", "HIGH"))
+                .addMessageType(DescriptorProto.newBuilder().setName("Legacy")
+                        .addField(field("level", 1, FieldDescriptorProto.Type.TYPE_ENUM).setTypeName(".legacy.Level"))
+                        .addField(repeated("levels", 2, FieldDescriptorProto.Type.TYPE_ENUM).setTypeName(".legacy.Level")))
+                .build();
+        return FileDescriptor.buildFrom(file, new FileDescriptor[0]);
+    }
+
+    // one message for every kind of field the transcoder does not take, and messages holding them
+    private static FileDescriptor specialFile() throws Exception {
+        DescriptorProto entry = DescriptorProto.newBuilder().setName("CountsEntry")
+                .setOptions(MessageOptions.newBuilder().setMapEntry(true))
+                .addField(field("key", 1, FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(field("value", 2, FieldDescriptorProto.Type.TYPE_INT32))
+                .build();
+        FileDescriptorProto file = FileDescriptorProto.newBuilder()
+                .setName("special.proto")
+                .setPackage("special")
+                .setSyntax("proto2")
+                .addDependency(Timestamp.getDescriptor().getFile().getName())
+                .addMessageType(DescriptorProto.newBuilder().setName("WithOneof")
+                        .addOneofDecl(OneofDescriptorProto.newBuilder().setName("choice"))
+                        .addField(field("a", 1, FieldDescriptorProto.Type.TYPE_STRING).setOneofIndex(0))
+                        .addField(field("b", 2, FieldDescriptorProto.Type.TYPE_INT32).setOneofIndex(0)))
+                .addMessageType(DescriptorProto.newBuilder().setName("WithMap")
+                        .addNestedType(entry)
+                        .addField(repeated("counts", 1, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".special.WithMap.CountsEntry")))
+                .addMessageType(DescriptorProto.newBuilder().setName("WithTimestamp")
+                        .addField(field("at", 1, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".google.protobuf.Timestamp")))
+                .addMessageType(DescriptorProto.newBuilder().setName("WithRequired")
+                        .addField(field("id", 1, FieldDescriptorProto.Type.TYPE_STRING).setLabel(FieldDescriptorProto.Label.LABEL_REQUIRED)))
+                .addMessageType(DescriptorProto.newBuilder().setName("WithGroup")
+                        .addNestedType(DescriptorProto.newBuilder().setName("Item")
+                                .addField(field("id", 2, FieldDescriptorProto.Type.TYPE_INT32)))
+                        .addField(field("item", 1, FieldDescriptorProto.Type.TYPE_GROUP).setTypeName(".special.WithGroup.Item")))
+                .addMessageType(DescriptorProto.newBuilder().setName("HoldsOneof")
+                        .addField(field("name", 1, FieldDescriptorProto.Type.TYPE_STRING))
+                        .addField(repeated("items", 2, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".special.WithOneof")))
+                .addMessageType(DescriptorProto.newBuilder().setName("HoldsMapValue")
+                        .addField(field("plain", 1, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".special.Plain"))
+                        .addField(field("map", 2, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".special.WithMap")))
+                .addMessageType(DescriptorProto.newBuilder().setName("Plain")
+                        .addField(field("name", 1, FieldDescriptorProto.Type.TYPE_STRING))
+                        .addField(field("self", 2, FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(".special.Plain")))
+                .build();
+        return FileDescriptor.buildFrom(file, new FileDescriptor[]{Timestamp.getDescriptor().getFile()});
+    }
+
+    private static FieldDescriptorProto.Builder field(String name, int number, FieldDescriptorProto.Type type) {
+        return FieldDescriptorProto.newBuilder().setName(name).setNumber(number).setType(type)
+                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL);
+    }
+
+    private static FieldDescriptorProto.Builder repeated(String name, int number, FieldDescriptorProto.Type type) {
+        return field(name, number, type).setLabel(FieldDescriptorProto.Label.LABEL_REPEATED);
+    }
+
+    private static EnumDescriptorProto enumType(String name, String... values) {
+        EnumDescriptorProto.Builder builder = EnumDescriptorProto.newBuilder().setName(name);
+        for (int i = 0; i < values.length; i++) {
+            builder.addValue(EnumValueDescriptorProto.newBuilder().setName(values[i]).setNumber(i));
+        }
+        return builder.build();
+    }
+}
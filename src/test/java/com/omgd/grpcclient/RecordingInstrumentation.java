@@ -0,0 +1,26 @@
+package com.omgd.grpcclient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ejections and circuit breaker changes in the order they happened, as "eject 1", "restore 1", "open", "close"
+ */
+final class RecordingInstrumentation implements Instrumentation {
+    final List<String> events = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void onCall(String client, String api, Code code, long serializeNanos, long networkNanos,
+                       long deserializeNanos, int requestBytes, int replyBytes) {
+    }
+
+    @Override
+    public void onEjection(String client, int channel, boolean ejected) {
+        events.add((ejected ? "eject " : "restore ") + channel);
+    }
+
+    @Override
+    public void onCircuitBreaker(String client, boolean open) {
+        events.add(open ? "open" : "close");
+    }
+}
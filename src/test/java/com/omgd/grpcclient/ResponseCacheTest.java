@@ -0,0 +1,160 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+    private static final byte[] REPLY = {0x0a, 0x01, 'a'};
+
+    private InProcessBackends backends;
+    private ClientRegistry registry;
+
+    @After
+    public void tearDown() {
+        if (registry != null) {
+            registry.shutdown();
+        }
+        if (backends != null) {
+            backends.shutdown();
+        }
+    }
+
+    @Test
+    public void hitSkipsTheBackend() throws Exception {
+        ResponseCache cache = register(CacheConfig.create());
+
+        assertEquals("a", execute("{\"name\":\"a\"}").getField("code"));
+        assertEquals("a", execute("{\"name\":\"a\"}").getField("code"));
+        assertEquals(Code.OK, execute("{\"name\":\"b\"}").getCode());
+
+        assertEquals(2, backends.totalCalls());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void entryExpiresAfterTheTtl() throws Exception {
+        ResponseCache cache = register(CacheConfig.create().ttl(20));
+        execute("{\"name\":\"a\"}");
+
+        Thread.sleep(40);
+        execute("{\"name\":\"a\"}");
+
+        assertEquals(2, backends.totalCalls());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void evictsOverMaxEntries() throws Exception {
+        ResponseCache cache = register(CacheConfig.create().maxEntries(1));
+
+        execute("{\"name\":\"a\"}");
+        execute("{\"name\":\"b\"}");
+        execute("{\"name\":\"a\"}");
+
+        assertEquals(3, backends.totalCalls());
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void evictsOverMaxBytes() throws Exception {
+        // a 3 byte request with its 3 byte reply fits, a second one does not
+        ResponseCache cache = register(CacheConfig.create().maxBytes(6));
+
+        execute("{\"name\":\"a\"}");
+        execute("{\"name\":\"b\"}");
+        execute("{\"name\":\"b\"}");
+
+        assertEquals(2, backends.totalCalls());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void hitsShareOneRender() throws Exception {
+        register(CacheConfig.create());
+        execute("{\"name\":\"a\"}");
+
+        Response first = execute("{\"name\":\"a\"}");
+        String json = first.getBodyJson();
+        Response second = execute("{\"name\":\"a\"}");
+
+        assertSame(first, second);
+        assertSame(json, second.getBodyJson());
+        assertEquals(1, backends.totalCalls());
+    }
+
+    @Test
+    public void everyHitOwnsItsBodyBytes() throws Exception {
+        register(CacheConfig.create());
+        execute("{\"name\":\"a\"}", BodyFormat.BYTES);
+
+        Response first = execute("{\"name\":\"a\"}", BodyFormat.BYTES);
+        first.getBodyBytes()[2] = 'x';
+        Response second = execute("{\"name\":\"a\"}", BodyFormat.BYTES);
+
+        assertNotSame(first.getBodyBytes(), second.getBodyBytes());
+        assertArrayEquals(REPLY, second.getBodyBytes());
+        assertEquals(1, backends.totalCalls());
+    }
+
+    @Test
+    public void requestFormsShareTheEntryOfTheirBytes() throws Exception {
+        ResponseCache cache = register(CacheConfig.create());
+        Descriptors.Descriptor type = registry.getPlan("cached", InProcessBackends.API).getRequestDescriptor();
+        DynamicMessage message = DynamicMessage.newBuilder(type).setField(type.findFieldByName("name"), "a").build();
+        byte[] bytes = message.toByteArray();
+
+        execute(Client.create().paramsMessage(message));
+        execute(Client.create().paramsJson("{\"name\":\"a\"}"));
+        Response response = execute(Client.create().paramsBytes(bytes).bodyFormat(BodyFormat.MESSAGE));
+        // the key is a copy of the bytes the caller passed in, they stay the caller's
+        bytes[2] = 'x';
+        execute(Client.create().paramsMessage(message));
+
+        assertEquals("a", response.getField("code"));
+        assertEquals(1, backends.totalCalls());
+        assertEquals(3, cache.getHits());
+        assertTrue(cache.toString().startsWith("size=1 hits=3 misses=1"));
+    }
+
+    private ResponseCache register(CacheConfig.Builder cache) throws Exception {
+        backends = new InProcessBackends(InProcessBackends.Behaviour.REPLY);
+        registry = new ClientRegistry();
+        registry.registerClient(ClientConfig.create()
+                .name("cached")
+                .protoFileContent(InProcessBackends.proto())
+                .address(backends.address(0))
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .cache(cache.apis(InProcessBackends.API).build())
+                .build());
+        return registry.getCache("cached", InProcessBackends.API);
+    }
+
+    private Response execute(String paramsJson) {
+        return execute(paramsJson, BodyFormat.JSON);
+    }
+
+    private Response execute(String paramsJson, BodyFormat bodyFormat) {
+        return execute(Client.create().paramsJson(paramsJson).bodyFormat(bodyFormat));
+    }
+
+    private Response execute(Client.Builder builder) {
+        Response response = builder.name("cached").api(InProcessBackends.API).timeout(5000).registry(registry).build().execute();
+        assertEquals(response.getMsg(), Code.OK, response.getCode());
+        return response;
+    }
+}
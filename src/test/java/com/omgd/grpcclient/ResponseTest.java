@@ -0,0 +1,180 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.WireFormat;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ResponseTest {
+    private static final String API = "Lookup/find";
+    private static final String PROTO = "syntax = \"proto3\";\n" +
+            "service Lookup {\n" +
+            "  rpc find (Query) returns (Result) {}\n" +
+            "}\n" +
+            "message Query {\n" +
+            "  optional string id = 1;\n" +
+            "}\n" +
+            "message Result {\n" +
+            "  optional string user_id = 1;\n" +
+            "  optional Detail detail = 2;\n" +
+            "  repeated int32 scores = 3;\n" +
+            "  repeated string tags = 4;\n" +
+            "}\n" +
+            "message Detail {\n" +
+            "  optional string name = 1;\n" +
+            "  optional Detail parent = 2;\n" +
+            "}";
+
+    private static ClientRegistry registry;
+    private static CallPlan plan;
+
+    @BeforeClass
+    public static void setUp() {
+        registry = new ClientRegistry();
+        // no call is made, the address is never connected
+        registry.registerClient(ClientConfig.create()
+                .name("fields")
+                .protoFileContent(PROTO)
+                .address("127.0.0.1:1")
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .build());
+        plan = registry.getPlan("fields", API);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    public void readsNestedFields() {
+        byte[] reply = result("{\"userId\": \"u\", \"detail\": {\"name\": \"n\", \"parent\": {\"name\": \"p\"}}}");
+
+        for (BodyFormat bodyFormat : BodyFormat.values()) {
+            Response response = Client.reply(plan, reply, bodyFormat);
+            assertEquals("u", response.getField("user_id"));
+            assertEquals("n", response.getField("detail.name"));
+            assertEquals("p", response.getField("detail.parent.name"));
+            assertEquals("p", ((DynamicMessage) response.getField("detail.parent")).getField(field("Detail", "name")));
+        }
+    }
+
+    @Test
+    public void unsetFieldsReadAsDefaults() {
+        Response response = Client.reply(plan, new byte[0], BodyFormat.JSON);
+
+        assertEquals("", response.getField("detail.parent.name"));
+        assertEquals(DynamicMessage.getDefaultInstance(plan.getReplyDescriptor().findFieldByName("detail").getMessageType()),
+                response.getField("detail"));
+        assertEquals(Collections.emptyList(), response.getField("scores"));
+    }
+
+    @Test
+    public void lastScalarWinsAndMessagesMerge() throws IOException {
+        // two serialized messages one after the other parse as their merge
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        reply.write(result("{\"userId\": \"a\", \"detail\": {\"name\": \"n\"}, \"tags\": [\"x\"]}"));
+        reply.write(result("{\"userId\": \"b\", \"detail\": {\"parent\": {\"name\": \"p\"}}, \"tags\": [\"y\"]}"));
+        DynamicMessage merged = DynamicMessage.parseFrom(plan.getReplyDescriptor(), reply.toByteArray());
+
+        for (BodyFormat bodyFormat : BodyFormat.values()) {
+            Response response = Client.reply(plan, reply.toByteArray(), bodyFormat);
+            assertEquals("b", response.getField("user_id"));
+            assertEquals("n", response.getField("detail.name"));
+            assertEquals("p", response.getField("detail.parent.name"));
+            assertEquals(merged.getField(field("Result", "detail")), response.getField("detail"));
+            assertEquals(Arrays.asList("x", "y"), response.getField("tags"));
+        }
+    }
+
+    @Test
+    public void repeatedFieldsArePackedOrNot() throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(reply);
+        // packed 1, 2 then an unpacked 3, parsers take both forms
+        output.writeTag(3, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(2);
+        output.writeInt32NoTag(1);
+        output.writeInt32NoTag(2);
+        output.writeInt32(3, 3);
+        output.flush();
+
+        for (BodyFormat bodyFormat : BodyFormat.values()) {
+            assertEquals(Arrays.asList(1, 2, 3), Client.reply(plan, reply.toByteArray(), bodyFormat).getField("scores"));
+        }
+    }
+
+    @Test
+    public void jsonNamesAreAliases() {
+        Response response = Client.reply(plan, result("{\"user_id\": \"u\"}"), BodyFormat.BYTES);
+
+        assertEquals("u", response.getField("userId"));
+        assertEquals("u", response.getField("user_id"));
+    }
+
+    @Test
+    public void missingPathsAreRejected() {
+        Response response = Client.reply(plan, result("{\"userId\": \"u\"}"), BodyFormat.JSON);
+
+        for (String path : new String[]{"nope", "detail.nope", "user_id.name", "scores.name", "detail.", ""}) {
+            try {
+                response.getField(path);
+                fail(path);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void responsesWithoutAReplyHaveNoFields() {
+        assertNull(new Response(Code.ERROR, "boom", null).getField("user_id"));
+        assertNull(new Response(Code.OK, null, "{\"userId\": \"u\"}").getField("user_id"));
+    }
+
+    @Test
+    public void toStringNeverDecodesTheBody() {
+        // a string field cut short
+        Response broken = Client.reply(plan, new byte[]{0x0a, 0x05, 'u'}, BodyFormat.JSON);
+        try {
+            broken.getBodyJson();
+            fail("decoded");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertEquals("code=OK|msg=null|body=JSON 3 bytes", broken.toString());
+        assertEquals("code=ERROR|msg=boom", new Response(Code.ERROR, "boom", null).toString());
+        assertEquals("code=OK|msg=null|bodyJson=2 chars", new Response(Code.OK, null, "{}").toString());
+    }
+
+    private static byte[] result(String json) {
+        try {
+            DynamicMessage.Builder builder = DynamicMessage.newBuilder(plan.getReplyDescriptor());
+            plan.getParser().merge(json, builder);
+            return builder.build().toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static FieldDescriptor field(String type, String name) {
+        Descriptor descriptor = plan.getReplyDescriptor().getFile().findMessageTypeByName(type);
+        return descriptor.findFieldByName(name);
+    }
+}
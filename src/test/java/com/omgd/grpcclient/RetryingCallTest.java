@@ -0,0 +1,171 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.grpc.Status;
+
+public class RetryingCallTest {
+    private static final byte[] REQUEST = {0x0a, 0x04, 't', 'e', 's', 't'};
+
+    private InProcessBackends backends;
+    private ChannelPool channelPool;
+
+    @After
+    public void tearDown() {
+        if (channelPool != null) {
+            channelPool.shutdownNow();
+        }
+        if (backends != null) {
+            backends.shutdown();
+        }
+    }
+
+    @Test
+    public void firstReplyWinsAndTheLoserIsCancelled() throws Exception {
+        // round robin on a new pool: the first attempt hangs on channel 0, the hedge goes to channel 1
+        RetryPolicy policy = hedging(RetryConfig.create().maxAttempts(2).hedgePercentile(90).minHedgeDelay(20), 1);
+        CallPlan plan = plan(policy, InProcessBackends.Behaviour.HANG, InProcessBackends.Behaviour.REPLY);
+
+        Object reply = RetryingCall.start(plan, REQUEST, 60000).get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(REQUEST, (byte[]) reply);
+        assertEquals("call 0", backends.nextEvent());
+        assertEquals("call 1", backends.nextEvent());
+        assertEquals("reply 1", backends.nextEvent());
+        assertEquals("cancel 0", backends.nextEvent());
+    }
+
+    @Test
+    public void hedgeWinDoesNotShortenTheHedgeDelay() throws Exception {
+        // no floor under the hedge delay, it follows the latencies only; every win pays for the next hedge
+        RetryPolicy policy = hedging(RetryConfig.create().maxAttempts(2).hedgePercentile(50).minHedgeDelay(0)
+                .budgetRatio(1), 5);
+        CallPlan plan = plan(policy, InProcessBackends.Behaviour.HANG, InProcessBackends.Behaviour.REPLY);
+
+        // a window of calls won by hedges: each one took the hedge delay and more since its first attempt, the
+        // hedges alone were faster
+        for (int i = 0; i < 256; i++) {
+            RetryingCall.start(plan, REQUEST, 60000).get(5, TimeUnit.SECONDS);
+        }
+
+        assertTrue(policy.getHedgeDelay() >= TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(256, backends.calls(0));
+        assertEquals(256, backends.calls(1));
+    }
+
+    @Test
+    public void unavailableIsRetriedOnAnotherChannel() throws Exception {
+        RetryPolicy policy = policy(RetryConfig.create().maxAttempts(3));
+        CallPlan plan = plan(policy, InProcessBackends.Behaviour.UNAVAILABLE, InProcessBackends.Behaviour.REPLY);
+
+        Object reply = RetryingCall.start(plan, REQUEST, 60000).get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(REQUEST, (byte[]) reply);
+        assertEquals("call 0", backends.nextEvent());
+        assertEquals("fail 0", backends.nextEvent());
+        assertEquals("call 1", backends.nextEvent());
+        assertEquals("reply 1", backends.nextEvent());
+    }
+
+    @Test
+    public void retryIsNotSentWhenItsBackoffPassesTheDeadline() throws Exception {
+        RetryPolicy policy = policy(RetryConfig.create().maxAttempts(3)
+                .initialBackoff(Integer.MAX_VALUE).maxBackoff(Integer.MAX_VALUE));
+        CallPlan plan = plan(policy, InProcessBackends.Behaviour.UNAVAILABLE, InProcessBackends.Behaviour.REPLY);
+
+        assertEquals(Status.Code.UNAVAILABLE, failure(plan, 1000));
+
+        assertEquals(1, backends.totalCalls());
+    }
+
+    @Test
+    public void backoffIsRandomBelowTheExponentialBound() {
+        RetryPolicy policy = policy(RetryConfig.create().initialBackoff(10).backoffMultiplier(2).maxBackoff(50));
+        long[] bounds = {10, 20, 40, 50, 50};
+        for (int retry = 1; retry <= bounds.length; retry++) {
+            long bound = TimeUnit.MILLISECONDS.toNanos(bounds[retry - 1]);
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long backoff = policy.getBackoff(retry);
+                assertTrue(backoff >= 0 && backoff < bound);
+                min = Math.min(min, backoff);
+                max = Math.max(max, backoff);
+            }
+            // jittered over the whole range, calls failing together do not retry together
+            assertTrue(min < bound / 4 && max > bound * 3 / 4);
+        }
+    }
+
+    @Test
+    public void budgetRunsOutWhileTheBackendIsDown() throws Exception {
+        RetryPolicy policy = policy(RetryConfig.create().maxAttempts(3).maxTokens(5).initialBackoff(1).maxBackoff(1));
+        CallPlan plan = plan(policy, InProcessBackends.Behaviour.UNAVAILABLE, InProcessBackends.Behaviour.UNAVAILABLE);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Status.Code.UNAVAILABLE, failure(plan, 60000));
+        }
+
+        // no success ever refills the bucket: the first calls spend the tokens, the rest go out once
+        assertEquals(20 + 5, backends.totalCalls());
+    }
+
+    @Test
+    public void callNeverOutlivesTheOriginalDeadline() throws Exception {
+        RetryPolicy policy = hedging(RetryConfig.create().maxAttempts(3).hedgePercentile(90).minHedgeDelay(50)
+                .retryableCodes(Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED), 1);
+        CallPlan plan = plan(policy, InProcessBackends.Behaviour.HANG, InProcessBackends.Behaviour.HANG);
+
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, failure(plan, 200));
+
+        // hedges share the deadline of the call, none of them restarts it, and nothing is retried past it
+        List<Long> deadlines = backends.deadlines();
+        assertTrue(!deadlines.isEmpty() && deadlines.size() <= 3);
+        assertTrue(deadlines.get(0) <= TimeUnit.MILLISECONDS.toNanos(200));
+        for (int i = 1; i < deadlines.size(); i++) {
+            assertTrue(deadlines.get(i) < deadlines.get(i - 1));
+        }
+    }
+
+    private static RetryPolicy policy(RetryConfig.Builder builder) {
+        RetryConfig config = builder.apis(InProcessBackends.API).build();
+        config.validate();
+        return new RetryPolicy(config, new RetryPolicy.Budget(config));
+    }
+
+    // a full window of calls that took the given time, hedges go out from the first call on
+    private static RetryPolicy hedging(RetryConfig.Builder builder, long latencyMillis) {
+        RetryPolicy policy = policy(builder);
+        for (int i = 0; i < 256; i++) {
+            policy.onSuccess(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+        assertTrue(policy.getHedgeDelay() > 0);
+        return policy;
+    }
+
+    private CallPlan plan(RetryPolicy policy, InProcessBackends.Behaviour... behaviours) throws Exception {
+        backends = new InProcessBackends(behaviours);
+        channelPool = new ChannelPool("test", "in-process", backends.channels(), ChannelStrategy.ROUND_ROBIN, null, null);
+        return InProcessBackends.plan(channelPool, policy);
+    }
+
+    private static Status.Code failure(CallPlan plan, int timeout) throws Exception {
+        try {
+            RetryingCall.start(plan, REQUEST, timeout).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return Status.fromThrowable(e.getCause()).getCode();
+        }
+        fail("call succeeded");
+        return null;
+    }
+}
@@ -0,0 +1,127 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemaCacheTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ClientRegistry registry = new ClientRegistry();
+    private final AtomicInteger compiles = new AtomicInteger();
+    // example.proto as the registry compiled it
+    private SchemaCache.Entry compiled;
+    private String snapshotDir;
+
+    @Before
+    public void setUp() throws Exception {
+        // no call is made, the address is never connected
+        registry.registerClient(ClientConfig.create()
+                .name("schema")
+                .protoFileContent(InProcessBackends.proto())
+                .address("127.0.0.1:1")
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .build());
+        compiled = registry.getHandle("schema").getSchema();
+        snapshotDir = folder.getRoot().getPath();
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    public void snapshotIsWrittenOnACompile() throws Exception {
+        String proto = proto();
+
+        assertSame(compiled, SchemaCache.get(proto, snapshotDir, compiler()));
+
+        Path snapshot = SchemaCache.snapshot(snapshotDir, SchemaCache.key(proto));
+        assertTrue(snapshot.getFileName().toString().endsWith(".v" + SchemaCache.SNAPSHOT_VERSION + ".desc"));
+        assertSameSchema(compiled, SchemaCache.load(snapshot));
+        assertEquals(1, compiles.get());
+    }
+
+    @Test
+    public void snapshotIsLoadedInsteadOfCompiling() throws Exception {
+        String proto = proto();
+        SchemaCache.save(SchemaCache.snapshot(snapshotDir, SchemaCache.key(proto)), compiled);
+
+        SchemaCache.Entry loaded = SchemaCache.get(proto, snapshotDir, compiler());
+
+        assertSameSchema(compiled, loaded);
+        assertEquals(0, compiles.get());
+        // cached from now on
+        assertSame(loaded, SchemaCache.get(proto, snapshotDir, compiler()));
+    }
+
+    @Test
+    public void snapshotsOfAnotherVersionAreLeftAlone() throws Exception {
+        String proto = proto();
+        String key = SchemaCache.key(proto);
+        // written by an older release, before the version was part of the name
+        Path unversioned = folder.getRoot().toPath().resolve(key + ".desc");
+        byte[] old = {1, 2, 3};
+        Files.write(unversioned, old);
+
+        SchemaCache.get(proto, snapshotDir, compiler());
+
+        assertEquals(1, compiles.get());
+        assertArrayEquals(old, Files.readAllBytes(unversioned));
+        assertTrue(Files.exists(SchemaCache.snapshot(snapshotDir, key)));
+    }
+
+    @Test
+    public void unreadableSnapshotIsCompiledAndReplaced() throws Exception {
+        String proto = proto();
+        Path snapshot = SchemaCache.snapshot(snapshotDir, SchemaCache.key(proto));
+        Files.write(snapshot, new byte[]{1, 2, 3});
+
+        assertSame(compiled, SchemaCache.get(proto, snapshotDir, compiler()));
+
+        assertEquals(1, compiles.get());
+        assertSameSchema(compiled, SchemaCache.load(snapshot));
+    }
+
+    // example.proto with a comment of its own, a content no other test cached
+    private static String proto() throws Exception {
+        return InProcessBackends.proto() + "\n// " + UUID.randomUUID() + "\n";
+    }
+
+    private Function<String, SchemaCache.Entry> compiler() {
+        return protoFileContent -> {
+            compiles.incrementAndGet();
+            return compiled;
+        };
+    }
+
+    private static void assertSameSchema(SchemaCache.Entry expected, SchemaCache.Entry actual) {
+        assertEquals(expected.getServices().keySet(), actual.getServices().keySet());
+        expected.getServices().forEach((api, definition) -> {
+            ApiDefinition read = actual.getServices().get(api);
+            assertEquals(definition.getRequestTypeName(), read.getRequestTypeName());
+            assertEquals(definition.getReplyTypeName(), read.getReplyTypeName());
+            assertEquals(definition.getMethodType(), read.getMethodType());
+        });
+        for (String type : expected.getSchema().getMessageTypes()) {
+            assertEquals(expected.getSchema().getMessageDescriptor(type).toProto(),
+                    actual.getSchema().getMessageDescriptor(type).toProto());
+        }
+    }
+}
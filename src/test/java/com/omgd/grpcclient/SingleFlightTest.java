@@ -0,0 +1,119 @@
+package com.omgd.grpcclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SingleFlightTest {
+    private static final byte[] REPLY = {0x0a, 0x01, 'a'};
+
+    private InProcessBackends backends;
+    private ClientRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        backends = new InProcessBackends(InProcessBackends.Behaviour.HOLD);
+        registry = new ClientRegistry();
+        registry.registerClient(ClientConfig.create()
+                .name("coalesced")
+                .protoFileContent(InProcessBackends.proto())
+                .address(backends.address(0))
+                .connections(1)
+                .warmUp(WarmUp.NONE)
+                .coalesce(InProcessBackends.API)
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+        backends.shutdown();
+    }
+
+    @Test
+    public void followersShareTheLeadingCall() throws Exception {
+        CompletableFuture<Response> leader = execute("{\"name\":\"a\"}", 5000, BodyFormat.JSON);
+        assertEquals("call 0", backends.nextEvent());
+        CompletableFuture<Response> follower = execute("{\"name\":\"a\"}", 5000, BodyFormat.JSON);
+        // other requests and other body formats are calls of their own
+        CompletableFuture<Response> other = execute("{\"name\":\"b\"}", 5000, BodyFormat.JSON);
+        CompletableFuture<Response> message = execute("{\"name\":\"a\"}", 5000, BodyFormat.MESSAGE);
+        InProcessBackends.await(() -> backends.held(0) == 3);
+
+        backends.release(0, InProcessBackends.Behaviour.REPLY);
+
+        assertEquals("a", leader.get(5, TimeUnit.SECONDS).getField("code"));
+        assertEquals("a", follower.get(5, TimeUnit.SECONDS).getField("code"));
+        assertEquals("b", other.get(5, TimeUnit.SECONDS).getField("code"));
+        assertNotNull(message.get(5, TimeUnit.SECONDS).getBodyMessage());
+        assertEquals(3, backends.totalCalls());
+    }
+
+    @Test
+    public void followerEndsWithItsOwnDeadline() throws Exception {
+        CompletableFuture<Response> leader = execute("{\"name\":\"a\"}", 5000, BodyFormat.JSON);
+        assertEquals("call 0", backends.nextEvent());
+        CompletableFuture<Response> follower = execute("{\"name\":\"a\"}", 50, BodyFormat.JSON);
+
+        // the deadline of the follower ran, the leading call is still held
+        InProcessBackends.flush(50);
+
+        assertTrue(follower.isDone());
+        assertEquals(Code.TIMEOUT, follower.get().getCode());
+        assertFalse(leader.isDone());
+        backends.release(0, InProcessBackends.Behaviour.REPLY);
+        assertEquals(Code.OK, leader.get(5, TimeUnit.SECONDS).getCode());
+        assertEquals(1, backends.totalCalls());
+    }
+
+    @Test
+    public void followersShareTheError() throws Exception {
+        CompletableFuture<Response> leader = execute("{\"name\":\"a\"}", 5000, BodyFormat.JSON);
+        assertEquals("call 0", backends.nextEvent());
+        CompletableFuture<Response> follower = execute("{\"name\":\"a\"}", 5000, BodyFormat.JSON);
+
+        backends.release(0, InProcessBackends.Behaviour.UNAVAILABLE);
+
+        Response failed = leader.get(5, TimeUnit.SECONDS);
+        assertEquals(Code.ERROR, failed.getCode());
+        assertEquals(Code.ERROR, follower.get(5, TimeUnit.SECONDS).getCode());
+        assertEquals(failed.getMsg(), follower.get().getMsg());
+        assertEquals(1, backends.totalCalls());
+        // the failed call is gone, the next one is sent
+        backends.setBehaviour(0, InProcessBackends.Behaviour.REPLY);
+        assertEquals(Code.OK, execute("{\"name\":\"a\"}", 5000, BodyFormat.JSON).get(5, TimeUnit.SECONDS).getCode());
+        assertEquals(2, backends.totalCalls());
+    }
+
+    @Test
+    public void everyFollowerOwnsItsBodyBytes() throws Exception {
+        CompletableFuture<Response> leader = execute("{\"name\":\"a\"}", 5000, BodyFormat.BYTES);
+        assertEquals("call 0", backends.nextEvent());
+        CompletableFuture<Response> first = execute("{\"name\":\"a\"}", 5000, BodyFormat.BYTES);
+        CompletableFuture<Response> second = execute("{\"name\":\"a\"}", 5000, BodyFormat.BYTES);
+
+        backends.release(0, InProcessBackends.Behaviour.REPLY);
+        byte[] leading = leader.get(5, TimeUnit.SECONDS).getBodyBytes();
+        leading[2] = 'x';
+        first.get(5, TimeUnit.SECONDS).getBodyBytes()[2] = 'y';
+
+        assertArrayEquals(REPLY, second.get(5, TimeUnit.SECONDS).getBodyBytes());
+        assertNotSame(first.get().getBodyBytes(), second.get().getBodyBytes());
+        assertEquals(1, backends.totalCalls());
+    }
+
+    private CompletableFuture<Response> execute(String paramsJson, int timeout, BodyFormat bodyFormat) {
+        return Client.create().name("coalesced").api(InProcessBackends.API).paramsJson(paramsJson).timeout(timeout)
+                .bodyFormat(bodyFormat).registry(registry).build().executeAsync();
+    }
+}